@@ -6,12 +6,12 @@ import org.socionicasys.analyst.model.AData;
 
 import java.awt.*;
 import java.io.File;
-import java.io.Serializable;
 import java.text.DateFormat;
 import java.util.*;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.regex.Pattern;
+import javax.swing.event.DocumentEvent;
 import javax.swing.event.UndoableEditEvent;
 import javax.swing.text.*;
 import javax.swing.undo.*;
@@ -25,15 +25,75 @@ public class ADocument extends DefaultStyledDocument {
 	public static final String DATE_PROPERTY = "date";
 	public static final String COMMENT_PROPERTY = "comment";
 
+	/**
+	 * Системное свойство, включающее для новых документов компактное хранилище разметки
+	 * ({@link CompactSectionStore}).
+	 */
+	public static final String COMPACT_SECTIONS_PROPERTY = "org.socionicasys.analyst.compactSections";
+
+	/**
+	 * Системное свойство, включающее для новых документов отрисовку пометок слоем подсветки
+	 * ({@link SectionHighlighter}) вместо атрибутов текста.
+	 */
+	public static final String HIGHLIGHT_SECTIONS_PROPERTY = "org.socionicasys.analyst.highlightSections";
+
+	/**
+	 * Системное свойство, включающее для новых документов хранение текста в таблице фрагментов
+	 * ({@link PieceTableContent}) вместо {@link GapContent}.
+	 */
+	public static final String PIECE_TABLE_CONTENT_PROPERTY = "org.socionicasys.analyst.pieceTableContent";
+
 	public static final SimpleAttributeSet DEFAULT_STYLE;
 	public static final SimpleAttributeSet DEFAULT_SECTION_STYLE;
 
-	private final Map<DocumentSection, AData> aDataMap;
+	/**
+	 * Разметка документа вместе с индексом размеченных интервалов.
+	 */
+	private final SectionStore sectionStore;
+
+	/**
+	 * Содержимое, в котором хранится текст документа. При компактном хранилище разметки документ работает
+	 * с ним через содержимое хранилища.
+	 */
+	private final Content textContent;
+
+	/**
+	 * Рисуются ли пометки слоем подсветки текстового поля. В этом режиме атрибуты текста не содержат
+	 * фона пометок, и изменения разметки не затрагивают структуру элементов документа.
+	 */
+	private final boolean highlightSections;
+
 	private final Collection<ADocumentChangeListener> listeners;
+	private final Collection<ADocumentDeltaListener> deltaListeners;
+
+	/**
+	 * Изменения пометок и текста, о которых слушатели еще не оповещены.
+	 */
+	private final ADocumentChangeEvent.Builder pendingChanges;
 
 	private CompoundEdit currentCompoundEdit;
 	private int currentCompoundDepth;
 
+	/**
+	 * Уровень вложенности операций, на время которых оповещение слушателей откладывается.
+	 */
+	private int notificationSuspendDepth;
+
+	/**
+	 * Было ли запрошено оповещение слушателей, пока оно было отложено.
+	 */
+	private boolean notificationPending;
+
+	/**
+	 * Идет ли удаление текста, начатое в {@link #removeUpdate}.
+	 */
+	private boolean removeInProgress;
+
+	/**
+	 * Идет ли вставка текста, начатая в {@link #insertSpecs}.
+	 */
+	private boolean specsInsertInProgress;
+
 	private static final Pattern EXPERTS_SEPARATOR_PATTER = Pattern.compile(" *; *");
 
 	/**
@@ -62,41 +122,58 @@ public class ADocument extends DefaultStyledDocument {
 	}
 
 	/**
-	 * Сравнивает две {@link DocumentSection} исходя из их близости к определенному положению в документе.
+	 * Создает пустой документ. Тип хранилища разметки и способ отрисовки пометок определяются системными
+	 * свойствами {@link #COMPACT_SECTIONS_PROPERTY} и {@link #HIGHLIGHT_SECTIONS_PROPERTY}.
 	 */
-	private static final class SectionDistanceComparator implements Comparator<DocumentSection>, Serializable {
-		private final int targetPosition;
+	public ADocument() {
+		this(Boolean.getBoolean(COMPACT_SECTIONS_PROPERTY));
+	}
 
-		/**
-		 * @param targetPosition позиция в документе. Секции, центры которых близки к этой позиции
-		 * будут выше при сортировке.
-		 */
-		private SectionDistanceComparator(int targetPosition) {
-			this.targetPosition = targetPosition;
-		}
+	/**
+	 * Создает пустой документ. Способ отрисовки пометок определяется системным свойством
+	 * {@link #HIGHLIGHT_SECTIONS_PROPERTY}.
+	 *
+	 * @param compactSections использовать ли компактное хранилище разметки, рассчитанное на документы
+	 * с большим числом пометок
+	 */
+	public ADocument(boolean compactSections) {
+		this(compactSections, Boolean.getBoolean(HIGHLIGHT_SECTIONS_PROPERTY));
+	}
 
-		@Override
-		public int compare(DocumentSection o1, DocumentSection o2) {
-			int midDistance1 = Math.abs(targetPosition - o1.getMiddleOffset());
-			int midDistance2 = Math.abs(targetPosition - o2.getMiddleOffset());
-			if (midDistance1 != midDistance2) {
-				return midDistance1 - midDistance2;
-			}
-			return -(o1.getStartOffset() - o2.getStartOffset());
-		}
+	/**
+	 * Создает пустой документ.
+	 *
+	 * @param compactSections использовать ли компактное хранилище разметки, рассчитанное на документы
+	 * с большим числом пометок
+	 * @param highlightSections рисовать ли пометки слоем подсветки ({@link SectionHighlighter}),
+	 * а не атрибутами текста
+	 */
+	public ADocument(boolean compactSections, boolean highlightSections) {
+		this(createTextContent(), compactSections, highlightSections);
 	}
 
-	public ADocument() {
+	private ADocument(Content textContent, boolean compactSections, boolean highlightSections) {
+		this(textContent, compactSections ? new CompactSectionStore(textContent) : null, highlightSections);
+	}
+
+	private ADocument(Content textContent, CompactSectionStore compactStore, boolean highlightSections) {
+		super(compactStore == null ? textContent : compactStore.getContent(), new StyleContext());
 		logger.trace("ADocument(): entering");
 
+		this.textContent = textContent;
+		this.highlightSections = highlightSections;
+
 		listeners = new ArrayList<ADocumentChangeListener>();
+		deltaListeners = new ArrayList<ADocumentDeltaListener>();
+		pendingChanges = new ADocumentChangeEvent.Builder();
 
 		currentCompoundDepth = 0;
+		notificationSuspendDepth = 0;
 
 		matchMissModel = new MatchMissModel();
-		addADocumentChangeListener(matchMissModel);
+		addADocumentDeltaListener(matchMissModel);
 
-		aDataMap = new HashMap<DocumentSection, AData>();
+		sectionStore = compactStore == null ? new IndexedSectionStore(this) : compactStore;
 
 		putProperty(TitleProperty, DEFAULT_TITLE);
 		putProperty(EXPERT_PROPERTY, "");
@@ -110,6 +187,18 @@ public class ADocument extends DefaultStyledDocument {
 		logger.trace("ADocument(): leaving");
 	}
 
+	/**
+	 * Создает содержимое для текста нового документа. Тип содержимого определяется системным свойством
+	 * {@link #PIECE_TABLE_CONTENT_PROPERTY}.
+	 *
+	 * @return пустое содержимое
+	 */
+	private static Content createTextContent() {
+		return Boolean.getBoolean(PIECE_TABLE_CONTENT_PROPERTY)
+				? new PieceTableContent()
+				: new GapContent(BUFFER_SIZE_DEFAULT);
+	}
+
 	/**
 	 * Находит блок ({@link DocumentSection}), который содержит заданную позицию. Если таких блоков несколько,
 	 * выбирается тот, центральная часть которого лежит ближе всего к этой позиции. Среди блоков, центры которых лежат
@@ -120,22 +209,38 @@ public class ADocument extends DefaultStyledDocument {
 	 */
 	public DocumentSection getSection(int pos) {
 		logger.trace("getSection({}): entering", pos);
-		Collection<DocumentSection> results = new ArrayList<DocumentSection>();
-		for (DocumentSection section : aDataMap.keySet()) {
-			if (section.containsOffset(pos)) {
-				results.add(section);
-			}
-		}
-		if (results.isEmpty()) {
-			logger.trace("getSection({}): leaving, no section found", pos);
-			return null;
-		}
-
-		DocumentSection matchingSection = Collections.min(results, new SectionDistanceComparator(pos));
+		DocumentSection matchingSection = sectionStore.findInnermost(pos);
 		logger.trace("getSection({}): leaving, found DocumentSection {}", pos, matchingSection);
 		return matchingSection;
 	}
 
+	/**
+	 * Возвращает интервал с пометкой, имеющий заданные границы.
+	 *
+	 * @param startOffset начало интервала
+	 * @param endOffset конец интервала
+	 * @return интервал документа с отметками и заданными границами, {@code null} если такого интервала нет
+	 */
+	public DocumentSection getSection(int startOffset, int endOffset) {
+		logger.trace("getSection({}, {}): entering", startOffset, endOffset);
+		DocumentSection section = sectionStore.find(startOffset, endOffset);
+		logger.trace("getSection({}, {}): leaving, found DocumentSection {}", startOffset, endOffset, section);
+		return section;
+	}
+
+	/**
+	 * Создает новый интервал в документе. Интервал получает номер, уникальный в пределах документа,
+	 * и сохраняет его при любых правках текста.
+	 *
+	 * @param startOffset начальное смещение интервала
+	 * @param endOffset конечное смещение интервала
+	 * @return созданный интервал, пока не связанный с разметкой
+	 * @throws BadLocationException когда начальное/конечное смещения находятся вне границ документа
+	 */
+	public DocumentSection createSection(int startOffset, int endOffset) throws BadLocationException {
+		return sectionStore.createSection(startOffset, endOffset);
+	}
+
 	/**
 	 * Возвращает интервал в документе, содержащий пометку и начинающийся в заданной позиции.
 	 *
@@ -145,59 +250,121 @@ public class ADocument extends DefaultStyledDocument {
 	 */
 	public DocumentSection getSectionThatStartsAt(int startOffset) {
 		logger.trace("getSectionThatStartsAt({}): entering", startOffset);
-		for (DocumentSection section : aDataMap.keySet()) {
-			if (section.getStartOffset() == startOffset) {
-				logger.trace("getSectionThatStartsAt({}): leaving, found DocumentSection {}", startOffset, section);
-				return section;
-			}
-		}
-		logger.trace("getSectionThatStartsAt({}): leaving, no section found", startOffset);
-		return null;
+		DocumentSection section = sectionStore.exact(startOffset);
+		logger.trace("getSectionThatStartsAt({}): leaving, found DocumentSection {}", startOffset, section);
+		return section;
+	}
+
+	/**
+	 * Возвращает интервал с пометкой, начинающийся в заданной позиции или ближайший к ней слева.
+	 *
+	 * @param offset позиция в документе
+	 * @return интервал с наибольшим началом, не превышающим {@code offset},
+	 * {@code null} если такого интервала нет
+	 */
+	public DocumentSection getSectionStartingAtOrBefore(int offset) {
+		return sectionStore.floor(offset);
+	}
+
+	/**
+	 * Возвращает интервал с пометкой, начинающийся в заданной позиции или ближайший к ней справа.
+	 *
+	 * @param offset позиция в документе
+	 * @return интервал с наименьшим началом, не меньшим {@code offset},
+	 * {@code null} если такого интервала нет
+	 */
+	public DocumentSection getSectionStartingAtOrAfter(int offset) {
+		return sectionStore.ceiling(offset);
+	}
+
+	/**
+	 * Добавляет в коллекцию интервалы с пометками, пересекающиеся с диапазоном {@code [startOffset, endOffset]}
+	 * или касающиеся его, в порядке возрастания начала.
+	 *
+	 * @param startOffset начало диапазона
+	 * @param endOffset конец диапазона
+	 * @param result коллекция, в которую добавляются найденные интервалы
+	 */
+	void collectSections(int startOffset, int endOffset, Collection<DocumentSection> result) {
+		sectionStore.collectIntersecting(startOffset, endOffset, result);
+	}
+
+	/**
+	 * @return рисуются ли пометки слоем подсветки текстового поля, а не атрибутами текста
+	 */
+	public boolean isHighlightingSections() {
+		return highlightSections;
 	}
 
 	@Override
 	protected void insertUpdate(DefaultDocumentEvent chng, AttributeSet attr) {
 		logger.trace("insertUpdate(): entering, chng={}, attr={}", chng, attr);
 		//if insert is on the section end - do not extend the section to the inserted text
-		int offset = chng.getOffset();
-		int length = chng.getLength();
-
-		Iterator<DocumentSection> sectionIterator = aDataMap.keySet().iterator();
-		Map<DocumentSection, AData> tempMap = new HashMap<DocumentSection, AData>();
-		while (sectionIterator.hasNext()) {
-			DocumentSection sect = sectionIterator.next();
-			if (sect.getEndOffset() == offset + length) {
-				int start = sect.getStartOffset();
-				AData aData = aDataMap.get(sect);
-				sectionIterator.remove();
-				try {
-					tempMap.put(new DocumentSection(this, start, offset), aData);
-				} catch (BadLocationException e) {
-					logger.error("Invalid position for DocumentSection", e);
-				}
-			}
-		}
-
-		aDataMap.putAll(tempMap);
+		sectionStore.insertUpdate(chng.getOffset(), chng.getLength());
 
 		super.insertUpdate(chng, DEFAULT_STYLE);
 		logger.trace("insertUpdate(): leaving");
 	}
 
+	@Override
+	protected void fireInsertUpdate(DocumentEvent e) {
+		// Вставка, о которой сообщает не DefaultDocumentEvent, вызвана отменой удаления или повтором вставки текста
+		if (!(e instanceof DefaultDocumentEvent)) {
+			sectionStore.textRestored();
+		}
+		// insert() вызывает insertUpdate() базового класса в обход переопределенного, поэтому интервалы
+		// корректируются здесь, до оповещения слушателей о вставке
+		if (specsInsertInProgress) {
+			specsInsertInProgress = false;
+			sectionStore.insertUpdate(e.getOffset(), e.getLength());
+		}
+		pendingChanges.textShifted(e.getOffset(), e.getLength());
+		super.fireInsertUpdate(e);
+		fireTextShifted();
+	}
+
+	@Override
+	protected void fireRemoveUpdate(DocumentEvent e) {
+		// Удаление, о котором сообщает DefaultDocumentEvent, уже учтено в removeUpdate()
+		boolean restoredRemove = !(e instanceof DefaultDocumentEvent);
+		if (restoredRemove) {
+			pendingChanges.textShifted(e.getOffset(), -e.getLength());
+		}
+		super.fireRemoveUpdate(e);
+		if (restoredRemove) {
+			fireTextShifted();
+		}
+	}
+
 	@Override
 	protected void removeUpdate(DefaultDocumentEvent chng) {
 		logger.trace("removeUpdate(): entering, chng={}", chng);
 		startCompoundEdit();
+		removeInProgress = true;
 
 		int offset = chng.getOffset();
 		removeCleanup(offset, offset + chng.getLength());
 		super.removeUpdate(chng);
 
+		pendingChanges.textShifted(offset, -chng.getLength());
 		fireADocumentChanged();
-		endCompoundEdit();
 		logger.trace("removeUpdate(): leaving");
 	}
 
+	/**
+	 * Оканчивает группу изменений, начатую в {@link #removeUpdate}, когда текст уже удален, чтобы слушатели
+	 * получили оповещение об удалении после того, как оно произошло.
+	 */
+	@Override
+	protected void postRemoveUpdate(DefaultDocumentEvent chng) {
+		super.postRemoveUpdate(chng);
+		// removeElement() вызывает postRemoveUpdate() без removeUpdate()
+		if (removeInProgress) {
+			removeInProgress = false;
+			endCompoundEdit();
+		}
+	}
+
 	/**
 	 * Проверяет не нужно ли удалить схлопнувшиеся сегменты при удалении фрагмента текста.
 	 *
@@ -207,10 +374,11 @@ public class ADocument extends DefaultStyledDocument {
 	private void removeCleanup(int start, int end) {
 		logger.trace("removeCleanup(): entering, start={}, end={}", start, end);
 
+		Collection<DocumentSection> candidates = new ArrayList<DocumentSection>();
+		sectionStore.collectIntersecting(start, end, candidates);
 		Collection<DocumentSection> toRemove = new ArrayList<DocumentSection>();
-		for (DocumentSection sect : aDataMap.keySet()) {
-			if (sect.getStartOffset() >= start && sect.getStartOffset() <= end &&
-					sect.getEndOffset() >= start && sect.getEndOffset() <= end) {
+		for (DocumentSection sect : candidates) {
+			if (sect.getStartOffset() >= start && sect.getEndOffset() <= end) {
 				toRemove.add(sect);
 			}
 		}
@@ -220,7 +388,7 @@ public class ADocument extends DefaultStyledDocument {
 	}
 
 	public AData getAData(DocumentSection section) {
-		return aDataMap.get(section);
+		return sectionStore.get(section);
 	}
 
 	/**
@@ -230,39 +398,11 @@ public class ADocument extends DefaultStyledDocument {
 	 */
 	public void removeSections(Collection<DocumentSection> sections) {
 		logger.trace("removeSections({}): entering", sections);
-		startCompoundEdit();
-
-		Map<DocumentSection, AData> removedDataMap = new HashMap<DocumentSection, AData>(sections.size());
+		SectionChangeBatch batch = new SectionChangeBatch();
 		for (DocumentSection section : sections) {
-			removedDataMap.put(section, aDataMap.remove(section));
-		}
-
-		for (DocumentSection section : removedDataMap.keySet()) {
-			drawSection(section, false);
-		}
-		for (DocumentSection section : aDataMap.keySet()) {
-			boolean intersectsRemoved = false;
-			for (DocumentSection removedSection : removedDataMap.keySet()) {
-				if (section.intersects(removedSection)) {
-					intersectsRemoved = true;
-					break;
-				}
-			}
-
-			if (intersectsRemoved) {
-				drawSection(section, true);
-			}
+			batch.remove(section);
 		}
-
-		for (Entry<DocumentSection, AData> removedEntry : removedDataMap.entrySet()) {
-			DocumentSection removedSection = removedEntry.getKey();
-			AData removedData = removedEntry.getValue();
-			fireUndoableEditUpdate(new UndoableEditEvent(this, new SectionDeletionEdit(removedSection, removedData)));
-		}
-
-		fireADocumentChanged();
-
-		endCompoundEdit();
+		applySectionChanges(batch);
 		logger.trace("removeSections({}): leaving", sections);
 	}
 
@@ -277,45 +417,176 @@ public class ADocument extends DefaultStyledDocument {
 		logger.trace("removeSection({}): leaving", section);
 	}
 
-	/**
-	 * Маркирует интервал выделением внутри документа.
-	 *
-	 * @param section интервал, который нужно отрисовать
-	 * @param active является ли интервал активной пометкой ({@code true}) или обычным текстом ({@code false})
-	 */
-	private void drawSection(DocumentSection section, boolean active) {
-		int startOffset = section.getStartOffset();
-		int length = section.getEndOffset() - startOffset;
-		SimpleAttributeSet sectionStyle = active ? DEFAULT_SECTION_STYLE : DEFAULT_STYLE;
-		setCharacterAttributes(startOffset, length, sectionStyle, false);
-	}
-
 	public void updateSection(DocumentSection section, AData data) {
 		logger.trace("updateSection(): entering, section={}, data={}", section, data);
-		startCompoundEdit();
-		AData oldData = aDataMap.get(section);
-		aDataMap.remove(section);
-		aDataMap.put(section, data);
-
-		fireUndoableEditUpdate(new UndoableEditEvent(this, new SectionChangeEdit(section, oldData, data)));
-		fireADocumentChanged();
-		endCompoundEdit();
+		SectionChangeBatch batch = new SectionChangeBatch();
+		batch.update(section, data);
+		applySectionChanges(batch);
 		logger.trace("updateSection(): leaving");
 	}
 
 	public void addSection(DocumentSection section, AData data) {
 		logger.trace("addSection(): entering, section={}, data={}", section, data);
+		SectionChangeBatch batch = new SectionChangeBatch();
+		batch.add(section, data);
+		applySectionChanges(batch);
+		logger.trace("addSection(): leaving");
+	}
+
+	/**
+	 * Применяет к документу набор изменений разметки как одну операцию: стили текста обновляются одним
+	 * проходом, в историю отмены попадает одна запись, а слушатели оповещаются один раз.
+	 *
+	 * @param batch набор изменений разметки
+	 */
+	public void applySectionChanges(SectionChangeBatch batch) {
+		logger.trace("applySectionChanges(): entering, {} changes", batch.size());
+		if (batch.isEmpty()) {
+			logger.trace("applySectionChanges(): leaving, nothing to apply");
+			return;
+		}
 		startCompoundEdit();
-		int startOffset = section.getStartOffset();
-		int endOffset = section.getEndOffset();
 
-		setCharacterAttributes(startOffset, endOffset - startOffset, DEFAULT_SECTION_STYLE, false);
-		aDataMap.put(section, data);
+		Collection<DocumentSection> addedSections = new ArrayList<DocumentSection>();
+		Collection<DocumentSection> removedSections = new ArrayList<DocumentSection>();
+		for (SectionChangeBatch.Operation operation : batch.getOperations()) {
+			DocumentSection section = operation.getSection();
+			AData data = operation.getData();
+			UndoableEdit edit;
+			switch (operation.getType()) {
+			case ADD:
+				putSectionData(section, data);
+				addedSections.add(section);
+				edit = new SectionAdditionEdit(section, data);
+				break;
+			case UPDATE:
+				edit = new SectionChangeEdit(section, removeSectionData(section), data);
+				putSectionData(section, data);
+				break;
+			case REMOVE:
+				if (!sectionStore.contains(section)) {
+					continue;
+				}
+				edit = new SectionDeletionEdit(section, removeSectionData(section));
+				removedSections.add(section);
+				break;
+			default:
+				throw new IllegalStateException("Unknown section change type: " + operation.getType());
+			}
+			fireUndoableEditUpdate(new UndoableEditEvent(this, edit));
+		}
 
-		fireUndoableEditUpdate(new UndoableEditEvent(this, new SectionAdditionEdit(section, data)));
+		repaintSections(addedSections, removedSections);
 		fireADocumentChanged();
+
 		endCompoundEdit();
-		logger.trace("addSection(): leaving");
+		logger.trace("applySectionChanges(): leaving");
+	}
+
+	/**
+	 * Связывает интервал с разметкой и запоминает изменение для очередного оповещения слушателей.
+	 *
+	 * @param section интервал документа
+	 * @param data новая разметка интервала
+	 */
+	private void putSectionData(DocumentSection section, AData data) {
+		AData oldData = sectionStore.get(section);
+		sectionStore.put(section, data);
+		pendingChanges.sectionChanged(section, oldData, data);
+	}
+
+	/**
+	 * Удаляет разметку интервала и запоминает изменение для очередного оповещения слушателей.
+	 *
+	 * @param section интервал документа
+	 * @return удаленная разметка, или {@code null}, если интервал не был размечен
+	 */
+	private AData removeSectionData(DocumentSection section) {
+		AData oldData = sectionStore.remove(section);
+		if (oldData != null) {
+			pendingChanges.sectionChanged(section, oldData, null);
+		}
+		return oldData;
+	}
+
+	/**
+	 * Обновляет стили текста после изменения набора пометок: снимает выделение с удаленных интервалов,
+	 * восстанавливает его для оставшихся пометок, пересекающихся с ними, и выделяет добавленные интервалы.
+	 * Пересекающиеся интервалы перерисовываются одним вызовом {@code setCharacterAttributes()}.
+	 * Если пометки рисуются слоем подсветки, стили текста не меняются.
+	 *
+	 * @param addedSections добавленные интервалы
+	 * @param removedSections удаленные интервалы
+	 */
+	private void repaintSections(Collection<DocumentSection> addedSections,
+			Collection<DocumentSection> removedSections) {
+		if (highlightSections) {
+			return;
+		}
+		List<FixedDocumentSection> clearedRanges = mergeRanges(removedSections);
+		for (FixedDocumentSection range : clearedRanges) {
+			drawRange(range, DEFAULT_STYLE);
+		}
+		Collection<DocumentSection> survivingSections = new ArrayList<DocumentSection>();
+		for (FixedDocumentSection range : clearedRanges) {
+			sectionStore.collectIntersecting(range.getStart(), range.getEnd(), survivingSections);
+		}
+		for (FixedDocumentSection range : mergeRanges(survivingSections)) {
+			drawRange(range, DEFAULT_SECTION_STYLE);
+		}
+
+		// Интервал мог быть добавлен и удален в одном наборе изменений
+		Collection<DocumentSection> presentSections = new ArrayList<DocumentSection>(addedSections.size());
+		for (DocumentSection section : addedSections) {
+			if (sectionStore.contains(section)) {
+				presentSections.add(section);
+			}
+		}
+		for (FixedDocumentSection range : mergeRanges(presentSections)) {
+			drawRange(range, DEFAULT_SECTION_STYLE);
+		}
+	}
+
+	/**
+	 * Объединяет пересекающиеся и соприкасающиеся интервалы.
+	 *
+	 * @param sections интервалы документа
+	 * @return упорядоченный список непересекающихся диапазонов, покрывающих те же позиции
+	 */
+	private static List<FixedDocumentSection> mergeRanges(Collection<DocumentSection> sections) {
+		List<DocumentSection> sortedSections = new ArrayList<DocumentSection>(sections);
+		Collections.sort(sortedSections);
+
+		List<FixedDocumentSection> ranges = new ArrayList<FixedDocumentSection>();
+		int rangeStart = -1;
+		int rangeEnd = -1;
+		for (DocumentSection section : sortedSections) {
+			int start = section.getStartOffset();
+			int end = section.getEndOffset();
+			if (rangeStart >= 0 && start <= rangeEnd) {
+				rangeEnd = Math.max(rangeEnd, end);
+			} else {
+				if (rangeStart >= 0) {
+					ranges.add(new FixedDocumentSection(rangeStart, rangeEnd));
+				}
+				rangeStart = start;
+				rangeEnd = end;
+			}
+		}
+		if (rangeStart >= 0) {
+			ranges.add(new FixedDocumentSection(rangeStart, rangeEnd));
+		}
+		return ranges;
+	}
+
+	/**
+	 * Задает стиль диапазону текста.
+	 *
+	 * @param range диапазон текста
+	 * @param style стиль пометки ({@link #DEFAULT_SECTION_STYLE}) или обычного текста ({@link #DEFAULT_STYLE})
+	 */
+	private void drawRange(FixedDocumentSection range, AttributeSet style) {
+		setCharacterAttributes(range.getStart(), range.getLength(), style, false);
 	}
 
 	public void addADocumentChangeListener(ADocumentChangeListener listener) {
@@ -326,16 +597,88 @@ public class ADocument extends DefaultStyledDocument {
 		listeners.remove(listener);
 	}
 
+	/**
+	 * Добавляет слушателя, получающего вместе с оповещением список изменений пометок и текста.
+	 *
+	 * @param listener слушатель
+	 */
+	public void addADocumentDeltaListener(ADocumentDeltaListener listener) {
+		deltaListeners.add(listener);
+	}
+
+	public void removeADocumentDeltaListener(ADocumentDeltaListener listener) {
+		deltaListeners.remove(listener);
+	}
+
+	/**
+	 * Оповещает всех слушателей об изменении документа. Слушатели {@link ADocumentDeltaListener} получают
+	 * изменения, накопленные с предыдущего оповещения.
+	 */
 	public void fireADocumentChanged() {
 		logger.trace("fireADocumentChanged(): entering");
+		if (notificationSuspendDepth > 0) {
+			notificationPending = true;
+			logger.trace("fireADocumentChanged(): leaving, notification postponed");
+			return;
+		}
+		notificationPending = false;
+		ADocumentChangeEvent event = pendingChanges.build(this);
 		for (ADocumentChangeListener listener : listeners) {
 			listener.aDocumentChanged(this);
 		}
+		for (ADocumentDeltaListener listener : deltaListeners) {
+			listener.aDocumentChanged(event);
+		}
 		logger.trace("fireADocumentChanged(): leaving");
 	}
 
+	/**
+	 * Оповещает о вставке или удалении текста, уже записанных в {@link #pendingChanges}. Вне отложенного
+	 * оповещения о сдвиге текста сразу узнают слушатели {@link ADocumentDeltaListener}; остальные слушатели,
+	 * как и раньше, о вставке текста не оповещаются.
+	 */
+	private void fireTextShifted() {
+		if (notificationSuspendDepth == 0) {
+			fireADocumentDeltaChanged();
+		}
+	}
+
+	/**
+	 * Оповещает слушателей {@link ADocumentDeltaListener} об изменениях, накопленных с предыдущего оповещения.
+	 */
+	private void fireADocumentDeltaChanged() {
+		ADocumentChangeEvent event = pendingChanges.build(this);
+		for (ADocumentDeltaListener listener : deltaListeners) {
+			listener.aDocumentChanged(event);
+		}
+	}
+
 	public Map<DocumentSection, AData> getADataMap() {
-		return aDataMap;
+		return sectionStore.asMap();
+	}
+
+	/**
+	 * Откладывает оповещение слушателей до вызова парного {@link #resumeNotifications()}.
+	 * Сколько бы раз за это время ни вызывался {@link #fireADocumentChanged()}, слушатели будут
+	 * оповещены только один раз.
+	 */
+	private void suspendNotifications() {
+		notificationSuspendDepth++;
+	}
+
+	/**
+	 * Оканчивает период, начатый {@link #suspendNotifications()}, и оповещает слушателей,
+	 * если за это время документ изменялся.
+	 */
+	private void resumeNotifications() {
+		notificationSuspendDepth--;
+		if (notificationSuspendDepth == 0) {
+			if (notificationPending) {
+				fireADocumentChanged();
+			} else if (!pendingChanges.isEmpty()) {
+				fireADocumentDeltaChanged();
+			}
+		}
 	}
 
 	/**
@@ -345,9 +688,10 @@ public class ADocument extends DefaultStyledDocument {
 	private void startCompoundEdit() {
 		logger.trace("startCompoundEdit(): entering");
 		if (currentCompoundDepth == 0) {
-			currentCompoundEdit = new CompoundEdit();
+			currentCompoundEdit = new SectionsCompoundEdit();
 		}
 		currentCompoundDepth++;
+		suspendNotifications();
 		logger.trace("startCompoundEdit(): leaving. Edit level {} ({})", currentCompoundDepth,
 				currentCompoundEdit.getPresentationName());
 	}
@@ -363,9 +707,26 @@ public class ADocument extends DefaultStyledDocument {
 			currentCompoundEdit.end();
 			super.fireUndoableEditUpdate(new UndoableEditEvent(this, currentCompoundEdit));
 		}
+		resumeNotifications();
 		logger.trace("endCompoundEdit(): leaving");
 	}
 
+	/**
+	 * Отменяет группу изменений, начатую {@link #startCompoundEdit()}, вместо того чтобы ее окончить.
+	 * Изменения откатываются, только если группа первого уровня: вложенная группа остается частью внешней.
+	 */
+	private void abortCompoundEdit() {
+		logger.trace("abortCompoundEdit(): entering. Edit level {}, ({})", currentCompoundDepth,
+				currentCompoundEdit.getPresentationName());
+		currentCompoundDepth--;
+		if (currentCompoundDepth == 0) {
+			currentCompoundEdit.end();
+			currentCompoundEdit.undo();
+		}
+		resumeNotifications();
+		logger.trace("abortCompoundEdit(): leaving");
+	}
+
 	@Override
 	protected void fireUndoableEditUpdate(UndoableEditEvent e) {
 		logger.trace("fireUndoableEditUpdate(): entering, event = {}", e);
@@ -377,6 +738,32 @@ public class ADocument extends DefaultStyledDocument {
 		logger.trace("fireUndoableEditUpdate(): leaving");
 	}
 
+	/**
+	 * Группа изменений документа, при отмене и повторе которой слушатели оповещаются один раз.
+	 */
+	@SuppressWarnings("SerializableNonStaticInnerClassWithoutSerialVersionUID")
+	private final class SectionsCompoundEdit extends CompoundEdit {
+		@Override
+		public void undo() throws CannotUndoException {
+			suspendNotifications();
+			try {
+				super.undo();
+			} finally {
+				resumeNotifications();
+			}
+		}
+
+		@Override
+		public void redo() throws CannotRedoException {
+			suspendNotifications();
+			try {
+				super.redo();
+			} finally {
+				resumeNotifications();
+			}
+		}
+	}
+
 	/**
 	 * Описывает операцию добавления в документ новой секции с разметкой.
 	 */
@@ -393,14 +780,14 @@ public class ADocument extends DefaultStyledDocument {
 		@Override
 		public void undo() throws CannotUndoException {
 			super.undo();
-			aDataMap.remove(section);
+			removeSectionData(section);
 			fireADocumentChanged();
 		}
 
 		@Override
 		public void redo() throws CannotRedoException {
 			super.redo();
-			aDataMap.put(section, data);
+			putSectionData(section, data);
 			fireADocumentChanged();
 		}
 
@@ -435,14 +822,14 @@ public class ADocument extends DefaultStyledDocument {
 		@Override
 		public void undo() throws CannotUndoException {
 			super.undo();
-			aDataMap.put(section, data);
+			putSectionData(section, data);
 			fireADocumentChanged();
 		}
 
 		@Override
 		public void redo() throws CannotRedoException {
 			super.redo();
-			aDataMap.remove(section);
+			removeSectionData(section);
 			fireADocumentChanged();
 		}
 
@@ -480,16 +867,14 @@ public class ADocument extends DefaultStyledDocument {
 		@Override
 		public void undo() throws CannotUndoException {
 			super.undo();
-			aDataMap.remove(section);
-			aDataMap.put(section, oldData);
+			putSectionData(section, oldData);
 			fireADocumentChanged();
 		}
 
 		@Override
 		public void redo() throws CannotRedoException {
 			super.redo();
-			aDataMap.remove(section);
-			aDataMap.put(section, newData);
+			putSectionData(section, newData);
 			fireADocumentChanged();
 		}
 
@@ -529,6 +914,15 @@ public class ADocument extends DefaultStyledDocument {
 		}
 	}
 
+	/**
+	 * Копирует фрагмент документа вместе со стилями и пометками. Стили собираются по одному разу на каждый
+	 * листовой элемент фрагмента, а пометки берутся из индекса разметки, так что время копирования зависит
+	 * от числа участков со своим стилем и пометок во фрагменте, а не от его длины.
+	 *
+	 * @param offset начало фрагмента
+	 * @param length длина фрагмента
+	 * @return фрагмент документа, или {@code null}, если фрагмент выходит за границы документа
+	 */
 	public ADocumentFragment getADocFragment(int offset, int length) {
 		logger.trace("getADocFragment(): entering, offset={}, length={}", offset, length);
 		int selectionEnd = offset + length;
@@ -538,87 +932,235 @@ public class ADocument extends DefaultStyledDocument {
 
 		try {
 			text = getText(offset, length);
-
-			//putting styles to a HashMap
-			int styleRunStart = offset;
-			AttributeSet currentSet = null;
-			for (int i = offset; i <= offset + length; i++) {
-				Element element = getCharacterElement(i);
-				AttributeSet attributeSet = element.getAttributes();
-				if (currentSet == null) {
-					currentSet = attributeSet;
-				}
-				if (!attributeSet.isEqual(currentSet) || i == selectionEnd) {
-					styleMap.put(new FixedDocumentSection(styleRunStart - offset, i - offset),
-						new SimpleAttributeSet(currentSet));
-					currentSet = attributeSet;
-					styleRunStart = i;
-				}
-			}
-
-			//putting AData to a HashMap
-			if (aDataMap != null) {
-				for (Entry<DocumentSection, AData> dataEntry : aDataMap.entrySet()) {
-					int secSt = dataEntry.getKey().getStartOffset();
-					int secEnd = dataEntry.getKey().getEndOffset();
-
-					if (secSt >= offset && secEnd <= selectionEnd) {
-						docMap.put(new FixedDocumentSection(secSt - offset, secEnd - offset), dataEntry.getValue());
-					}
-					if (secSt < offset && secEnd > selectionEnd) {
-						docMap.put(new FixedDocumentSection(0, length), dataEntry.getValue());
-					}
-					if (secSt < offset && secEnd < selectionEnd && secEnd > offset) {
-						docMap.put(new FixedDocumentSection(0, secEnd - offset), dataEntry.getValue());
-					}
-					if (secSt > offset && secSt < selectionEnd && secEnd > selectionEnd) {
-						docMap.put(new FixedDocumentSection(secSt - offset, length), dataEntry.getValue());
-					}
-				}
-			}
 		} catch (BadLocationException e) {
 			logger.error("Error in getADocFragment()", e);
 			logger.trace("getADocFragment(): leaving");
 			return null;
 		}
 
+		//putting styles to a HashMap, one leaf element at a time
+		int styleRunStart = offset;
+		AttributeSet currentSet = getCharacterElement(offset).getAttributes();
+		int elementStart = offset;
+		while (elementStart < selectionEnd) {
+			Element element = getCharacterElement(elementStart);
+			AttributeSet attributeSet = element.getAttributes();
+			if (!attributeSet.isEqual(currentSet)) {
+				styleMap.put(new FixedDocumentSection(styleRunStart - offset, elementStart - offset),
+					new SimpleAttributeSet(currentSet));
+				currentSet = attributeSet;
+				styleRunStart = elementStart;
+			}
+			elementStart = element.getEndOffset();
+		}
+		styleMap.put(new FixedDocumentSection(styleRunStart - offset, length), new SimpleAttributeSet(currentSet));
+
+		//putting AData to a HashMap
+		Collection<DocumentSection> sections = new ArrayList<DocumentSection>();
+		sectionStore.collectIntersecting(offset, selectionEnd, sections);
+		for (DocumentSection section : sections) {
+			int secSt = section.getStartOffset();
+			int secEnd = section.getEndOffset();
+			AData data = sectionStore.get(section);
+
+			if (secSt >= offset && secEnd <= selectionEnd) {
+				docMap.put(new FixedDocumentSection(secSt - offset, secEnd - offset), data);
+			}
+			if (secSt < offset && secEnd > selectionEnd) {
+				docMap.put(new FixedDocumentSection(0, length), data);
+			}
+			if (secSt < offset && secEnd < selectionEnd && secEnd > offset) {
+				docMap.put(new FixedDocumentSection(0, secEnd - offset), data);
+			}
+			if (secSt > offset && secSt < selectionEnd && secEnd > selectionEnd) {
+				docMap.put(new FixedDocumentSection(secSt - offset, length), data);
+			}
+		}
+
 		logger.trace("getADocFragment(): leaving");
 		return new ADocumentFragment(text, styleMap, docMap);
 	}
 
+	/**
+	 * Вставляет в документ фрагмент вместе с его стилями и пометками. Вставка выполняется как одна операция:
+	 * в историю отмены попадает одна запись, а слушатели оповещаются один раз.
+	 *
+	 * @param position позиция, в которую вставляется фрагмент
+	 * @param fragment вставляемый фрагмент
+	 */
 	public void pasteADocFragment(int position, ADocumentFragment fragment) {
 		logger.trace("pasteADocFragment(): entering, position={}, fragment={}", position, fragment);
-		// inserting plain text
+		startCompoundEdit();
 		try {
-			String text = fragment.getText();
-			insertString(position, text, DEFAULT_STYLE);
-		} catch (BadLocationException e) {
-			logger.error("Invalid document position {} for pasting text", position, e);
-			logger.trace("pasteADocFragment(): leaving");
+			// inserting text with styles
+			try {
+				insertStyledText(position, fragment.getText(), fragment.getStyleMap());
+			} catch (BadLocationException e) {
+				logger.error("Invalid document position {} for pasting text", position, e);
+				logger.trace("pasteADocFragment(): leaving");
+				return;
+			}
+
+			// inserting AData
+			SectionChangeBatch batch = new SectionChangeBatch();
+			Map<FixedDocumentSection, AData> fragMap = fragment.getADataMap();
+			for (Entry<FixedDocumentSection, AData> entry : fragMap.entrySet()) {
+				FixedDocumentSection section = entry.getKey();
+				AData data = entry.getValue();
+				try {
+					DocumentSection documentSection = createSection(position + section.getStart(),
+							position + section.getEnd());
+					batch.add(documentSection, data);
+				} catch (BadLocationException e) {
+					logger.error("Invalid position for DocumentSection", e);
+				}
+			}
+			applySectionChanges(batch);
+			fireADocumentChanged();
+		} finally {
+			endCompoundEdit();
+		}
+		logger.trace("pasteADocFragment(): leaving");
+	}
+
+	/**
+	 * Вставляет текст, сразу разбитый на участки с заданными стилями, одним вызовом {@link #insert}.
+	 * Участки текста, не покрытые {@code styleMap}, получают стиль {@link #DEFAULT_STYLE}.
+	 *
+	 * <p>Описания элементов строятся так же, как при вставке текста через {@code insertString()}: первый
+	 * и последний участки сливаются с соседними элементами того же стиля, а переводы строк разбивают абзац.
+	 * Направления слияния вычисляются по структуре документа до вставки.</p>
+	 *
+	 * @param offset позиция вставки
+	 * @param text вставляемый текст
+	 * @param styleMap стили участков текста, смещения отсчитываются от начала {@code text}
+	 * @throws BadLocationException если позиция вставки лежит вне документа
+	 */
+	private void insertStyledText(int offset, String text, Map<FixedDocumentSection, ? extends AttributeSet> styleMap)
+			throws BadLocationException {
+		if (text.isEmpty()) {
 			return;
 		}
+		if (offset < 0 || offset > getLength()) {
+			throw new BadLocationException("Invalid insert position", offset);
+		}
+		int length = text.length();
 
-		// inserting styles
-		Map<FixedDocumentSection, SimpleAttributeSet> styleMap = fragment.getStyleMap();
-		for (Entry<FixedDocumentSection, SimpleAttributeSet> entry : styleMap.entrySet()) {
-			FixedDocumentSection section = entry.getKey();
-			AttributeSet style = entry.getValue();
-			setCharacterAttributes(position + section.getStart(), section.getLength(), style, true);
+		List<FixedDocumentSection> styleRuns = new ArrayList<FixedDocumentSection>(styleMap.keySet());
+		Collections.sort(styleRuns, new Comparator<FixedDocumentSection>() {
+			@Override
+			public int compare(FixedDocumentSection o1, FixedDocumentSection o2) {
+				return o1.getStart() - o2.getStart();
+			}
+		});
+
+		AttributeSet paragraphAttributes = getParagraphElement(offset).getAttributes();
+		boolean afterNewline = offset > 0 && getText(offset - 1, 1).charAt(0) == '\n';
+		// Элемент, с которым может слиться начало вставки, и совпадает ли его конец с позицией вставки
+		Element previousRun;
+		boolean atRunBoundary;
+		Element runAtOffset = getCharacterElement(offset);
+		if (offset > 0 && runAtOffset.getStartOffset() == offset) {
+			previousRun = getCharacterElement(offset - 1);
+			atRunBoundary = true;
+		} else {
+			previousRun = runAtOffset;
+			atRunBoundary = false;
 		}
 
-		// inserting AData
-		Map<FixedDocumentSection, AData> fragMap = fragment.getADataMap();
-		for (Entry<FixedDocumentSection, AData> entry : fragMap.entrySet()) {
-			FixedDocumentSection section = entry.getKey();
-			AData data = entry.getValue();
-			try {
-				DocumentSection documentSection = new DocumentSection(this, position + section.getStart(), position + section.getEnd());
-				aDataMap.put(documentSection, data);
-			} catch (BadLocationException e) {
-				logger.error("Invalid position for DocumentSection", e);
+		List<ElementSpec> specs = new ArrayList<ElementSpec>();
+		ElementSpec lastStartSpec = null;
+		if (afterNewline) {
+			specs.add(new ElementSpec(paragraphAttributes, ElementSpec.EndTagType));
+			lastStartSpec = new ElementSpec(paragraphAttributes, ElementSpec.StartTagType);
+			specs.add(lastStartSpec);
+		}
+		char[] chars = text.toCharArray();
+		int position = 0;
+		for (FixedDocumentSection styleRun : styleRuns) {
+			int runStart = Math.max(styleRun.getStart(), position);
+			int runEnd = Math.min(styleRun.getEnd(), length);
+			if (runStart >= runEnd) {
+				continue;
 			}
+			if (position < runStart) {
+				lastStartSpec = addContentSpecs(specs, chars, position, runStart, DEFAULT_STYLE,
+						paragraphAttributes, lastStartSpec);
+			}
+			lastStartSpec = addContentSpecs(specs, chars, runStart, runEnd, styleMap.get(styleRun),
+					paragraphAttributes, lastStartSpec);
+			position = runEnd;
+		}
+		if (position < length) {
+			lastStartSpec = addContentSpecs(specs, chars, position, length, DEFAULT_STYLE,
+					paragraphAttributes, lastStartSpec);
+		}
+
+		ElementSpec firstSpec = specs.get(0);
+		if (firstSpec.getType() == ElementSpec.ContentType
+				&& previousRun.getAttributes().isEqual(firstSpec.getAttributes())) {
+			firstSpec.setDirection(ElementSpec.JoinPreviousDirection);
+		}
+		if (lastStartSpec != null) {
+			lastStartSpec.setDirection(afterNewline ? ElementSpec.JoinNextDirection :
+					ElementSpec.JoinFractureDirection);
+		}
+		ElementSpec lastSpec = specs.get(specs.size() - 1);
+		if (lastSpec.getType() == ElementSpec.ContentType
+				&& lastSpec.getDirection() != ElementSpec.JoinPreviousDirection) {
+			if (atRunBoundary) {
+				if (offset < getLength() && runAtOffset.getAttributes().isEqual(lastSpec.getAttributes())) {
+					lastSpec.setDirection(ElementSpec.JoinNextDirection);
+				}
+			} else if (lastStartSpec != null && previousRun.getAttributes().isEqual(lastSpec.getAttributes())) {
+				lastSpec.setDirection(ElementSpec.JoinNextDirection);
+			}
+		}
+
+		ElementSpec[] specArray = new ElementSpec[specs.size()];
+		specs.toArray(specArray);
+		insertSpecs(offset, specArray);
+	}
+
+	/**
+	 * Вставляет в документ текст, заданный описаниями элементов.
+	 *
+	 * @param offset позиция вставки
+	 * @param specs описания вставляемых элементов
+	 * @throws BadLocationException если позиция вставки лежит вне документа
+	 */
+	private void insertSpecs(int offset, ElementSpec[] specs) throws BadLocationException {
+		specsInsertInProgress = true;
+		try {
+			insert(offset, specs);
+		} finally {
+			specsInsertInProgress = false;
 		}
-		logger.trace("pasteADocFragment(): leaving");
+	}
+
+	/**
+	 * Добавляет описания элементов для участка текста с одним стилем, разбивая его на абзацы
+	 * по переводам строк.
+	 *
+	 * @return последнее описание начала абзаца, с учетом добавленных
+	 */
+	private static ElementSpec addContentSpecs(List<ElementSpec> specs, char[] chars, int start, int end,
+			AttributeSet style, AttributeSet paragraphAttributes, ElementSpec lastStartSpec) {
+		ElementSpec startSpec = lastStartSpec;
+		int contentStart = start;
+		for (int i = start; i < end; i++) {
+			if (chars[i] == '\n') {
+				specs.add(new ElementSpec(style, ElementSpec.ContentType, chars, contentStart, i + 1 - contentStart));
+				specs.add(new ElementSpec(null, ElementSpec.EndTagType));
+				startSpec = new ElementSpec(paragraphAttributes, ElementSpec.StartTagType);
+				specs.add(startSpec);
+				contentStart = i + 1;
+			}
+		}
+		if (contentStart < end) {
+			specs.add(new ElementSpec(style, ElementSpec.ContentType, chars, contentStart, end - contentStart));
+		}
+		return startSpec;
 	}
 
 	/**
@@ -626,33 +1168,63 @@ public class ADocument extends DefaultStyledDocument {
 	 * 
 	 * @param anotherDocument документ, содержимое которого нужно добавить.
 	 * @param appendOffset смещение, по коорому нужно вставить содержимое {@code anotherDocument}.
+	 * @see DocumentAppender
 	 */
 	public void appendDocument(ADocument anotherDocument, int appendOffset) {
 		logger.trace("appendDocument({}, {}): entering", anotherDocument, appendOffset);
-		List<ElementSpec> specsList = new ArrayList<ElementSpec>();
-		specsList.add(new ElementSpec(DEFAULT_STYLE, ElementSpec.EndTagType));
-		visitElements(anotherDocument.getDefaultRootElement(), specsList, false);
+		new DocumentAppender(this, anotherDocument, appendOffset).appendAll();
+		logger.trace("appendDocument(): leaving");
+	}
 
+	/**
+	 * Начинает добавление в документ содержимого другого документа по частям. Все изменения вплоть до
+	 * парного вызова {@link #finishAppend(ADocument)} или {@link #cancelAppend()} образуют одну запись
+	 * в истории отмены, а слушатели оповещаются по его окончании. Другие изменения документа до окончания
+	 * добавления недопустимы: они вошли бы в ту же запись и были бы удалены отменой добавления.
+	 */
+	void beginAppend() {
+		logger.trace("beginAppend(): entering");
+		startCompoundEdit();
+		logger.trace("beginAppend(): leaving");
+	}
+
+	/**
+	 * Вставляет в документ очередную часть добавляемого документа вместе с ее пометками.
+	 *
+	 * @param offset смещение, по которому вставляется часть
+	 * @param specs описания элементов части, начинающиеся с закрытия текущего абзаца
+	 * @param sections пометки, смещения которых уже пересчитаны в смещения данного документа
+	 */
+	void appendChunk(int offset, ElementSpec[] specs, Map<FixedDocumentSection, AData> sections) {
+		logger.trace("appendChunk(): entering, offset={}, {} specs", offset, specs.length);
 		try {
-			ElementSpec[] specs = new ElementSpec[specsList.size()];
-			specsList.toArray(specs);
-			insert(appendOffset, specs);
+			insertSpecs(offset, specs);
 		} catch (BadLocationException e) {
 			logger.error("Error while appending to document", e);
+			logger.trace("appendChunk(): leaving");
+			return;
 		}
 
-		for (Entry<DocumentSection, AData> entry : anotherDocument.aDataMap.entrySet()) {
+		SectionChangeBatch batch = new SectionChangeBatch();
+		for (Entry<FixedDocumentSection, AData> entry : sections.entrySet()) {
+			FixedDocumentSection section = entry.getKey();
 			try {
-				DocumentSection sourceSection = entry.getKey();
-				DocumentSection destinationSection = new DocumentSection(this,
-						sourceSection.getStartOffset() + appendOffset,
-						sourceSection.getEndOffset() + appendOffset);
-				aDataMap.put(destinationSection, entry.getValue());
+				batch.add(createSection(section.getStart(), section.getEnd()), entry.getValue());
 			} catch (BadLocationException e) {
 				logger.error("Invalid position for DocumentSection", e);
 			}
 		}
+		applySectionChanges(batch);
+		logger.trace("appendChunk(): leaving");
+	}
 
+	/**
+	 * Оканчивает добавление, начатое {@link #beginAppend()}: дополняет список экспертов и оповещает слушателей.
+	 *
+	 * @param anotherDocument документ, содержимое которого было добавлено
+	 */
+	void finishAppend(ADocument anotherDocument) {
+		logger.trace("finishAppend(): entering");
 		String expertList = (String) getProperty(EXPERT_PROPERTY);
 		String anotherExpertList = (String) anotherDocument.getProperty(EXPERT_PROPERTY);
 		Set<String> experts = new LinkedHashSet<String>();
@@ -669,41 +1241,86 @@ public class ADocument extends DefaultStyledDocument {
 		getDocumentProperties().put(EXPERT_PROPERTY, builder.toString());
 
 		fireADocumentChanged();
-		logger.trace("appendDocument(): leaving");
+		endCompoundEdit();
+		logger.trace("finishAppend(): leaving");
 	}
 
 	/**
-	 * Проходится по элементу и всем его дочерним элементам, собирая всю информацию в список {@link ElementSpec}-ов.
-	 * 
-	 * @param element элемент, с которого начинается обход
-	 * @param specs список, в который будут добавлены описания элементов
-	 * @param includeRoot добавлять ли в описание теги открытия/закрытия начального элемента
+	 * Прерывает добавление, начатое {@link #beginAppend()}, и удаляет из документа уже вставленные части.
 	 */
-	private static void visitElements(Element element, List<ElementSpec> specs, boolean includeRoot) {
-		logger.trace("visitElements(): entering, element={}, includeRoot={}", element, includeRoot);
-		if (element.isLeaf()) {
-			try {
-				String elementText = element.getDocument().getText(element.getStartOffset(),
-						element.getEndOffset() - element.getStartOffset());
-				specs.add(new ElementSpec(element.getAttributes(), ElementSpec.ContentType,
-						elementText.toCharArray(), 0, elementText.length()));
-			} catch (BadLocationException e) {
-				logger.error("Error while traversing document", e);
+	void cancelAppend() {
+		logger.trace("cancelAppend(): entering");
+		abortCompoundEdit();
+		logger.trace("cancelAppend(): leaving");
+	}
+
+	/**
+	 * Создает неизменяемый снимок документа, который можно читать из любого потока. Участки стиля
+	 * копируются по одному на листовой элемент, пометки — по одной записи на каждую. Текст из
+	 * {@link PieceTableContent} не копируется: снимок ссылается на его неизменяемые буферы. Текст из
+	 * других видов содержимого копируется целиком.
+	 *
+	 * <p>Разметка документа меняется в потоке обработки событий, поэтому снимок нужно создавать в нем же.</p>
+	 *
+	 * @return снимок текущего состояния документа
+	 */
+	public ADocumentSnapshot snapshot() {
+		logger.trace("snapshot(): entering");
+		readLock();
+		try {
+			CharSequence text;
+			if (textContent instanceof PieceTableContent) {
+				text = ((PieceTableContent) textContent).snapshot(0, getLength());
+			} else {
+				try {
+					text = getText(0, getLength());
+				} catch (BadLocationException e) {
+					throw new IllegalStateException("Document text unavailable", e);
+				}
 			}
-		}
-		else {
-			if (includeRoot) {
-				specs.add(new ElementSpec(element.getAttributes(), ElementSpec.StartTagType));
+
+			Map<Object, Object> properties = new HashMap<Object, Object>();
+			Dictionary<Object, Object> documentProperties = getDocumentProperties();
+			for (Enumeration<Object> keys = documentProperties.keys(); keys.hasMoreElements(); ) {
+				Object key = keys.nextElement();
+				properties.put(key, documentProperties.get(key));
 			}
-			for (int i = 0; i < element.getElementCount(); i++) {
-				visitElements(element.getElement(i), specs, true);
+
+			List<Element> leaves = new ArrayList<Element>();
+			Element root = getDefaultRootElement();
+			for (int i = 0; i < root.getElementCount(); i++) {
+				Element paragraph = root.getElement(i);
+				for (int j = 0; j < paragraph.getElementCount(); j++) {
+					leaves.add(paragraph.getElement(j));
+				}
+			}
+			int[] runStarts = new int[leaves.size()];
+			AttributeSet[] runAttributes = new AttributeSet[leaves.size()];
+			for (int i = 0; i < runStarts.length; i++) {
+				Element leaf = leaves.get(i);
+				runStarts[i] = leaf.getStartOffset();
+				// Атрибуты элемента меняются вместе с ним, а их копия из StyleContext неизменяема
+				runAttributes[i] = leaf.getAttributes().copyAttributes();
 			}
 
-			if (includeRoot) {
-				specs.add(new ElementSpec(element.getAttributes(), ElementSpec.EndTagType));
+			List<DocumentSection> sections = new ArrayList<DocumentSection>(sectionStore.asMap().keySet());
+			Collections.sort(sections);
+			int[] sectionStarts = new int[sections.size()];
+			int[] sectionEnds = new int[sections.size()];
+			AData[] sectionData = new AData[sections.size()];
+			for (int i = 0; i < sectionData.length; i++) {
+				DocumentSection section = sections.get(i);
+				sectionStarts[i] = section.getStartOffset();
+				sectionEnds[i] = section.getEndOffset();
+				sectionData[i] = sectionStore.get(section);
 			}
+
+			logger.trace("snapshot(): leaving");
+			return new ADocumentSnapshot(text, properties, runStarts, runAttributes,
+					sectionStarts, sectionEnds, sectionData);
+		} finally {
+			readUnlock();
 		}
-		logger.trace("visitElements(): leaving");
 	}
 
 	/**
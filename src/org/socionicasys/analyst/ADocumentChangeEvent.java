@@ -0,0 +1,284 @@
+package org.socionicasys.analyst;
+
+import org.socionicasys.analyst.model.AData;
+import org.socionicasys.analyst.util.EqualsUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EventObject;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Описывает изменения в документе с момента предыдущего события: какие пометки были добавлены, удалены
+ * или изменены, и какие фрагменты текста были вставлены или удалены. Если в ходе одной операции пометка
+ * менялась несколько раз, событие содержит только итоговое изменение.
+ *
+ * <p>Событие может не содержать ни одного изменения пометок и текста, например когда изменились свойства
+ * документа. Событие полного обновления ({@link #isFullRefresh()}) сообщает, что слушатель должен заново
+ * прочитать весь документ.</p>
+ *
+ * @see ADocumentDeltaListener
+ */
+@SuppressWarnings("serial")
+public class ADocumentChangeEvent extends EventObject {
+	private final boolean fullRefresh;
+	private final Map<DocumentSection, AData> addedSections;
+	private final Map<DocumentSection, AData> removedSections;
+	private final Map<DocumentSection, AData> updatedSections;
+	private final Map<DocumentSection, AData> previousData;
+	private final List<TextShift> textShifts;
+
+	private ADocumentChangeEvent(ADocument document, boolean fullRefresh,
+			Map<DocumentSection, AData> addedSections, Map<DocumentSection, AData> removedSections,
+			Map<DocumentSection, AData> updatedSections, Map<DocumentSection, AData> previousData,
+			List<TextShift> textShifts) {
+		super(document);
+		this.fullRefresh = fullRefresh;
+		this.addedSections = Collections.unmodifiableMap(addedSections);
+		this.removedSections = Collections.unmodifiableMap(removedSections);
+		this.updatedSections = Collections.unmodifiableMap(updatedSections);
+		this.previousData = previousData;
+		this.textShifts = Collections.unmodifiableList(textShifts);
+	}
+
+	/**
+	 * Создает событие полного обновления, после которого слушатель должен заново прочитать весь документ.
+	 *
+	 * @param document документ, к которому относится событие
+	 * @return событие полного обновления
+	 */
+	public static ADocumentChangeEvent createFullRefresh(ADocument document) {
+		return new ADocumentChangeEvent(document, true,
+				Collections.<DocumentSection, AData>emptyMap(), Collections.<DocumentSection, AData>emptyMap(),
+				Collections.<DocumentSection, AData>emptyMap(), Collections.<DocumentSection, AData>emptyMap(),
+				Collections.<TextShift>emptyList());
+	}
+
+	/**
+	 * @return документ, в котором произошли изменения
+	 */
+	public ADocument getDocument() {
+		return (ADocument) getSource();
+	}
+
+	/**
+	 * @return нужно ли заново прочитать весь документ вместо того, чтобы применять перечисленные изменения
+	 */
+	public boolean isFullRefresh() {
+		return fullRefresh;
+	}
+
+	/**
+	 * @return добавленные интервалы и их разметка
+	 */
+	public Map<DocumentSection, AData> getAddedSections() {
+		return addedSections;
+	}
+
+	/**
+	 * @return удаленные интервалы и разметка, которая у них была
+	 */
+	public Map<DocumentSection, AData> getRemovedSections() {
+		return removedSections;
+	}
+
+	/**
+	 * @return интервалы, разметка которых изменилась, и их новая разметка
+	 */
+	public Map<DocumentSection, AData> getUpdatedSections() {
+		return updatedSections;
+	}
+
+	/**
+	 * @param section интервал из {@link #getUpdatedSections()}
+	 * @return разметка интервала до изменения, или {@code null}, если интервал не изменялся
+	 */
+	public AData getPreviousData(DocumentSection section) {
+		return previousData.get(section);
+	}
+
+	/**
+	 * @return вставки и удаления текста в том порядке, в котором они происходили
+	 */
+	public List<TextShift> getTextShifts() {
+		return textShifts;
+	}
+
+	/**
+	 * @return не содержит ли событие ни одного изменения пометок или текста
+	 */
+	public boolean isEmpty() {
+		return !fullRefresh && addedSections.isEmpty() && removedSections.isEmpty() && updatedSections.isEmpty()
+				&& textShifts.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("ADocumentChangeEvent{fullRefresh=%s, added=%d, removed=%d, updated=%d, shifts=%s}",
+				fullRefresh, addedSections.size(), removedSections.size(), updatedSections.size(), textShifts);
+	}
+
+	/**
+	 * Вставка или удаление фрагмента текста, сдвигающие все последующие смещения документа.
+	 */
+	public static final class TextShift {
+		private final int offset;
+		private final int length;
+
+		TextShift(int offset, int length) {
+			this.offset = offset;
+			this.length = length;
+		}
+
+		/**
+		 * @return смещение, с которого начинается вставленный или удаленный фрагмент
+		 */
+		public int getOffset() {
+			return offset;
+		}
+
+		/**
+		 * @return длина вставленного фрагмента, или длина удаленного фрагмента со знаком минус
+		 */
+		public int getLength() {
+			return length;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%+d@%d", length, offset);
+		}
+	}
+
+	/**
+	 * Накапливает изменения документа между событиями.
+	 */
+	static final class Builder {
+		/**
+		 * Состояние разметки интервалов до первого и после последнего изменения.
+		 */
+		private final Map<DocumentSection, SectionChange> sectionChanges;
+		private final List<TextShift> textShifts;
+
+		/**
+		 * Было ли среди накопленных событие полного обновления.
+		 */
+		private boolean fullRefresh;
+
+		Builder() {
+			sectionChanges = new LinkedHashMap<DocumentSection, SectionChange>();
+			textShifts = new ArrayList<TextShift>();
+		}
+
+		/**
+		 * Запоминает изменение разметки интервала.
+		 *
+		 * @param section интервал документа
+		 * @param oldData разметка до изменения, или {@code null}, если интервал не был размечен
+		 * @param newData разметка после изменения, или {@code null}, если разметка удалена
+		 */
+		void sectionChanged(DocumentSection section, AData oldData, AData newData) {
+			SectionChange change = sectionChanges.get(section);
+			if (change == null) {
+				change = new SectionChange(oldData);
+				sectionChanges.put(section, change);
+			}
+			change.newData = newData;
+		}
+
+		/**
+		 * Запоминает вставку или удаление текста.
+		 *
+		 * @param offset смещение фрагмента
+		 * @param length длина вставленного фрагмента, или длина удаленного фрагмента со знаком минус
+		 */
+		void textShifted(int offset, int length) {
+			textShifts.add(new TextShift(offset, length));
+		}
+
+		/**
+		 * Добавляет к накопленным изменения из уже созданного события. Событие полного обновления
+		 * поглощает все остальные изменения.
+		 *
+		 * @param event событие, произошедшее после уже накопленных изменений
+		 */
+		void add(ADocumentChangeEvent event) {
+			if (event.isFullRefresh()) {
+				fullRefresh = true;
+			}
+			for (Map.Entry<DocumentSection, AData> entry : event.getAddedSections().entrySet()) {
+				sectionChanged(entry.getKey(), null, entry.getValue());
+			}
+			for (Map.Entry<DocumentSection, AData> entry : event.getRemovedSections().entrySet()) {
+				sectionChanged(entry.getKey(), entry.getValue(), null);
+			}
+			for (Map.Entry<DocumentSection, AData> entry : event.getUpdatedSections().entrySet()) {
+				DocumentSection section = entry.getKey();
+				sectionChanged(section, event.getPreviousData(section), entry.getValue());
+			}
+			textShifts.addAll(event.getTextShifts());
+		}
+
+		/**
+		 * @return есть ли накопленные изменения
+		 */
+		boolean isEmpty() {
+			return !fullRefresh && sectionChanges.isEmpty() && textShifts.isEmpty();
+		}
+
+		/**
+		 * Отбрасывает накопленные изменения.
+		 */
+		void clear() {
+			sectionChanges.clear();
+			textShifts.clear();
+			fullRefresh = false;
+		}
+
+		/**
+		 * Создает событие из накопленных изменений и начинает накопление заново.
+		 *
+		 * @param document документ, к которому относится событие
+		 * @return событие с итоговыми изменениями
+		 */
+		ADocumentChangeEvent build(ADocument document) {
+			if (fullRefresh) {
+				clear();
+				return createFullRefresh(document);
+			}
+			Map<DocumentSection, AData> added = new LinkedHashMap<DocumentSection, AData>();
+			Map<DocumentSection, AData> removed = new LinkedHashMap<DocumentSection, AData>();
+			Map<DocumentSection, AData> updated = new LinkedHashMap<DocumentSection, AData>();
+			Map<DocumentSection, AData> previous = new LinkedHashMap<DocumentSection, AData>();
+			for (Map.Entry<DocumentSection, SectionChange> entry : sectionChanges.entrySet()) {
+				DocumentSection section = entry.getKey();
+				SectionChange change = entry.getValue();
+				if (change.oldData == null) {
+					if (change.newData != null) {
+						added.put(section, change.newData);
+					}
+				} else if (change.newData == null) {
+					removed.put(section, change.oldData);
+				} else if (!EqualsUtil.areEqual(change.oldData, change.newData)) {
+					updated.put(section, change.newData);
+					previous.put(section, change.oldData);
+				}
+			}
+			ADocumentChangeEvent event = new ADocumentChangeEvent(document, false, added, removed, updated, previous,
+					new ArrayList<TextShift>(textShifts));
+			clear();
+			return event;
+		}
+	}
+
+	private static final class SectionChange {
+		private final AData oldData;
+		private AData newData;
+
+		private SectionChange(AData oldData) {
+			this.oldData = oldData;
+		}
+	}
+}
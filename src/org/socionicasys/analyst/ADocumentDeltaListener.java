@@ -0,0 +1,17 @@
+package org.socionicasys.analyst;
+
+import java.util.EventListener;
+
+/**
+ * Слушатель изменений документа, которому важно, что именно изменилось. В отличие от
+ * {@link ADocumentChangeListener}, получает список добавленных, удаленных и измененных пометок, а также
+ * сдвиги текста, и может обновлять свое состояние пропорционально размеру изменений, а не документа.
+ */
+public interface ADocumentDeltaListener extends EventListener {
+	/**
+	 * Вызывается после изменения документа.
+	 *
+	 * @param event изменения с момента предыдущего оповещения
+	 */
+	void aDocumentChanged(ADocumentChangeEvent event);
+}
@@ -0,0 +1,152 @@
+package org.socionicasys.analyst;
+
+import org.socionicasys.analyst.model.AData;
+
+import javax.swing.text.AttributeSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Неизменяемый снимок документа: текст, свойства, участки текста с общим стилем и пометки с разметкой.
+ * Снимок не связан с документом и не меняется вместе с ним, поэтому его можно читать из любого потока,
+ * например при сохранении документа или построении отчета в фоне.
+ *
+ * <p>Участки стиля соответствуют листовым элементам документа и перечислены в порядке следования.
+ * Пометки упорядочены так же, как {@link DocumentSection}: по началу, а при равном начале — по порядку
+ * создания.</p>
+ *
+ * @see ADocument#snapshot()
+ */
+public final class ADocumentSnapshot {
+	private final CharSequence text;
+	private final Map<Object, Object> properties;
+	private final int[] runStarts;
+	private final AttributeSet[] runAttributes;
+	private final int[] sectionStarts;
+	private final int[] sectionEnds;
+	private final AData[] sectionData;
+
+	/**
+	 * Создает снимок из уже скопированных данных документа. Массивы передаются во владение снимку.
+	 *
+	 * @param text текст документа; последовательность не должна изменяться
+	 * @param properties свойства документа
+	 * @param runStarts начала участков стиля; участок продолжается до начала следующего
+	 * @param runAttributes неизменяемые атрибуты участков стиля
+	 * @param sectionStarts начала пометок
+	 * @param sectionEnds концы пометок
+	 * @param sectionData разметка пометок
+	 */
+	ADocumentSnapshot(CharSequence text, Map<Object, Object> properties, int[] runStarts, AttributeSet[] runAttributes,
+			int[] sectionStarts, int[] sectionEnds, AData[] sectionData) {
+		this.text = text;
+		this.properties = Collections.unmodifiableMap(properties);
+		this.runStarts = runStarts;
+		this.runAttributes = runAttributes;
+		this.sectionStarts = sectionStarts;
+		this.sectionEnds = sectionEnds;
+		this.sectionData = sectionData;
+	}
+
+	/**
+	 * @return длина текста документа
+	 */
+	public int getLength() {
+		return text.length();
+	}
+
+	/**
+	 * @return весь текст документа
+	 */
+	public String getText() {
+		return text.toString();
+	}
+
+	/**
+	 * @param offset начало фрагмента
+	 * @param length длина фрагмента
+	 * @return фрагмент текста документа
+	 */
+	public String getText(int offset, int length) {
+		return text.subSequence(offset, offset + length).toString();
+	}
+
+	/**
+	 * @param key ключ свойства документа
+	 * @return значение свойства в момент создания снимка, или {@code null}, если свойство не задано
+	 */
+	public Object getProperty(Object key) {
+		return properties.get(key);
+	}
+
+	/**
+	 * @return количество участков стиля
+	 */
+	public int getRunCount() {
+		return runStarts.length;
+	}
+
+	/**
+	 * @param index номер участка стиля
+	 * @return начало участка
+	 */
+	public int getRunStart(int index) {
+		return runStarts[index];
+	}
+
+	/**
+	 * @param index номер участка стиля
+	 * @return конец участка; последний участок, как и в документе, захватывает завершающий перевод строки
+	 */
+	public int getRunEnd(int index) {
+		return index + 1 < runStarts.length ? runStarts[index + 1] : text.length() + 1;
+	}
+
+	/**
+	 * @param index номер участка стиля
+	 * @return атрибуты участка
+	 */
+	public AttributeSet getRunAttributes(int index) {
+		return runAttributes[index];
+	}
+
+	/**
+	 * @return количество пометок
+	 */
+	public int getSectionCount() {
+		return sectionData.length;
+	}
+
+	/**
+	 * @param index номер пометки
+	 * @return начало пометки
+	 */
+	public int getSectionStart(int index) {
+		return sectionStarts[index];
+	}
+
+	/**
+	 * @param index номер пометки
+	 * @return конец пометки
+	 */
+	public int getSectionEnd(int index) {
+		return sectionEnds[index];
+	}
+
+	/**
+	 * @param index номер пометки
+	 * @return разметка пометки
+	 */
+	public AData getSectionData(int index) {
+		return sectionData[index];
+	}
+
+	/**
+	 * @return разметка всех пометок в порядке их следования
+	 */
+	public List<AData> getAllSectionData() {
+		return Collections.unmodifiableList(Arrays.asList(sectionData));
+	}
+}
@@ -10,6 +10,7 @@ import org.socionicasys.analyst.types.Sign;
 import java.awt.Dimension;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import javax.swing.JScrollPane;
@@ -56,6 +57,10 @@ public class ATree extends JTree {
 	private TreePath path;
 
 	private final Map<DefaultMutableTreeNode, Predicate> nodePredicateMap;
+	/**
+	 * Количество пометок с каждым предикатом. Все предикаты берутся из {@link PredicateRegistry},
+	 * поэтому сравниваются по ссылке.
+	 */
 	private final Map<Predicate, Integer> predicateCounts;
 
 	private final DefaultMutableTreeNode doubtNode = new EndTreeNode(DOUBT_LABEL);
@@ -72,7 +77,7 @@ public class ATree extends JTree {
 			}
 		});
 
-		predicateCounts = new HashMap<Predicate, Integer>();
+		predicateCounts = new IdentityHashMap<Predicate, Integer>();
 		nodePredicateMap = new HashMap<DefaultMutableTreeNode, Predicate>();
 
 		getSelectionModel().setSelectionMode(TreeSelectionModel.SINGLE_TREE_SELECTION);
@@ -87,26 +92,26 @@ public class ATree extends JTree {
 		jumpsFound = false;
 		for (Aspect aspect : ASPECTS) {
 			for (Sign sign : Sign.values()) {
-				predicateCounts.put(new SignPredicate(aspect, sign), 0);
+				predicateCounts.put(PredicateRegistry.sign(aspect, sign), 0);
 			}
 			for (int dimension = 1; dimension <= 4; dimension++) {
-				predicateCounts.put(new DimensionPredicate(aspect, dimension), 0);
+				predicateCounts.put(PredicateRegistry.dimension(aspect, dimension), 0);
 			}
-			predicateCounts.put(new Dimension1Predicate(aspect), 0);
-			predicateCounts.put(new LowDimensionPredicate(aspect), 0);
-			predicateCounts.put(new HighDimensionPredicate(aspect), 0);
-			predicateCounts.put(new IndividualityPredicate(aspect), 0);
-			predicateCounts.put(new EvaluatoryPredicate(aspect), 0);
-			predicateCounts.put(new SituationalPredicate(aspect), 0);
-			predicateCounts.put(new VitalPredicate(aspect), 0);
-			predicateCounts.put(new MentalPredicate(aspect), 0);
-			predicateCounts.put(new EgoPredicate(aspect), 0);
-			predicateCounts.put(new SuperegoPredicate(aspect), 0);
-			predicateCounts.put(new SuperidPredicate(aspect), 0);
-			predicateCounts.put(new IdPredicate(aspect), 0);
+			predicateCounts.put(PredicateRegistry.dimension1(aspect), 0);
+			predicateCounts.put(PredicateRegistry.lowDimension(aspect), 0);
+			predicateCounts.put(PredicateRegistry.highDimension(aspect), 0);
+			predicateCounts.put(PredicateRegistry.individuality(aspect), 0);
+			predicateCounts.put(PredicateRegistry.evaluatory(aspect), 0);
+			predicateCounts.put(PredicateRegistry.situational(aspect), 0);
+			predicateCounts.put(PredicateRegistry.vital(aspect), 0);
+			predicateCounts.put(PredicateRegistry.mental(aspect), 0);
+			predicateCounts.put(PredicateRegistry.ego(aspect), 0);
+			predicateCounts.put(PredicateRegistry.superego(aspect), 0);
+			predicateCounts.put(PredicateRegistry.superid(aspect), 0);
+			predicateCounts.put(PredicateRegistry.id(aspect), 0);
 			for (Aspect secondAspect : ASPECTS) {
-				predicateCounts.put(new BlockPredicate(aspect, secondAspect), 0);
-				predicateCounts.put(new JumpPredicate(aspect, secondAspect), 0);
+				predicateCounts.put(PredicateRegistry.block(aspect, secondAspect), 0);
+				predicateCounts.put(PredicateRegistry.jump(aspect, secondAspect), 0);
 			}
 		}
 	}
@@ -229,36 +234,36 @@ public class ATree extends JTree {
 			aspectNode.add(aspectSignsNode);
 
 			for (Sign sign : Sign.values()) {
-				appendEndTreeNode(aspectSignsNode, new SignPredicate(aspect, sign));
+				appendEndTreeNode(aspectSignsNode, PredicateRegistry.sign(aspect, sign));
 			}
 
 			DefaultMutableTreeNode aspectDimensionsNode = new DefaultMutableTreeNode(DIMENSIONS_LABEL);
 			aspectNode.add(aspectDimensionsNode);
 
 			for (int dimension = 1; dimension <= 4; dimension++) {
-				appendEndTreeNode(aspectDimensionsNode, new DimensionPredicate(aspect, dimension));
+				appendEndTreeNode(aspectDimensionsNode, PredicateRegistry.dimension(aspect, dimension));
 			}
 
-			appendEndTreeNode(aspectDimensionsNode, new LowDimensionPredicate(aspect));
-			appendEndTreeNode(aspectDimensionsNode, new HighDimensionPredicate(aspect));
-			appendEndTreeNode(aspectDimensionsNode, new Dimension1Predicate(aspect));
-			appendEndTreeNode(aspectDimensionsNode, new IndividualityPredicate(aspect));
+			appendEndTreeNode(aspectDimensionsNode, PredicateRegistry.lowDimension(aspect));
+			appendEndTreeNode(aspectDimensionsNode, PredicateRegistry.highDimension(aspect));
+			appendEndTreeNode(aspectDimensionsNode, PredicateRegistry.dimension1(aspect));
+			appendEndTreeNode(aspectDimensionsNode, PredicateRegistry.individuality(aspect));
 
 			DefaultMutableTreeNode aspectFDsNode = new DefaultMutableTreeNode(FD_LABEL);
 			aspectNode.add(aspectFDsNode);
 
-			appendEndTreeNode(aspectFDsNode, new MentalPredicate(aspect));
-			appendEndTreeNode(aspectFDsNode, new VitalPredicate(aspect));
-			appendEndTreeNode(aspectFDsNode, new EvaluatoryPredicate(aspect));
-			appendEndTreeNode(aspectFDsNode, new SituationalPredicate(aspect));
+			appendEndTreeNode(aspectFDsNode, PredicateRegistry.mental(aspect));
+			appendEndTreeNode(aspectFDsNode, PredicateRegistry.vital(aspect));
+			appendEndTreeNode(aspectFDsNode, PredicateRegistry.evaluatory(aspect));
+			appendEndTreeNode(aspectFDsNode, PredicateRegistry.situational(aspect));
 
 			DefaultMutableTreeNode aspectBlocksNode = new DefaultMutableTreeNode(BLOCKS_LABEL);
 			aspectNode.add(aspectBlocksNode);
 
-			appendEndTreeNode(aspectBlocksNode, new EgoPredicate(aspect));
-			appendEndTreeNode(aspectBlocksNode, new SuperegoPredicate(aspect));
-			appendEndTreeNode(aspectBlocksNode, new SuperidPredicate(aspect));
-			appendEndTreeNode(aspectBlocksNode, new IdPredicate(aspect));
+			appendEndTreeNode(aspectBlocksNode, PredicateRegistry.ego(aspect));
+			appendEndTreeNode(aspectBlocksNode, PredicateRegistry.superego(aspect));
+			appendEndTreeNode(aspectBlocksNode, PredicateRegistry.superid(aspect));
+			appendEndTreeNode(aspectBlocksNode, PredicateRegistry.id(aspect));
 		}
 
 
@@ -270,32 +275,32 @@ public class ATree extends JTree {
 					new DefaultMutableTreeNode(DimensionPredicate.getDimensionName(dimension));
 			dimensionsNode.add(dimensionNode);
 			for (Aspect aspect : ASPECTS) {
-				appendEndTreeNode(dimensionNode, aspect.getAbbreviation(), new DimensionPredicate(aspect, dimension));
+				appendEndTreeNode(dimensionNode, aspect.getAbbreviation(), PredicateRegistry.dimension(aspect, dimension));
 			}
 		}
 
 		DefaultMutableTreeNode dimensionMaloNode = new DefaultMutableTreeNode(LOW_DIMENSION_LABEL);
  		dimensionsNode.add(dimensionMaloNode);
 		for (Aspect aspect : ASPECTS) {
-			appendEndTreeNode(dimensionMaloNode, aspect.getAbbreviation(), new LowDimensionPredicate(aspect));
+			appendEndTreeNode(dimensionMaloNode, aspect.getAbbreviation(), PredicateRegistry.lowDimension(aspect));
 		}
 
 		DefaultMutableTreeNode dimensionMnogoNode = new DefaultMutableTreeNode(HIGH_DIMENSION_LABEL);
  		dimensionsNode.add(dimensionMnogoNode);
 		for (Aspect aspect : ASPECTS) {
-			appendEndTreeNode(dimensionMnogoNode, aspect.getAbbreviation(), new HighDimensionPredicate(aspect));
+			appendEndTreeNode(dimensionMnogoNode, aspect.getAbbreviation(), PredicateRegistry.highDimension(aspect));
 		}
 
 		DefaultMutableTreeNode dimensionOdnoNode = new DefaultMutableTreeNode(DIMENSION1_LABEL);
 		dimensionsNode.add(dimensionOdnoNode);
 		for (Aspect aspect : ASPECTS) {
-			appendEndTreeNode(dimensionOdnoNode, aspect.getAbbreviation(), new Dimension1Predicate(aspect));
+			appendEndTreeNode(dimensionOdnoNode, aspect.getAbbreviation(), PredicateRegistry.dimension1(aspect));
 		}
 
 		DefaultMutableTreeNode dimensionIndiNode = new DefaultMutableTreeNode(INDIVIDUALITY_LABEL);
 		dimensionsNode.add(dimensionIndiNode);
 		for (Aspect aspect : ASPECTS) {
-			appendEndTreeNode(dimensionIndiNode, aspect.getAbbreviation(), new IndividualityPredicate(aspect));
+			appendEndTreeNode(dimensionIndiNode, aspect.getAbbreviation(), PredicateRegistry.individuality(aspect));
 		}
 
 
@@ -305,7 +310,7 @@ public class ATree extends JTree {
 		for (Aspect aspect1 : ASPECTS) {
 			for (Aspect aspect2 : ASPECTS) {
 				if (aspect1.isBlockWith(aspect2)) {
-					appendEndTreeNode(blockNode, new BlockPredicate(aspect1, aspect2));
+					appendEndTreeNode(blockNode, PredicateRegistry.block(aspect1, aspect2));
 				}
 			}
 		}
@@ -316,7 +321,7 @@ public class ATree extends JTree {
 			DefaultMutableTreeNode signNode = new DefaultMutableTreeNode(String.format(" %s ", sign));
 			signsNode.add(signNode);
 			for (Aspect aspect : ASPECTS) {
-				appendEndTreeNode(signNode, aspect.getAbbreviation(), new SignPredicate(aspect, sign));
+				appendEndTreeNode(signNode, aspect.getAbbreviation(), PredicateRegistry.sign(aspect, sign));
 			}
 		}
 
@@ -328,7 +333,7 @@ public class ATree extends JTree {
 					continue;
 				}
 				String jumpLabel = String.format("%s -> %s", fromAspect, toAspect);
-				appendEndTreeNode(jumpNode, jumpLabel, new JumpPredicate(fromAspect, toAspect));
+				appendEndTreeNode(jumpNode, jumpLabel, PredicateRegistry.jump(fromAspect, toAspect));
 			}
 		}
 
@@ -354,7 +359,7 @@ public class ATree extends JTree {
 		createReportRow(reportBuilder, "Mental");
 		for (Aspect aspect : ASPECTS) {
 			reportBuilder.append(HTML_CELL_OPEN);
-			reportBuilder.append(predicateCounts.get(new MentalPredicate(aspect)));
+			reportBuilder.append(predicateCounts.get(PredicateRegistry.mental(aspect)));
 			reportBuilder.append(HTML_CELL_CLOSE);
 		}
 		reportBuilder.append(HTML_ROW_CLOSE);
@@ -362,7 +367,7 @@ public class ATree extends JTree {
 		createReportRow(reportBuilder, "Vital");
 		for (Aspect aspect : ASPECTS) {
 			reportBuilder.append(HTML_CELL_OPEN);
-			reportBuilder.append(predicateCounts.get(new VitalPredicate(aspect)));
+			reportBuilder.append(predicateCounts.get(PredicateRegistry.vital(aspect)));
 			reportBuilder.append(HTML_CELL_CLOSE);
 		}
 		reportBuilder.append(HTML_ROW_CLOSE);
@@ -370,7 +375,7 @@ public class ATree extends JTree {
 		createReportRow(reportBuilder, "Evaluatory");
 		for (Aspect aspect : ASPECTS) {
 			reportBuilder.append(HTML_CELL_OPEN);
-			reportBuilder.append(predicateCounts.get(new EvaluatoryPredicate(aspect)));
+			reportBuilder.append(predicateCounts.get(PredicateRegistry.evaluatory(aspect)));
 			reportBuilder.append(HTML_CELL_CLOSE);
 		}
 		reportBuilder.append(HTML_ROW_CLOSE);
@@ -378,7 +383,7 @@ public class ATree extends JTree {
 		createReportRow(reportBuilder, "Situational");
 		for (Aspect aspect : ASPECTS) {
 			reportBuilder.append(HTML_CELL_OPEN);
-			reportBuilder.append(predicateCounts.get(new SituationalPredicate(aspect)));
+			reportBuilder.append(predicateCounts.get(PredicateRegistry.situational(aspect)));
 			reportBuilder.append(HTML_CELL_CLOSE);
 		}
 		reportBuilder.append(HTML_ROW_CLOSE);
@@ -387,7 +392,7 @@ public class ATree extends JTree {
 			createReportRow(reportBuilder, String.format("Sign \"%s\"", sign.toString()));
 			for (Aspect aspect : ASPECTS) {
 				reportBuilder.append(HTML_CELL_OPEN);
-				reportBuilder.append(predicateCounts.get(new SignPredicate(aspect, sign)));
+				reportBuilder.append(predicateCounts.get(PredicateRegistry.sign(aspect, sign)));
 				reportBuilder.append(HTML_CELL_CLOSE);
 			}
 			reportBuilder.append(HTML_ROW_CLOSE);
@@ -397,7 +402,7 @@ public class ATree extends JTree {
 			createReportRow(reportBuilder, DimensionPredicate.getDimensionName(dimension));
 			for (Aspect aspect : ASPECTS) {
 				reportBuilder.append(HTML_CELL_OPEN);
-				reportBuilder.append(predicateCounts.get(new DimensionPredicate(aspect, dimension)));
+				reportBuilder.append(predicateCounts.get(PredicateRegistry.dimension(aspect, dimension)));
 				reportBuilder.append(HTML_CELL_CLOSE);
 			}
 			reportBuilder.append(HTML_ROW_CLOSE);
@@ -406,7 +411,7 @@ public class ATree extends JTree {
 		createReportRow(reportBuilder, "One-Dimensionality");
 		for (Aspect aspect : ASPECTS) {
 			reportBuilder.append(HTML_CELL_OPEN);
-			reportBuilder.append(predicateCounts.get(new Dimension1Predicate(aspect)));
+			reportBuilder.append(predicateCounts.get(PredicateRegistry.dimension1(aspect)));
 			reportBuilder.append(HTML_CELL_CLOSE);
 		}
 		reportBuilder.append(HTML_ROW_CLOSE);
@@ -414,7 +419,7 @@ public class ATree extends JTree {
 		createReportRow(reportBuilder, "Low-Dimensionality");
 		for (Aspect aspect : ASPECTS) {
 			reportBuilder.append(HTML_CELL_OPEN);
-			reportBuilder.append(predicateCounts.get(new LowDimensionPredicate(aspect)));
+			reportBuilder.append(predicateCounts.get(PredicateRegistry.lowDimension(aspect)));
 			reportBuilder.append(HTML_CELL_CLOSE);
 		}
 		reportBuilder.append(HTML_ROW_CLOSE);
@@ -422,7 +427,7 @@ public class ATree extends JTree {
 		createReportRow(reportBuilder, "High-Dimensionality");
 		for (Aspect aspect : ASPECTS) {
 			reportBuilder.append(HTML_CELL_OPEN);
-			reportBuilder.append(predicateCounts.get(new HighDimensionPredicate(aspect)));
+			reportBuilder.append(predicateCounts.get(PredicateRegistry.highDimension(aspect)));
 			reportBuilder.append(HTML_CELL_CLOSE);
 		}
 		reportBuilder.append(HTML_ROW_CLOSE);
@@ -430,7 +435,7 @@ public class ATree extends JTree {
 		createReportRow(reportBuilder, "Individuality");
 		for (Aspect aspect : ASPECTS) {
 			reportBuilder.append(HTML_CELL_OPEN);
-			reportBuilder.append(predicateCounts.get(new IndividualityPredicate(aspect)));
+			reportBuilder.append(predicateCounts.get(PredicateRegistry.individuality(aspect)));
 			reportBuilder.append(HTML_CELL_CLOSE);
 		}
 		reportBuilder.append(HTML_ROW_CLOSE);
@@ -460,7 +465,7 @@ public class ATree extends JTree {
 					if (toAspect == fromAspect) {
 						reportBuilder.append('X');
 					} else {
-						reportBuilder.append(predicateCounts.get(new JumpPredicate(fromAspect, toAspect)));
+						reportBuilder.append(predicateCounts.get(PredicateRegistry.jump(fromAspect, toAspect)));
 					}
 					reportBuilder.append(HTML_CELL_CLOSE);
 				}
@@ -37,6 +37,8 @@ public class AnalystWindow extends JFrame {
 	private final ATree navigateTree;
 	private final BTree analysisTree;
 	private final MatchMissView histogramTree;
+	private final EvidenceCurveView evidenceCurveView;
+	private final PivotalPassagesView pivotalPassagesView;
 	private final JFileChooser fileChooser;
 
 	private boolean programExit;
@@ -107,6 +109,10 @@ public class AnalystWindow extends JFrame {
 		documentHolder.addADocumentChangeListener(analysisTree);
 		histogramTree = new MatchMissView(documentHolder);
 		documentHolder.addADocumentChangeListener(histogramTree);
+		evidenceCurveView = new EvidenceCurveView(documentHolder);
+		documentHolder.addADocumentChangeListener(evidenceCurveView);
+		pivotalPassagesView = new PivotalPassagesView(documentHolder, selectionConnector);
+		documentHolder.addADocumentChangeListener(pivotalPassagesView);
 		JTabbedPane navigateTabs = createTabPane();
 
 		JSplitPane splitPaneH = new JSplitPane(
@@ -158,7 +164,7 @@ public class AnalystWindow extends JFrame {
 
 	public void openFile(File file, boolean append) {
 		final LegacyHtmlReader worker = new LegacyHtmlReader(file);
-		worker.addPropertyChangeListener(new DocumentLoadListener(documentHolder, append, textPane.getCaretPosition()));
+		worker.addPropertyChangeListener(new DocumentLoadListener(documentHolder, append, textPane.getCaretPosition(), this));
 		worker.addPropertyChangeListener(new ProgressWindow(this, "    Loading file...   "));
 		worker.execute();
 
@@ -171,7 +177,10 @@ public class AnalystWindow extends JFrame {
 		JTabbedPane navigateTabs = new JTabbedPane();
 		navigateTabs.addTab("Navigation", navigateTree.getContainer());
 		navigateTabs.addTab("Analysis", analysisTree.getContainer());
-		navigateTabs.addTab("Chart", histogramTree.getContainer());
+		JSplitPane chartPane = new JSplitPane(JSplitPane.VERTICAL_SPLIT, histogramTree.getContainer(), evidenceCurveView);
+		chartPane.setResizeWeight(0.5);
+		navigateTabs.addTab("Chart", chartPane);
+		navigateTabs.addTab("Pivotal passages", pivotalPassagesView.getContainer());
 		navigateTabs.setMinimumSize(new Dimension(200, 400));
 		navigateTabs.setPreferredSize(new Dimension(300, 400));
 		return navigateTabs;
@@ -347,6 +356,7 @@ public class AnalystWindow extends JFrame {
 
 		docProperties.putValue(Action.NAME, "Document properties");
 		menu.add(docProperties);
+		menu.add(new RuleSetComparisonAction(this, documentHolder));
 		menu.add(new AboutAction(this));
 		return menu;
 	}
@@ -407,6 +417,8 @@ public class AnalystWindow extends JFrame {
 				}
 
 				if (file != null) {
+					// Отчет берется из дерева анализа, которое должно учитывать все изменения документа
+					documentHolder.flushNotifications();
 					LegacyHtmlWriter iow = new LegacyHtmlWriter(this, document, file);
 					iow.addPropertyChangeListener(new ProgressWindow(this, "    Saving file: "));
 					iow.addPropertyChangeListener(new DocumentSaveListener());
@@ -473,6 +485,7 @@ public class AnalystWindow extends JFrame {
 				}
 			}
 
+			documentHolder.flushNotifications();
 			ADocument document = documentHolder.getModel();
 			LegacyHtmlWriter backgroundWriter = new LegacyHtmlWriter(AnalystWindow.this, document, saveFile);
 			backgroundWriter.addPropertyChangeListener(new ProgressWindow(AnalystWindow.this, "    Saving  file: "));
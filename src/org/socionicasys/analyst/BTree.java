@@ -5,6 +5,7 @@ import org.slf4j.LoggerFactory;
 import org.socionicasys.analyst.model.AData;
 import org.socionicasys.analyst.predicates.Predicate;
 import org.socionicasys.analyst.types.Sociotype;
+import org.socionicasys.analyst.types.SociotypeMasks;
 
 import java.awt.*;
 import java.util.Collection;
@@ -92,19 +93,16 @@ public class BTree extends JTree implements ADocumentChangeListener {
 				int quoteLength = Math.min(sectionLength, MAX_PRESENTATION_CHARS);
 				String quote = document.getText(sectionOffset, quoteLength);
 
+				int discordMask = SocionicsType.getDiscordMask(predicates);
+				int accordMask = SocionicsType.getAccordMask(predicates, discordMask);
 				for (Sociotype sociotype : Sociotype.values()) {
 					MutableTreeNode quoteNode = new DefaultMutableTreeNode(
 							new EndNodeObject(sectionOffset, String.format("...%s...", quote)), false);
 
-					switch (SocionicsType.matches(sociotype, predicates)) {
-					case SUCCESS:
-						matchNodes.get(sociotype).add(quoteNode);
-						break;
-					case FAIL:
+					if (SociotypeMasks.contains(discordMask, sociotype)) {
 						missNodes.get(sociotype).add(quoteNode);
-						break;
-					case IGNORE:
-						break;
+					} else if (SociotypeMasks.contains(accordMask, sociotype)) {
+						matchNodes.get(sociotype).add(quoteNode);
 					}
 				}
 			}
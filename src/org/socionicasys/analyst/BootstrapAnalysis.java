@@ -0,0 +1,267 @@
+package org.socionicasys.analyst;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.socionicasys.analyst.model.AData;
+import org.socionicasys.analyst.types.Sociotype;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Бутстреп-оценка устойчивости рейтинга ТИМов.
+ *
+ * <p>Из учтенных в счетчиках пометок документа много раз делается выборка того же размера с возвращением,
+ * и для каждой выборки заново считаются нормализованные коеффициенты соответствия. По их распределению
+ * строятся процентильные доверительные интервалы и вероятность каждого ТИМа оказаться первым.</p>
+ *
+ * <p>Вклад пометки определяется только ее масками соответствия, а различных пар масок в документе немного.
+ * Поэтому пометки заранее группируются по маскам, выборка лишь считает, сколько раз попала каждая группа,
+ * а счетчики ТИМов получаются из этих чисел за время, не зависящее от числа пометок. Выборки делятся между
+ * потоками {@link ForkJoinPool}; генератор случайных чисел расщепляется ({@link SplittableRandom#split()})
+ * вместе с диапазоном выборок, поэтому результат при том же начальном значении не зависит от числа потоков
+ * и не меняется от обновления к обновлению. Маски пометок перед выборкой упорядочиваются, так что результат
+ * зависит только от набора пометок, а не от порядка, в котором их передали: гистограмма и сохраненный отчет
+ * показывают для одного документа одинаковую оценку.</p>
+ */
+public final class BootstrapAnalysis {
+	private static final Logger logger = LoggerFactory.getLogger(BootstrapAnalysis.class);
+
+	/**
+	 * Число бутстреп-выборок.
+	 */
+	public static final int REPLICATE_COUNT = 2000;
+
+	/**
+	 * Доверительная вероятность интервалов.
+	 */
+	public static final float CONFIDENCE_LEVEL = 0.95f;
+
+	/**
+	 * Начальное значение генератора случайных чисел.
+	 */
+	private static final long SEED = 0x5EED5EEDL;
+
+	/**
+	 * Число выборок, которые считаются в одной задаче без дальнейшего деления.
+	 */
+	private static final int REPLICATES_PER_TASK = 64;
+
+	private static final Sociotype[] SOCIOTYPES = Sociotype.values();
+
+	private BootstrapAnalysis() {
+	}
+
+	/**
+	 * @param matchMissModel счетчики (не)совпадений документа
+	 * @return бутстреп-оценка по пометкам, учтенным в счетчиках
+	 */
+	public static BootstrapEstimate analyze(MatchMissModel matchMissModel) {
+		return analyze(getClassifications(matchMissModel));
+	}
+
+	/**
+	 * Копирует маски соответствия пометок, чтобы оценку можно было вычислить в другом потоке, пока
+	 * счетчики продолжают меняться.
+	 *
+	 * @param matchMissModel счетчики (не)совпадений документа
+	 * @return маски всех учтенных в счетчиках пометок, упакованные {@link MatchMissModel#classify(AData)}
+	 */
+	static int[] getClassifications(MatchMissModel matchMissModel) {
+		Collection<Integer> classifications = matchMissModel.getClassifications().values();
+		int[] masks = new int[classifications.size()];
+		int index = 0;
+		for (Integer classification : classifications) {
+			masks[index++] = classification;
+		}
+		return masks;
+	}
+
+	/**
+	 * @param classifications маски соответствия пометок, упакованные {@link MatchMissModel#classify(AData)}
+	 * @return бутстреп-оценка по заданным пометкам
+	 */
+	static BootstrapEstimate analyze(int[] classifications) {
+		return analyze(classifications, REPLICATE_COUNT, SEED);
+	}
+
+	/**
+	 * @param markup разметка всех пометок документа
+	 * @return бутстреп-оценка по пометкам, влияющим на счетчики (не)совпадений
+	 */
+	public static BootstrapEstimate analyze(Collection<AData> markup) {
+		int[] masks = new int[markup.size()];
+		int count = 0;
+		for (AData data : markup) {
+			int classification = MatchMissModel.classify(data);
+			if (classification != 0) {
+				masks[count++] = classification;
+			}
+		}
+		return analyze(Arrays.copyOf(masks, count), REPLICATE_COUNT, SEED);
+	}
+
+	/**
+	 * @param classifications маски соответствия пометок, упакованные {@link MatchMissModel#classify(AData)}
+	 * @param replicateCount число выборок
+	 * @param seed начальное значение генератора случайных чисел
+	 * @return бутстреп-оценка
+	 */
+	static BootstrapEstimate analyze(int[] classifications, int replicateCount, long seed) {
+		logger.trace("analyze(): entering, {} marks", classifications.length);
+
+		// Номер пометки в выборке должен зависеть только от ее маски, а не от порядка пометок в документе
+		int[] sortedClassifications = Arrays.copyOf(classifications, classifications.length);
+		Arrays.sort(sortedClassifications);
+
+		// Группы пометок с одинаковыми масками и номер группы каждой пометки
+		Map<Integer, Integer> groupIndices = new HashMap<Integer, Integer>();
+		int[] groupOfMark = new int[classifications.length];
+		int[] groupMasks = new int[classifications.length];
+		for (int mark = 0; mark < sortedClassifications.length; mark++) {
+			Integer group = groupIndices.get(sortedClassifications[mark]);
+			if (group == null) {
+				group = groupIndices.size();
+				groupIndices.put(sortedClassifications[mark], group);
+				groupMasks[group] = sortedClassifications[mark];
+			}
+			groupOfMark[mark] = group;
+		}
+		groupMasks = Arrays.copyOf(groupMasks, groupIndices.size());
+
+		float[][] coefficients = new float[SOCIOTYPES.length][replicateCount];
+		ForkJoinPool.commonPool().invoke(new ReplicateTask(groupOfMark, groupMasks, coefficients,
+			0, replicateCount, new SplittableRandom(seed)));
+
+		float[] leaderProbabilities = new float[SOCIOTYPES.length];
+		for (int replicate = 0; replicate < replicateCount; replicate++) {
+			float maxCoefficient = 0f;
+			int leaderCount = 0;
+			for (float[] sociotypeCoefficients : coefficients) {
+				float coefficient = sociotypeCoefficients[replicate];
+				if (maxCoefficient < coefficient) {
+					maxCoefficient = coefficient;
+					leaderCount = 1;
+				} else if (maxCoefficient == coefficient) {
+					leaderCount++;
+				}
+			}
+			if (maxCoefficient == 0f) {
+				continue;
+			}
+			for (int index = 0; index < SOCIOTYPES.length; index++) {
+				if (coefficients[index][replicate] == maxCoefficient) {
+					leaderProbabilities[index] += 1f / leaderCount;
+				}
+			}
+		}
+
+		float[] lowerBounds = new float[SOCIOTYPES.length];
+		float[] upperBounds = new float[SOCIOTYPES.length];
+		if (replicateCount != 0) {
+			float tail = (1f - CONFIDENCE_LEVEL) / 2f;
+			int lowerIndex = (int) Math.floor(tail * (replicateCount - 1));
+			int upperIndex = (int) Math.ceil((1f - tail) * (replicateCount - 1));
+			for (int index = 0; index < SOCIOTYPES.length; index++) {
+				float[] sociotypeCoefficients = coefficients[index];
+				Arrays.sort(sociotypeCoefficients);
+				lowerBounds[index] = sociotypeCoefficients[lowerIndex];
+				upperBounds[index] = sociotypeCoefficients[upperIndex];
+				leaderProbabilities[index] /= replicateCount;
+			}
+		}
+
+		logger.trace("analyze(): leaving, {} mask groups", groupMasks.length);
+		return new BootstrapEstimate(lowerBounds, upperBounds, leaderProbabilities, replicateCount,
+			classifications.length);
+	}
+
+	/**
+	 * Вычисляет нормализованные коеффициенты для диапазона выборок, деля его пополам, пока он велик.
+	 */
+	private static final class ReplicateTask extends RecursiveAction {
+		private final int[] groupOfMark;
+		private final int[] groupMasks;
+		private final float[][] coefficients;
+		private final int from;
+		private final int to;
+		private final SplittableRandom random;
+
+		/**
+		 * @param groupOfMark номер группы масок каждой пометки
+		 * @param groupMasks упакованные маски соответствия групп
+		 * @param coefficients куда записываются коеффициенты, по ТИМу и номеру выборки
+		 * @param from первая выборка диапазона
+		 * @param to выборка после последней
+		 * @param random генератор, принадлежащий только этой задаче
+		 */
+		ReplicateTask(int[] groupOfMark, int[] groupMasks, float[][] coefficients, int from, int to,
+				SplittableRandom random) {
+			this.groupOfMark = groupOfMark;
+			this.groupMasks = groupMasks;
+			this.coefficients = coefficients;
+			this.from = from;
+			this.to = to;
+			this.random = random;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= REPLICATES_PER_TASK) {
+				computeDirectly();
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			SplittableRandom secondRandom = random.split();
+			invokeAll(new ReplicateTask(groupOfMark, groupMasks, coefficients, from, middle, random),
+				new ReplicateTask(groupOfMark, groupMasks, coefficients, middle, to, secondRandom));
+		}
+
+		private void computeDirectly() {
+			int markCount = groupOfMark.length;
+			int[] groupHits = new int[groupMasks.length];
+			int[] matchCounts = new int[SOCIOTYPES.length];
+			int[] missCounts = new int[SOCIOTYPES.length];
+			float[] rawCoefficients = new float[SOCIOTYPES.length];
+			for (int replicate = from; replicate < to; replicate++) {
+				Arrays.fill(groupHits, 0);
+				for (int draw = 0; draw < markCount; draw++) {
+					groupHits[groupOfMark[random.nextInt(markCount)]]++;
+				}
+
+				Arrays.fill(matchCounts, 0);
+				Arrays.fill(missCounts, 0);
+				for (int group = 0; group < groupMasks.length; group++) {
+					int hits = groupHits[group];
+					if (hits == 0) {
+						continue;
+					}
+					int accordMask = groupMasks[group] & 0xFFFF;
+					int discordMask = groupMasks[group] >>> 16;
+					for (int index = 0; index < SOCIOTYPES.length; index++) {
+						matchCounts[index] += hits * (accordMask >>> index & 1);
+						missCounts[index] += hits * (discordMask >>> index & 1);
+					}
+				}
+
+				float maxCoefficient = 0f;
+				for (int index = 0; index < SOCIOTYPES.length; index++) {
+					rawCoefficients[index] = MatchMissItem.getRawCoefficient(matchCounts[index], missCounts[index]);
+					if (maxCoefficient < rawCoefficients[index]) {
+						maxCoefficient = rawCoefficients[index];
+					}
+				}
+				// При нулевом максимуме все коеффициенты нулевые при любом масштабе
+				float scale = maxCoefficient == 0f ? 1f : MatchMissModel.getScale(maxCoefficient);
+				for (int index = 0; index < SOCIOTYPES.length; index++) {
+					coefficients[index][replicate] = MatchMissItem.getScaledCoefficient(rawCoefficients[index], scale);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package org.socionicasys.analyst;
+
+import org.socionicasys.analyst.types.Sociotype;
+
+/**
+ * Результат бутстреп-оценки устойчивости коеффициентов соответствия (см. {@link BootstrapAnalysis}):
+ * доверительные интервалы нормализованных коеффициентов и вероятность каждого ТИМа оказаться первым.
+ */
+public final class BootstrapEstimate {
+	/**
+	 * Границы доверительных интервалов нормализованных коеффициентов, по {@link Sociotype#ordinal()}.
+	 */
+	private final float[] lowerBounds;
+	private final float[] upperBounds;
+
+	/**
+	 * Доли выборок, в которых ТИМ был первым в рейтинге, по {@link Sociotype#ordinal()}.
+	 */
+	private final float[] leaderProbabilities;
+
+	private final int replicateCount;
+	private final int markCount;
+
+	BootstrapEstimate(float[] lowerBounds, float[] upperBounds, float[] leaderProbabilities,
+			int replicateCount, int markCount) {
+		this.lowerBounds = lowerBounds;
+		this.upperBounds = upperBounds;
+		this.leaderProbabilities = leaderProbabilities;
+		this.replicateCount = replicateCount;
+		this.markCount = markCount;
+	}
+
+	/**
+	 * @param sociotype ТИМ
+	 * @return нижняя граница доверительного интервала нормализованного коеффициента соответствия
+	 */
+	public float getLowerBound(Sociotype sociotype) {
+		return lowerBounds[sociotype.ordinal()];
+	}
+
+	/**
+	 * @param sociotype ТИМ
+	 * @return верхняя граница доверительного интервала нормализованного коеффициента соответствия
+	 */
+	public float getUpperBound(Sociotype sociotype) {
+		return upperBounds[sociotype.ordinal()];
+	}
+
+	/**
+	 * @param sociotype ТИМ
+	 * @return доля выборок, в которых ТИМ был первым в рейтинге; при равенстве нескольких ТИМов
+	 * выборка делится между ними поровну
+	 */
+	public float getLeaderProbability(Sociotype sociotype) {
+		return leaderProbabilities[sociotype.ordinal()];
+	}
+
+	/**
+	 * @return число бутстреп-выборок
+	 */
+	public int getReplicateCount() {
+		return replicateCount;
+	}
+
+	/**
+	 * @return число пометок, из которых делались выборки
+	 */
+	public int getMarkCount() {
+		return markCount;
+	}
+}
@@ -0,0 +1,847 @@
+package org.socionicasys.analyst;
+
+import org.socionicasys.analyst.model.AData;
+import org.socionicasys.analyst.model.Markup;
+
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.GapContent;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+import javax.swing.undo.CompoundEdit;
+import javax.swing.undo.UndoableEdit;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Компактное хранилище разметки для документов с большим числом пометок.
+ *
+ * <p>Вместо отдельных объектов для каждой пометки хранилище держит границы интервалов и коды
+ * разметки в массивах {@code int[]}, индексируемых номером интервала. Код разметки ссылается
+ * на таблицу различных вариантов разметки без комментария; непустые комментарии хранятся
+ * в отдельной таблице. Объекты {@link DocumentSection} и {@link AData} создаются только
+ * по запросу.</p>
+ *
+ * <p>Границы интервалов не привязаны к позициям документа: хранилище держит их в дереве меток
+ * {@link MarkTree} и само сдвигает при каждом изменении текста, так что правка стоит логарифм от числа
+ * пометок. Для этого документ должен использовать содержимое, созданное {@link #getContent()}. Сдвиги
+ * записываются в историю отмены вместе с изменением текста, поэтому отмена и повтор правки восстанавливают
+ * границы интервалов.</p>
+ *
+ * <p>Номер интервала без разметки, на который не осталось объектов {@link DocumentSection}, освобождается
+ * и отдается следующему созданному интервалу, так что массивы хранилища не растут при повторной разметке.</p>
+ */
+final class CompactSectionStore implements SectionStore {
+	private static final int INITIAL_CAPACITY = 16;
+
+	/**
+	 * Код разметки интервала, не связанного с разметкой.
+	 */
+	private static final int NO_MARKUP = 0;
+
+	/**
+	 * Содержимое документа, уведомляющее хранилище об изменениях текста.
+	 */
+	private final TrackingContent content;
+
+	/**
+	 * Границы интервалов: метка {@code 2 * номер} — начало интервала, {@code 2 * номер + 1} — конец.
+	 * Конец, оказавшийся левее начала, считается совпадающим с ним.
+	 */
+	private final MarkTree bounds;
+
+	/**
+	 * Коды разметки интервалов: {@link #NO_MARKUP} либо номер варианта в {@link #markupTable}, начиная с 1.
+	 */
+	private int[] codes;
+
+	/**
+	 * Число выданных номеров интервалов, в том числе освобожденных и не связанных с разметкой.
+	 */
+	private int slotCount;
+
+	/**
+	 * Порядковые номера создания интервалов, по которым из интервалов с одинаковыми границами выбирается
+	 * созданный последним, и следующий порядковый номер.
+	 */
+	private int[] serials;
+	private int nextSerial;
+
+	/**
+	 * Слабые ссылки на номера интервалов, выданные в объектах {@link DocumentSection}, и очередь ссылок,
+	 * собранных сборщиком мусора. Интервал без разметки, на который не осталось ссылок, уже нельзя ни найти,
+	 * ни вернуть отменой правки, поэтому его номер можно освободить.
+	 */
+	private SlotReference[] references;
+	private final ReferenceQueue<SlotHandle> queue;
+
+	/**
+	 * Освобожденные номера интервалов.
+	 */
+	private int[] freeSlots;
+	private int freeCount;
+
+	/**
+	 * Поколения номеров интервалов. Поколение увеличивается при освобождении номера, чтобы запись истории отмены
+	 * не вернула на прежнее место границу интервала, которому номер выдан позже.
+	 */
+	private int[] generations;
+
+	/**
+	 * Номера размеченных интервалов, упорядоченные по смещению начала.
+	 */
+	private int[] order;
+	private int markedCount;
+
+	/**
+	 * Дерево отрезков над {@link #order}: в каждой вершине — номер интервала с максимальным концом.
+	 * Правки текста сдвигают границы монотонно и не меняют выбранные интервалы, поэтому дерево
+	 * перестраивается при первом запросе только после изменения разметки или отмены удаления текста.
+	 */
+	private int[] maxEndTree;
+	private int treeCapacity;
+	private boolean treeDirty;
+
+	/**
+	 * Различные варианты разметки без комментария и их коды.
+	 */
+	private final List<Markup> markupTable;
+	private final Map<Markup, Integer> markupCodes;
+
+	/**
+	 * Непустые комментарии разметки по номерам интервалов.
+	 */
+	private final Map<Integer, String> comments;
+
+	/**
+	 * Состояние поиска в {@link #findInnermost(int)}.
+	 */
+	private int bestSlot;
+	private int bestDistance;
+	private int bestStart;
+	private int bestEnd;
+
+	/**
+	 * Создает пустое хранилище вместе с содержимым документа, за изменениями которого оно следит.
+	 *
+	 * @param baseContent содержимое, в котором хранится текст документа
+	 */
+	CompactSectionStore(AbstractDocument.Content baseContent) {
+		content = new TrackingContent(baseContent);
+		bounds = new MarkTree();
+		codes = new int[INITIAL_CAPACITY];
+		serials = new int[INITIAL_CAPACITY];
+		references = new SlotReference[INITIAL_CAPACITY];
+		generations = new int[INITIAL_CAPACITY];
+		freeSlots = new int[INITIAL_CAPACITY];
+		queue = new ReferenceQueue<SlotHandle>();
+		order = new int[INITIAL_CAPACITY];
+		markupTable = new ArrayList<Markup>();
+		markupCodes = new HashMap<Markup, Integer>();
+		comments = new HashMap<Integer, String>();
+		treeDirty = true;
+	}
+
+	/**
+	 * @return содержимое, которое должен использовать документ с этим хранилищем
+	 */
+	AbstractDocument.Content getContent() {
+		return content;
+	}
+
+	@Override
+	public DocumentSection createSection(int startOffset, int endOffset) throws BadLocationException {
+		int start = Math.min(startOffset, endOffset);
+		int end = Math.max(startOffset, endOffset);
+		if (start < 0 || end > content.length()) {
+			throw new BadLocationException("Invalid section bounds", start < 0 ? start : end);
+		}
+
+		reclaimSlots();
+		int slot;
+		if (freeCount > 0) {
+			slot = freeSlots[--freeCount];
+		} else {
+			if (slotCount == codes.length) {
+				int capacity = slotCount * 2;
+				codes = Arrays.copyOf(codes, capacity);
+				serials = Arrays.copyOf(serials, capacity);
+				references = Arrays.copyOf(references, capacity);
+				generations = Arrays.copyOf(generations, capacity);
+			}
+			slot = slotCount;
+			slotCount++;
+		}
+		bounds.add(2 * slot, start, true);
+		bounds.add(2 * slot + 1, end, false);
+		codes[slot] = NO_MARKUP;
+		serials[slot] = nextSerial++;
+		return sectionFor(slot);
+	}
+
+	/**
+	 * Освобождает номера интервалов без разметки, объекты которых собраны сборщиком мусора.
+	 */
+	private void reclaimSlots() {
+		for (Reference<? extends SlotHandle> reference = queue.poll(); reference != null; reference = queue.poll()) {
+			int slot = ((SlotReference) reference).slot;
+			// Пока ссылка ждала в очереди, номер мог получить новые объекты
+			if (references[slot] != reference) {
+				continue;
+			}
+			references[slot] = null;
+			if (codes[slot] == NO_MARKUP) {
+				bounds.delete(2 * slot);
+				bounds.delete(2 * slot + 1);
+				generations[slot]++;
+				if (freeCount == freeSlots.length) {
+					freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+				}
+				freeSlots[freeCount++] = slot;
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * <p>Границы интервалов уже сдвинуты содержимым документа, поэтому метод ничего не делает.</p>
+	 */
+	@Override
+	public void insertUpdate(int offset, int length) {
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * <p>Границы интервалов восстанавливаются записями сдвига вместе с текстом, поэтому метод ничего не делает.</p>
+	 */
+	@Override
+	public void textRestored() {
+	}
+
+	@Override
+	public int size() {
+		return markedCount;
+	}
+
+	@Override
+	public boolean contains(DocumentSection section) {
+		int slot = slotOf(section);
+		return slot >= 0 && codes[slot] != NO_MARKUP;
+	}
+
+	@Override
+	public AData get(DocumentSection section) {
+		return contains(section) ? dataFor(section.getId()) : null;
+	}
+
+	@Override
+	public void put(DocumentSection section, AData data) {
+		int slot = slotOf(section);
+		if (slot < 0) {
+			throw new IllegalArgumentException(String.format("Section %s was not created by this store", section));
+		}
+		if (codes[slot] == NO_MARKUP) {
+			addToOrder(slot);
+		}
+		codes[slot] = encode(data);
+		String comment = data.getComment();
+		if (comment.isEmpty()) {
+			comments.remove(slot);
+		} else {
+			comments.put(slot, comment);
+		}
+	}
+
+	@Override
+	public AData remove(DocumentSection section) {
+		if (!contains(section)) {
+			return null;
+		}
+		int slot = section.getId();
+		AData data = dataFor(slot);
+		removeFromOrder(slot);
+		codes[slot] = NO_MARKUP;
+		comments.remove(slot);
+		return data;
+	}
+
+	@Override
+	public Map<DocumentSection, AData> asMap() {
+		return new MarkupMap();
+	}
+
+	@Override
+	public DocumentSection findInnermost(int pos) {
+		bestSlot = -1;
+		int limit = upperBound(pos);
+		if (limit > 0) {
+			collectInnermost(1, 0, getTreeCapacity(), limit, pos);
+		}
+		return bestSlot < 0 ? null : sectionFor(bestSlot);
+	}
+
+	@Override
+	public DocumentSection find(int start, int end) {
+		for (int i = lowerBound(start); i < markedCount && startOf(order[i]) == start; i++) {
+			if (endOf(order[i]) == end) {
+				return sectionFor(order[i]);
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public DocumentSection exact(int offset) {
+		int i = lowerBound(offset);
+		return i < markedCount && startOf(order[i]) == offset ? sectionFor(order[i]) : null;
+	}
+
+	@Override
+	public DocumentSection floor(int offset) {
+		int i = upperBound(offset) - 1;
+		return i >= 0 ? sectionFor(order[i]) : null;
+	}
+
+	@Override
+	public DocumentSection ceiling(int offset) {
+		int i = lowerBound(offset);
+		return i < markedCount ? sectionFor(order[i]) : null;
+	}
+
+	@Override
+	public void collectIntersecting(int start, int end, Collection<DocumentSection> result) {
+		int limit = upperBound(end);
+		if (limit > 0) {
+			collectIntersecting(1, 0, getTreeCapacity(), limit, start, result);
+		}
+	}
+
+	private int slotOf(DocumentSection section) {
+		int slot = section.getId();
+		return slot >= 0 && slot < slotCount ? slot : -1;
+	}
+
+	private int startOf(int slot) {
+		return bounds.offset(2 * slot);
+	}
+
+	private int endOf(int slot) {
+		return Math.max(bounds.offset(2 * slot + 1), bounds.offset(2 * slot));
+	}
+
+	/**
+	 * Создает объект интервала. Все объекты одного интервала, существующие одновременно, ссылаются на общий
+	 * {@link SlotHandle}, так что номер освобождается только после сборки последнего из них.
+	 */
+	private DocumentSection sectionFor(int slot) {
+		SlotHandle handle = references[slot] == null ? null : references[slot].get();
+		if (handle == null) {
+			handle = new SlotHandle(slot);
+			references[slot] = new SlotReference(handle, queue);
+		}
+		return new DocumentSection(new SlotPosition(handle, false), new SlotPosition(handle, true), slot);
+	}
+
+	private AData dataFor(int slot) {
+		return new AData(markupTable.get(codes[slot] - 1), comments.get(slot));
+	}
+
+	/**
+	 * Возвращает код варианта разметки без учета комментария, добавляя вариант в таблицу при необходимости.
+	 */
+	private int encode(AData data) {
+		Markup markup = data.getMarkup();
+		Integer code = markupCodes.get(markup);
+		if (code == null) {
+			markupTable.add(markup);
+			code = markupTable.size();
+			markupCodes.put(markup, code);
+		}
+		return code;
+	}
+
+	/**
+	 * @return индекс первого интервала в {@link #order}, начинающегося не раньше {@code offset}
+	 */
+	private int lowerBound(int offset) {
+		int low = 0;
+		int high = markedCount;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (startOf(order[middle]) < offset) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @return индекс первого интервала в {@link #order}, начинающегося позже {@code offset}
+	 */
+	private int upperBound(int offset) {
+		int low = 0;
+		int high = markedCount;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (startOf(order[middle]) <= offset) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private void addToOrder(int slot) {
+		if (markedCount == order.length) {
+			order = Arrays.copyOf(order, markedCount * 2);
+		}
+		int index = upperBound(startOf(slot));
+		System.arraycopy(order, index, order, index + 1, markedCount - index);
+		order[index] = slot;
+		markedCount++;
+		treeDirty = true;
+	}
+
+	private void removeFromOrder(int slot) {
+		int index = lowerBound(startOf(slot));
+		while (index < markedCount && order[index] != slot) {
+			index++;
+		}
+		if (index == markedCount) {
+			return;
+		}
+		System.arraycopy(order, index + 1, order, index, markedCount - index - 1);
+		markedCount--;
+		treeDirty = true;
+	}
+
+	/**
+	 * Перестраивает дерево отрезков, если оно устарело, и возвращает число его листьев.
+	 */
+	private int getTreeCapacity() {
+		if (treeDirty) {
+			int capacity = Integer.highestOneBit(Math.max(1, markedCount));
+			if (capacity < markedCount) {
+				capacity *= 2;
+			}
+			if (maxEndTree == null || treeCapacity != capacity) {
+				maxEndTree = new int[2 * capacity];
+				treeCapacity = capacity;
+			}
+			for (int i = 0; i < capacity; i++) {
+				maxEndTree[capacity + i] = i < markedCount ? order[i] : -1;
+			}
+			for (int i = capacity - 1; i > 0; i--) {
+				maxEndTree[i] = maxEndSlot(maxEndTree[2 * i], maxEndTree[2 * i + 1]);
+			}
+			treeDirty = false;
+		}
+		return treeCapacity;
+	}
+
+	private int maxEndSlot(int slot, int otherSlot) {
+		if (slot < 0) {
+			return otherSlot;
+		}
+		if (otherSlot < 0) {
+			return slot;
+		}
+		return endOf(otherSlot) > endOf(slot) ? otherSlot : slot;
+	}
+
+	private void collectInnermost(int node, int low, int high, int limit, int pos) {
+		int maxSlot = maxEndTree[node];
+		if (low >= limit || maxSlot < 0 || endOf(maxSlot) <= pos) {
+			return;
+		}
+		if (high - low == 1) {
+			int start = startOf(maxSlot);
+			int end = endOf(maxSlot);
+			int distance = Math.abs(pos - (start + end) / 2);
+			if (bestSlot < 0 || distance < bestDistance || distance == bestDistance
+					&& (start > bestStart || start == bestStart && (end < bestEnd
+					|| end == bestEnd && serials[maxSlot] > serials[bestSlot]))) {
+				bestSlot = maxSlot;
+				bestDistance = distance;
+				bestStart = start;
+				bestEnd = end;
+			}
+			return;
+		}
+		int middle = (low + high) >>> 1;
+		collectInnermost(2 * node, low, middle, limit, pos);
+		collectInnermost(2 * node + 1, middle, high, limit, pos);
+	}
+
+	private void collectIntersecting(int node, int low, int high, int limit, int start,
+			Collection<DocumentSection> result) {
+		int maxSlot = maxEndTree[node];
+		if (low >= limit || maxSlot < 0 || endOf(maxSlot) < start) {
+			return;
+		}
+		if (high - low == 1) {
+			result.add(sectionFor(maxSlot));
+			return;
+		}
+		int middle = (low + high) >>> 1;
+		collectIntersecting(2 * node, low, middle, limit, start, result);
+		collectIntersecting(2 * node + 1, middle, high, limit, start, result);
+	}
+
+	/**
+	 * Сдвигает границы интервалов после вставки текста так же, как {@link GapContent} сдвигает позиции:
+	 * границы правее места вставки смещаются на длину текста, начала в месте вставки (кроме самого начала
+	 * документа) — тоже. Конец интервала в месте вставки остается на месте, чтобы вставка в конце
+	 * интервала его не расширяла.
+	 */
+	private void applyInsert(int offset, int length) {
+		// Конец пустого интервала в месте вставки следует за началом, то есть сдвигается немонотонно
+		// относительно концов других интервалов
+		if (offset > 0) {
+			for (int mark : bounds.marksAt(offset)) {
+				int slot = mark / 2;
+				if (mark % 2 == 0 && codes[slot] != NO_MARKUP && endOf(slot) == offset) {
+					treeDirty = true;
+				}
+			}
+		}
+		bounds.insert(offset, length);
+	}
+
+	/**
+	 * Сдвигает границы интервалов после удаления текста: границы внутри удаленного фрагмента схлопываются
+	 * к его началу, границы после него смещаются влево.
+	 *
+	 * @return прежние значения границ, попавших в {@code (offset, offset + length]}: тройки
+	 * (номер интервала * 2 + признак конца, смещение, поколение номера), по которым правку можно отменить
+	 */
+	private int[] applyRemove(int offset, int length) {
+		int[] movedMarks = bounds.remove(offset, length);
+		int[] movedBounds = new int[movedMarks.length / 2 * 3];
+		for (int i = 0, j = 0; i < movedMarks.length; i += 2, j += 3) {
+			movedBounds[j] = movedMarks[i];
+			movedBounds[j + 1] = movedMarks[i + 1];
+			movedBounds[j + 2] = generations[movedMarks[i] / 2];
+		}
+		return movedBounds;
+	}
+
+	/**
+	 * Возвращает на прежние места границы, схлопнутые удалением текста, и восстанавливает упорядоченность
+	 * {@link #order}. Схлопнутые начала стоят в смещении {@code offset}, а восстановленные лежат
+	 * в {@code (offset, offset + length]}, то есть до начал всех интервалов правее, поэтому
+	 * переупорядочиваются только интервалы, начинающиеся в {@code offset}. Дерево отрезков
+	 * обновляется только на путях от листьев интервалов, границы которых изменились.
+	 */
+	private void revertRemove(int offset, int length, int[] movedBounds) {
+		int first = lowerBound(offset);
+		int last = upperBound(offset);
+
+		bounds.insertAfter(offset, length);
+		int[] movedMarks = new int[movedBounds.length / 3 * 2];
+		int movedCount = 0;
+		for (int i = 0; i < movedBounds.length; i += 3) {
+			int mark = movedBounds[i];
+			// Номер мог быть освобожден и выдан другому интервалу после удаления текста
+			if (generations[mark / 2] == movedBounds[i + 2]) {
+				movedMarks[movedCount++] = mark;
+				movedMarks[movedCount++] = movedBounds[i + 1];
+			}
+		}
+		bounds.restore(Arrays.copyOf(movedMarks, movedCount));
+
+		for (int i = first + 1; i < last; i++) {
+			int slot = order[i];
+			int start = startOf(slot);
+			int j = i - 1;
+			while (j >= first && startOf(order[j]) > start) {
+				order[j + 1] = order[j];
+				j--;
+			}
+			order[j + 1] = slot;
+		}
+
+		if (treeDirty) {
+			return;
+		}
+		int capacity = treeCapacity;
+		for (int i = first; i < last; i++) {
+			updateLeaf(capacity, i);
+		}
+		for (int i = 0; i < movedCount; i += 2) {
+			int slot = movedMarks[i] / 2;
+			if (movedMarks[i] % 2 == 1 && codes[slot] != NO_MARKUP) {
+				int index = lowerBound(startOf(slot));
+				while (order[index] != slot) {
+					index++;
+				}
+				// Листья интервалов, начинающихся в offset, уже обновлены выше
+				if (index < first || index >= last) {
+					updateLeaf(capacity, index);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Записывает в лист дерева отрезков интервал из {@link #order} и пересчитывает предков листа.
+	 */
+	private void updateLeaf(int capacity, int index) {
+		int node = capacity + index;
+		maxEndTree[node] = order[index];
+		for (node >>= 1; node > 0; node >>= 1) {
+			maxEndTree[node] = maxEndSlot(maxEndTree[2 * node], maxEndTree[2 * node + 1]);
+		}
+	}
+
+	/**
+	 * Объединяет правку содержимого с правкой границ интервалов в одну запись истории отмены.
+	 */
+	private UndoableEdit combine(UndoableEdit contentEdit, UndoableEdit boundsEdit) {
+		CompoundEdit edit = new CompoundEdit();
+		edit.addEdit(contentEdit);
+		edit.addEdit(boundsEdit);
+		edit.end();
+		return edit;
+	}
+
+	/**
+	 * Номер интервала, общий для всех позиций его объектов {@link DocumentSection}.
+	 */
+	private static final class SlotHandle {
+		private final int slot;
+
+		private SlotHandle(int slot) {
+			this.slot = slot;
+		}
+	}
+
+	/**
+	 * Слабая ссылка на номер интервала, попадающая в очередь, когда объектов интервала не осталось.
+	 */
+	private static final class SlotReference extends WeakReference<SlotHandle> {
+		private final int slot;
+
+		private SlotReference(SlotHandle handle, ReferenceQueue<SlotHandle> queue) {
+			super(handle, queue);
+			slot = handle.slot;
+		}
+	}
+
+	/**
+	 * Позиция, смещение которой хранится в массивах хранилища.
+	 */
+	private final class SlotPosition implements Position {
+		private final SlotHandle handle;
+		private final boolean end;
+
+		private SlotPosition(SlotHandle handle, boolean end) {
+			this.handle = handle;
+			this.end = end;
+		}
+
+		@Override
+		public int getOffset() {
+			return end ? endOf(handle.slot) : startOf(handle.slot);
+		}
+
+		@Override
+		public String toString() {
+			return Integer.toString(getOffset());
+		}
+	}
+
+	/**
+	 * Содержимое документа, сдвигающее границы интервалов хранилища при изменениях текста. Текст хранится
+	 * в другом содержимом, которому передаются все операции. Отмена и повтор правки обращаются к нему
+	 * напрямую, а границы интервалов при этом восстанавливает запись сдвига.
+	 */
+	private final class TrackingContent implements AbstractDocument.Content {
+		private final AbstractDocument.Content baseContent;
+
+		private TrackingContent(AbstractDocument.Content baseContent) {
+			this.baseContent = baseContent;
+		}
+
+		@Override
+		public Position createPosition(int offset) throws BadLocationException {
+			return baseContent.createPosition(offset);
+		}
+
+		@Override
+		public int length() {
+			return baseContent.length();
+		}
+
+		@Override
+		public UndoableEdit insertString(int where, String str) throws BadLocationException {
+			UndoableEdit edit = baseContent.insertString(where, str);
+			if (str.isEmpty()) {
+				return edit;
+			}
+			applyInsert(where, str.length());
+			return combine(edit, new InsertShiftEdit(where, str.length()));
+		}
+
+		@Override
+		public UndoableEdit remove(int where, int nitems) throws BadLocationException {
+			UndoableEdit edit = baseContent.remove(where, nitems);
+			if (nitems == 0) {
+				return edit;
+			}
+			return combine(edit, new RemoveShiftEdit(where, nitems, applyRemove(where, nitems)));
+		}
+
+		@Override
+		public String getString(int where, int len) throws BadLocationException {
+			return baseContent.getString(where, len);
+		}
+
+		@Override
+		public void getChars(int where, int len, Segment txt) throws BadLocationException {
+			baseContent.getChars(where, len, txt);
+		}
+	}
+
+	/**
+	 * Сдвиг границ интервалов, вызванный вставкой текста. Отмена вставки сдвигает границы так же, как удаление
+	 * вставленного текста, а повтор восстанавливает их, в том числе у интервалов, созданных внутри вставленного
+	 * текста уже после вставки.
+	 */
+	@SuppressWarnings("SerializableNonStaticInnerClassWithoutSerialVersionUID")
+	private final class InsertShiftEdit extends AbstractUndoableEdit {
+		private final int offset;
+		private final int length;
+		private int[] movedBounds;
+
+		private InsertShiftEdit(int offset, int length) {
+			this.offset = offset;
+			this.length = length;
+		}
+
+		@Override
+		public void undo() throws CannotUndoException {
+			super.undo();
+			movedBounds = applyRemove(offset, length);
+		}
+
+		@Override
+		public void redo() throws CannotRedoException {
+			super.redo();
+			revertRemove(offset, length, movedBounds);
+		}
+	}
+
+	/**
+	 * Сдвиг границ интервалов, вызванный удалением текста.
+	 */
+	@SuppressWarnings("SerializableNonStaticInnerClassWithoutSerialVersionUID")
+	private final class RemoveShiftEdit extends AbstractUndoableEdit {
+		private final int offset;
+		private final int length;
+		private int[] movedBounds;
+
+		private RemoveShiftEdit(int offset, int length, int[] movedBounds) {
+			this.offset = offset;
+			this.length = length;
+			this.movedBounds = movedBounds;
+		}
+
+		@Override
+		public void undo() throws CannotUndoException {
+			super.undo();
+			revertRemove(offset, length, movedBounds);
+		}
+
+		@Override
+		public void redo() throws CannotRedoException {
+			super.redo();
+			movedBounds = applyRemove(offset, length);
+		}
+	}
+
+	/**
+	 * Неизменяемое представление разметки в виде {@link Map}. Записи создаются при обходе.
+	 */
+	private final class MarkupMap extends AbstractMap<DocumentSection, AData> {
+		@Override
+		public int size() {
+			return markedCount;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return key instanceof DocumentSection && contains((DocumentSection) key);
+		}
+
+		@Override
+		public AData get(Object key) {
+			return key instanceof DocumentSection ? CompactSectionStore.this.get((DocumentSection) key) : null;
+		}
+
+		@Override
+		public Set<Entry<DocumentSection, AData>> entrySet() {
+			return new AbstractSet<Entry<DocumentSection, AData>>() {
+				@Override
+				public int size() {
+					return markedCount;
+				}
+
+				@Override
+				public Iterator<Entry<DocumentSection, AData>> iterator() {
+					return new Iterator<Entry<DocumentSection, AData>>() {
+						private int nextSlot = findMarkedSlot(0);
+
+						@Override
+						public boolean hasNext() {
+							return nextSlot < slotCount;
+						}
+
+						@Override
+						public Entry<DocumentSection, AData> next() {
+							if (!hasNext()) {
+								throw new NoSuchElementException();
+							}
+							int slot = nextSlot;
+							nextSlot = findMarkedSlot(slot + 1);
+							return new SimpleImmutableEntry<DocumentSection, AData>(sectionFor(slot), dataFor(slot));
+						}
+
+						@Override
+						public void remove() {
+							throw new UnsupportedOperationException();
+						}
+					};
+				}
+			};
+		}
+
+		private int findMarkedSlot(int fromSlot) {
+			int slot = fromSlot;
+			while (slot < slotCount && codes[slot] == NO_MARKUP) {
+				slot++;
+			}
+			return slot;
+		}
+	}
+}
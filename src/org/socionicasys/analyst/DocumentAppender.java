@@ -0,0 +1,276 @@
+package org.socionicasys.analyst;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.socionicasys.analyst.model.AData;
+
+import javax.swing.*;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultStyledDocument.ElementSpec;
+import javax.swing.text.Element;
+import javax.swing.text.Segment;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Добавляет содержимое одного документа в другой по частям ограниченного размера. Каждая часть состоит
+ * из целых абзацев исходного документа и вставляется в документ вместе с пометками, которые в ней заканчиваются,
+ * поэтому в памяти одновременно находится копия только одной части текста.
+ *
+ * <p>При запуске через {@link #execute()} части готовятся в фоновом потоке и по одной вставляются в потоке
+ * обработки событий, так что интерфейс не блокируется. Ход добавления сообщается свойством {@code progress}.
+ * Добавление можно отменить вызовом {@link #cancel(boolean)}: уже вставленные части при этом удаляются.
+ * Все изменения документа образуют одну запись в истории отмены, а слушатели документа оповещаются
+ * один раз, по окончании добавления.</p>
+ *
+ * <p>Ни исходный документ, ни документ, в который добавляется содержимое, не должны меняться другими
+ * способами, пока идет добавление: части вставляются по смещениям, вычисленным при запуске, а отмена удаляет
+ * все изменения документа с начала добавления. Поэтому при запуске через {@link #execute()} вызывающий код
+ * должен запретить правку документа до окончания добавления (см. {@link DocumentLoadListener}).</p>
+ */
+public class DocumentAppender extends SwingWorker<Void, Void> {
+	/**
+	 * Длина текста, по достижении которой часть считается заполненной. Часть всегда содержит хотя бы
+	 * один абзац, поэтому может оказаться длиннее.
+	 */
+	static final int CHUNK_LENGTH = 64 * 1024;
+
+	/**
+	 * Документ, в который добавляется содержимое.
+	 */
+	private final ADocument document;
+
+	/**
+	 * Документ, содержимое которого добавляется.
+	 */
+	private final ADocument sourceDocument;
+
+	/**
+	 * Смещение в {@link #document}, по которому добавляется содержимое.
+	 */
+	private final int appendOffset;
+
+	/**
+	 * Номер первого абзаца исходного документа, еще не вошедшего ни в одну часть.
+	 */
+	private int nextParagraph;
+
+	/**
+	 * Смещение в исходном документе, с которого начинается следующая часть.
+	 */
+	private int nextChunkStart;
+
+	/**
+	 * Было ли начато добавление в документ. Используется только в потоке обработки событий.
+	 */
+	private boolean appendStarted;
+
+	/**
+	 * Было ли добавление завершено или отменено. Используется только в потоке обработки событий.
+	 */
+	private boolean appendClosed;
+
+	private static final Logger logger = LoggerFactory.getLogger(DocumentAppender.class);
+
+	/**
+	 * Создает объект, добавляющий содержимое одного документа в другой.
+	 *
+	 * @param document документ, в который добавляется содержимое
+	 * @param sourceDocument документ, содержимое которого нужно добавить
+	 * @param appendOffset смещение в {@code document}, по которому нужно вставить содержимое
+	 */
+	public DocumentAppender(ADocument document, ADocument sourceDocument, int appendOffset) {
+		this.document = document;
+		this.sourceDocument = sourceDocument;
+		this.appendOffset = appendOffset;
+		nextParagraph = 0;
+		nextChunkStart = 0;
+	}
+
+	/**
+	 * Добавляет содержимое в текущем потоке, не прерываясь.
+	 */
+	public void appendAll() {
+		logger.trace("appendAll(): entering");
+		beginAppend();
+		boolean completed = false;
+		try {
+			while (hasNextChunk()) {
+				appendChunk(nextChunk());
+			}
+			completed = true;
+		} finally {
+			closeAppend(completed);
+		}
+		logger.trace("appendAll(): leaving");
+	}
+
+	@Override
+	protected Void doInBackground() throws Exception {
+		logger.trace("doInBackground(): entering");
+		setProgress(0);
+		SwingUtilities.invokeAndWait(new Runnable() {
+			@Override
+			public void run() {
+				beginAppend();
+			}
+		});
+
+		int sourceLength = sourceDocument.getEndPosition().getOffset();
+		while (hasNextChunk() && !isCancelled()) {
+			final Chunk chunk = nextChunk();
+			SwingUtilities.invokeAndWait(new Runnable() {
+				@Override
+				public void run() {
+					appendChunk(chunk);
+				}
+			});
+			setProgress((int) (100L * nextChunkStart / sourceLength));
+		}
+		logger.trace("doInBackground(): leaving");
+		return null;
+	}
+
+	@Override
+	protected void done() {
+		logger.trace("done(): entering");
+		boolean completed = false;
+		if (!isCancelled()) {
+			try {
+				get();
+				completed = true;
+			} catch (InterruptedException e) {
+				logger.info("Document appending interrupted", e);
+			} catch (ExecutionException e) {
+				logger.error("Error while appending document", e.getCause());
+			}
+		}
+		closeAppend(completed);
+		logger.trace("done(): leaving");
+	}
+
+	private void beginAppend() {
+		if (appendClosed) {
+			return;
+		}
+		document.beginAppend();
+		appendStarted = true;
+	}
+
+	private void appendChunk(Chunk chunk) {
+		// После отмены фоновый поток может успеть подготовить еще одну часть
+		if (!appendStarted || appendClosed) {
+			return;
+		}
+		document.appendChunk(chunk.insertOffset, chunk.specs, chunk.sections);
+	}
+
+	/**
+	 * Завершает добавление: при успехе объединяет свойства документов, иначе удаляет вставленные части.
+	 *
+	 * @param completed было ли добавлено все содержимое
+	 */
+	private void closeAppend(boolean completed) {
+		if (appendClosed) {
+			return;
+		}
+		appendClosed = true;
+		if (!appendStarted) {
+			return;
+		}
+		if (completed) {
+			document.finishAppend(sourceDocument);
+		} else {
+			document.cancelAppend();
+		}
+	}
+
+	private boolean hasNextChunk() {
+		return nextParagraph < sourceDocument.getDefaultRootElement().getElementCount();
+	}
+
+	/**
+	 * Готовит следующую часть исходного документа: описания ее абзацев и пометки, которые в ней заканчиваются.
+	 *
+	 * @return следующая часть
+	 */
+	private Chunk nextChunk() {
+		Element root = sourceDocument.getDefaultRootElement();
+		List<ElementSpec> specs = new ArrayList<ElementSpec>();
+		specs.add(new ElementSpec(ADocument.DEFAULT_STYLE, ElementSpec.EndTagType));
+		int chunkStart = nextChunkStart;
+		int chunkEnd = chunkStart;
+		Segment segment = new Segment();
+		while (nextParagraph < root.getElementCount() && chunkEnd - chunkStart < CHUNK_LENGTH) {
+			Element paragraph = root.getElement(nextParagraph);
+			addParagraphSpecs(paragraph, specs, segment);
+			chunkEnd = paragraph.getEndOffset();
+			nextParagraph++;
+		}
+		nextChunkStart = chunkEnd;
+		boolean lastChunk = nextParagraph == root.getElementCount();
+
+		// Часть забирает пометки, которые заканчиваются в ней: к моменту ее вставки текст пометки уже в документе.
+		// Пометка, заканчивающаяся на границе частей, достается следующей части, иначе вставка следующей части
+		// передвинула бы ее конец.
+		Collection<DocumentSection> candidates = new ArrayList<DocumentSection>();
+		sourceDocument.collectSections(chunkStart, chunkEnd, candidates);
+		Map<FixedDocumentSection, AData> sections = new HashMap<FixedDocumentSection, AData>();
+		for (DocumentSection section : candidates) {
+			int sectionEnd = section.getEndOffset();
+			if (sectionEnd >= chunkStart && (sectionEnd < chunkEnd || lastChunk)) {
+				sections.put(new FixedDocumentSection(appendOffset + section.getStartOffset(),
+						appendOffset + sectionEnd), sourceDocument.getAData(section));
+			}
+		}
+
+		ElementSpec[] specArray = new ElementSpec[specs.size()];
+		specs.toArray(specArray);
+		return new Chunk(appendOffset + chunkStart, specArray, sections);
+	}
+
+	/**
+	 * Добавляет в список описания абзаца и всех его листовых элементов.
+	 *
+	 * @param paragraph абзац исходного документа
+	 * @param specs список, в который будут добавлены описания элементов
+	 * @param segment буфер для чтения текста
+	 */
+	private void addParagraphSpecs(Element paragraph, List<ElementSpec> specs, Segment segment) {
+		specs.add(new ElementSpec(paragraph.getAttributes(), ElementSpec.StartTagType));
+		for (int i = 0; i < paragraph.getElementCount(); i++) {
+			Element element = paragraph.getElement(i);
+			int elementStart = element.getStartOffset();
+			int elementLength = element.getEndOffset() - elementStart;
+			try {
+				sourceDocument.getText(elementStart, elementLength, segment);
+				char[] elementText = new char[elementLength];
+				System.arraycopy(segment.array, segment.offset, elementText, 0, elementLength);
+				specs.add(new ElementSpec(element.getAttributes(), ElementSpec.ContentType,
+						elementText, 0, elementLength));
+			} catch (BadLocationException e) {
+				logger.error("Error while traversing document", e);
+			}
+		}
+		specs.add(new ElementSpec(paragraph.getAttributes(), ElementSpec.EndTagType));
+	}
+
+	/**
+	 * Часть исходного документа, готовая к вставке.
+	 */
+	private static final class Chunk {
+		private final int insertOffset;
+		private final ElementSpec[] specs;
+		private final Map<FixedDocumentSection, AData> sections;
+
+		private Chunk(int insertOffset, ElementSpec[] specs, Map<FixedDocumentSection, AData> sections) {
+			this.insertOffset = insertOffset;
+			this.specs = specs;
+			this.sections = sections;
+		}
+	}
+}
@@ -1,18 +1,55 @@
 package org.socionicasys.analyst;
 
+import javax.swing.*;
 import javax.swing.event.UndoableEditEvent;
 import javax.swing.event.UndoableEditListener;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 
 /**
  * Класс-обертка для документа, позволяющая менять документ на новый, не регистрируя заново
  * всех слушателей событий, связанных с документом.
+ *
+ * <p>Оповещения об изменениях документа не передаются слушателям сразу: контейнер запоминает изменения
+ * и не чаще раза в {@link #NOTIFICATION_DELAY} мс передает слушателям одно оповещение со всеми
+ * изменениями, накопленными к этому моменту. Так при наборе текста и многократной отмене слушатели
+ * не перестраивают свое состояние после каждого отдельного изменения.</p>
  */
-public final class DocumentHolder extends GenericModelHolder<ADocument> implements ADocumentChangeListener, UndoableEditListener {
+public final class DocumentHolder extends GenericModelHolder<ADocument> implements ADocumentChangeListener,
+		ADocumentDeltaListener, UndoableEditListener {
+	/**
+	 * Минимальный интервал между оповещениями слушателей в миллисекундах, примерно один кадр.
+	 */
+	static final int NOTIFICATION_DELAY = 1000 / 60;
+
+	/**
+	 * Таймер, по которому слушатели получают накопленные изменения.
+	 */
+	private final Timer notificationTimer;
+
+	/**
+	 * Изменения хранимого документа, о которых еще не оповещены слушатели.
+	 */
+	private final ADocumentChangeEvent.Builder pendingChanges;
+
+	/**
+	 * Нужно ли оповестить слушателей {@link ADocumentChangeListener}.
+	 */
+	private boolean changePending;
+
 	/**
 	 * Создает контейнер и инициализирует его заданным документом.
 	 * @param model хранимый в контейнере документ
 	 */
 	public DocumentHolder(ADocument model) {
+		pendingChanges = new ADocumentChangeEvent.Builder();
+		notificationTimer = new Timer(NOTIFICATION_DELAY, new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				flushNotifications();
+			}
+		});
+		notificationTimer.setRepeats(false);
 		setModel(model);
 	}
 
@@ -23,12 +60,20 @@ public final class DocumentHolder extends GenericModelHolder<ADocument> implemen
 		}
 		if (this.model != null) {
 			this.model.removeADocumentChangeListener(this);
+			this.model.removeADocumentDeltaListener(this);
 			this.model.removeUndoableEditListener(this);
 		}
 		super.setModel(model);
 		this.model.addADocumentChangeListener(this);
+		this.model.addADocumentDeltaListener(this);
 		this.model.addUndoableEditListener(this);
+
+		// Изменения прежнего документа больше не нужны: слушатели заново прочитают новый документ
+		notificationTimer.stop();
+		pendingChanges.clear();
+		changePending = false;
 		fireDocumentChanged();
+		fireDocumentDeltaChanged(ADocumentChangeEvent.createFullRefresh(this.model));
 	}
 
 	/**
@@ -38,7 +83,8 @@ public final class DocumentHolder extends GenericModelHolder<ADocument> implemen
 	@Override
 	public void aDocumentChanged(ADocument document) {
 		assert document == model : "aDocumentChanged event from unknown document";
-		fireDocumentChanged();
+		changePending = true;
+		scheduleNotifications();
 	}
 
 	/**
@@ -67,6 +113,69 @@ public final class DocumentHolder extends GenericModelHolder<ADocument> implemen
 		}
 	}
 
+	/**
+	 * Вызывается, когда в хранимом ADocument изменяются пометки или текст.
+	 * @param event описание изменений
+	 */
+	@Override
+	public void aDocumentChanged(ADocumentChangeEvent event) {
+		assert event.getDocument() == model : "aDocumentChanged event from unknown document";
+		pendingChanges.add(event);
+		scheduleNotifications();
+	}
+
+	/**
+	 * Запускает таймер оповещения, если он еще не запущен. Изменения, произошедшие до его срабатывания,
+	 * войдут в то же оповещение.
+	 */
+	private void scheduleNotifications() {
+		if (!notificationTimer.isRunning()) {
+			notificationTimer.start();
+		}
+	}
+
+	/**
+	 * Немедленно оповещает слушателей об изменениях, накопленных с предыдущего оповещения.
+	 */
+	public void flushNotifications() {
+		notificationTimer.stop();
+		if (changePending) {
+			changePending = false;
+			fireDocumentChanged();
+		}
+		if (!pendingChanges.isEmpty()) {
+			fireDocumentDeltaChanged(pendingChanges.build(model));
+		}
+	}
+
+	/**
+	 * Добавляет слушателя для событий с описанием изменений документа. Эти события транслируются
+	 * от экземпляра ADocument, хранимого в контейнере. При смене документа слушатель получает
+	 * событие полного обновления.
+	 * @param listener слушатель
+	 */
+	public void addADocumentDeltaListener(ADocumentDeltaListener listener) {
+		listenerList.add(ADocumentDeltaListener.class, listener);
+	}
+
+	/**
+	 * Удаляет слушателя для событий с описанием изменений документа.
+	 * @param listener слушатель
+	 */
+	public void removeADocumentDeltaListener(ADocumentDeltaListener listener) {
+		listenerList.remove(ADocumentDeltaListener.class, listener);
+	}
+
+	/**
+	 * Оповещает слушателей об изменениях в хранимом документе ADocument.
+	 * @param event описание изменений
+	 */
+	private void fireDocumentDeltaChanged(ADocumentChangeEvent event) {
+		for (ADocumentDeltaListener listener : listenerList.getListeners(ADocumentDeltaListener.class)) {
+			listener.aDocumentChanged(event);
+		}
+	}
+
 	@Override
 	public void undoableEditHappened(UndoableEditEvent e) {
 		fireUndoableEditUpdate(e);
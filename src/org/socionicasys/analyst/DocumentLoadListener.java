@@ -4,6 +4,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.swing.*;
+import java.awt.*;
 import java.util.concurrent.ExecutionException;
 
 /**
@@ -24,6 +25,11 @@ public final class DocumentLoadListener extends SwingWorkerDoneListener<LegacyHt
 	 * Контейнер с документом, в который нужно поместить новый после окончания загрузки.
 	 */
 	private final DocumentHolder documentHolder;
+
+	/**
+	 * Окно, над которым показывается ход добавления документа. На время добавления окно отключается.
+	 */
+	private final Frame parent;
 	
 	private static final Logger logger = LoggerFactory.getLogger(DocumentLoadListener.class);
 
@@ -34,10 +40,12 @@ public final class DocumentLoadListener extends SwingWorkerDoneListener<LegacyHt
 	 * @param documentHolder container for the loaded document
 	 * @param append Whether to add a new document to the end of an existing document instead of replacing it entirely
 	 * @param appendOffset The offset at which to add text to an existing document
+	 * @param parent The window over which the appending progress is shown
 	 */
 
-	public DocumentLoadListener(DocumentHolder documentHolder, boolean append, int appendOffset) {
+	public DocumentLoadListener(DocumentHolder documentHolder, boolean append, int appendOffset, Frame parent) {
 		this.documentHolder = documentHolder;
+		this.parent = parent;
 		this.append = append;
 		this.appendOffset = appendOffset;
 	}
@@ -47,7 +55,20 @@ public final class DocumentLoadListener extends SwingWorkerDoneListener<LegacyHt
 		try {
 			ADocument document = worker.get();
 			if (append) {
-				documentHolder.getModel().appendDocument(document, appendOffset);
+				DocumentAppender appender = new DocumentAppender(documentHolder.getModel(), document, appendOffset);
+				appender.addPropertyChangeListener(new ProgressWindow(parent, "    Appending file...   ", appender));
+				// Пока идет добавление, документ нельзя править: части вставляются по заранее вычисленным смещениям,
+				// а отмена добавления удалила бы и правки пользователя. Окно отключается сразу, до вставки первой
+				// части, и включается по окончании добавления; окно хода добавления при этом остается доступным.
+				parent.setEnabled(false);
+				appender.addPropertyChangeListener(new SwingWorkerDoneListener<DocumentAppender>() {
+					@Override
+					protected void swingWorkerDone(DocumentAppender worker) {
+						parent.setEnabled(true);
+						parent.toFront();
+					}
+				});
+				appender.execute();
 			} else {
 				documentHolder.setModel(document);
 			}
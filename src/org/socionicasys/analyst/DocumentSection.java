@@ -1,7 +1,5 @@
 package org.socionicasys.analyst;
 
-import org.socionicasys.analyst.util.HashUtil;
-
 import javax.swing.text.BadLocationException;
 import javax.swing.text.Document;
 import javax.swing.text.Position;
@@ -10,6 +8,10 @@ import javax.swing.text.Position;
  * Представляет собой интервал в документе и стиль выделения этого интервала.
  * Автоматически отслеживает изменения в документе и корректирует положение
  * своей начальной и конечной позиции.
+ *
+ * <p>Интервал идентифицируется целочисленным номером, который выдается документом при создании
+ * интервала ({@link ADocument#createSection(int, int)}) и не меняется при правках текста.
+ * Сравнение интервалов на равенство и хеш-код зависят только от этого номера.</p>
  */
 public class DocumentSection implements Comparable<DocumentSection> {
 	/**
@@ -20,7 +22,12 @@ public class DocumentSection implements Comparable<DocumentSection> {
 	/**
 	 * Позиция конца интервала. Привязана к документу.
 	 */
-	private final Position end;
+	private Position end;
+
+	/**
+	 * Номер интервала, уникальный в пределах документа.
+	 */
+	private final int id;
 
 	/**
 	 * Создает интервал внутри документа.
@@ -28,12 +35,34 @@ public class DocumentSection implements Comparable<DocumentSection> {
 	 * @param sourceDocument документ, в котором нужно создать интервал
 	 * @param startOffset начальное смещение интервала
 	 * @param endOffset конечное смещение интервала
+	 * @param id номер интервала, уникальный в пределах документа
 	 * @throws BadLocationException когда начальное/конечное смещения находятся вне границ документа
 	 */
-	public DocumentSection(Document sourceDocument, int startOffset, int endOffset)
+	DocumentSection(Document sourceDocument, int startOffset, int endOffset, int id)
 			throws BadLocationException {
 		start = sourceDocument.createPosition(Math.min(startOffset, endOffset));
 		end = sourceDocument.createPosition(Math.max(startOffset, endOffset));
+		this.id = id;
+	}
+
+	/**
+	 * Создает интервал с заданными позициями границ.
+	 *
+	 * @param start позиция начала интервала
+	 * @param end позиция конца интервала
+	 * @param id номер интервала, уникальный в пределах документа
+	 */
+	DocumentSection(Position start, Position end, int id) {
+		this.start = start;
+		this.end = end;
+		this.id = id;
+	}
+
+	/**
+	 * @return номер интервала, уникальный в пределах документа
+	 */
+	public int getId() {
+		return id;
 	}
 
 	/**
@@ -56,6 +85,15 @@ public class DocumentSection implements Comparable<DocumentSection> {
 		return end.getOffset();
 	}
 
+	/**
+	 * Переносит конец интервала в новую позицию документа, сохраняя идентичность интервала.
+	 *
+	 * @param newEnd новая позиция конца интервала
+	 */
+	void setEnd(Position newEnd) {
+		end = newEnd;
+	}
+
 	/**
 	 * @return текущее смещение средины интервала в документе
 	 */
@@ -90,25 +128,25 @@ public class DocumentSection implements Comparable<DocumentSection> {
 			return false;
 		}
 		DocumentSection otherSection = (DocumentSection) obj;
-		return getStartOffset() == otherSection.getStartOffset()
-				&& getEndOffset() == otherSection.getEndOffset();
+		return id == otherSection.id;
 	}
 
 	@Override
 	public int hashCode() {
-		HashUtil hashUtil = new HashUtil();
-		hashUtil.hash(start);
-		hashUtil.hash(end);
-		return hashUtil.getComputedHash();
+		return id;
 	}
 
 	@Override
 	public int compareTo(DocumentSection o) {
-		return getStartOffset() - o.getStartOffset();
+		int startDifference = getStartOffset() - o.getStartOffset();
+		if (startDifference != 0) {
+			return startDifference;
+		}
+		return id < o.id ? -1 : (id == o.id ? 0 : 1);
 	}
 
 	@Override
 	public String toString() {
-		return String.format("DocumentSection{start=%s, end=%s}", start, end);
+		return String.format("DocumentSection{id=%d, start=%s, end=%s}", id, start, end);
 	}
 }
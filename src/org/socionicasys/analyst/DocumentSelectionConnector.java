@@ -57,19 +57,25 @@ public class DocumentSelectionConnector implements PropertyChangeListener, Caret
 			return;
 		}
 
-		DocumentSection currentSection =
-				getCurrentSection(selectionModel.getStartOffset(), selectionModel.getEndOffset());
-		if (currentSection == null) {
+		int startOffset = selectionModel.getStartOffset();
+		int endOffset = selectionModel.getEndOffset();
+		if (startOffset == endOffset) {
 			return;
 		}
 
 		ADocument document = textPane.getDocument();
+		DocumentSection currentSection = document.getSection(startOffset, endOffset);
 		AData newMarkup = selectionModel.getMarkupData();
-		AData oldMarkup = document.getAData(currentSection);
+		AData oldMarkup = currentSection == null ? null : document.getAData(currentSection);
 		if (oldMarkup == null) {
 			if (newMarkup != null) {
 				// Новая отметка в документе
-				document.addSection(currentSection, newMarkup);
+				try {
+					document.addSection(document.createSection(startOffset, endOffset), newMarkup);
+				} catch (BadLocationException e) {
+					logger.error("Invalid document positions: {}, {}", startOffset, endOffset);
+					logger.error("Exception thrown: ", e);
+				}
 			}
 		} else if (newMarkup == null) {
 			// Удаление старой отметки
@@ -98,11 +104,12 @@ public class DocumentSelectionConnector implements PropertyChangeListener, Caret
 		selectionModel.setStartOffset(startOffset);
 		selectionModel.setEndOffset(endOffset);
 
-		DocumentSection currentSection = getCurrentSection(startOffset, endOffset);
+		ADocument document = textPane.getDocument();
+		DocumentSection currentSection = startOffset == endOffset ? null :
+				document.getSection(startOffset, endOffset);
 		if (currentSection == null) {
 			selectionModel.setMarkupData(null);
 		} else {
-			ADocument document = textPane.getDocument();
 			AData currentMarkupData = document.getAData(currentSection);
 			selectionModel.setMarkupData(currentMarkupData);
 		}
@@ -110,29 +117,6 @@ public class DocumentSelectionConnector implements PropertyChangeListener, Caret
 		selectionModel.setInitialized(true);
 	}
 
-	/**
-	 * Возвращает интервал в документе, выделенный в данный момент курсором,
-	 * {@code null} если в документе сейчас нет активного выделения.
-	 *
-	 * @param startOffset позиция начала выделения
-	 * @param endOffset позиция конца выделения
-	 * @return выделенный в документе интервал
-	 */
-	private DocumentSection getCurrentSection(int startOffset, int endOffset) {
-		if (startOffset == endOffset) {
-			return null;
-		}
-		
-		ADocument document = textPane.getDocument();
-		try {
-			return new DocumentSection(document, startOffset, endOffset);
-		} catch (BadLocationException e) {
-			logger.error("Invalid document positions: {}, {}", startOffset, endOffset);
-			logger.error("Exception thrown: ", e);
-			return null;
-		}
-	}
-
 	@Override
 	public void valueChanged(TreeSelectionEvent e) {
 		logger.trace("valueChanged({}): entering", e);
@@ -154,16 +138,24 @@ public class DocumentSelectionConnector implements PropertyChangeListener, Caret
 		EndNodeObject endNodeObject = (EndNodeObject) leafObject;
 		int index = endNodeObject.getOffset();
 		logger.trace("Leaf object {} initiated navigation to offset {}", endNodeObject, index);
+		selectSectionAt(index);
+		logger.trace("valueChanged({}): leaving", e);
+	}
 
+	/**
+	 * Выделяет в текстовом поле интервал, начинающийся с заданного смещения.
+	 *
+	 * @param offset смещение начала интервала
+	 */
+	public void selectSectionAt(int offset) {
 		ADocument document = textPane.getDocument();
-		DocumentSection currentDocumentSection = document.getSectionThatStartsAt(index);
+		DocumentSection currentDocumentSection = document.getSectionThatStartsAt(offset);
 		if (currentDocumentSection == null) {
-			logger.warn("No section at offset {}, but it was supposed to be there, skipping navigation", index);
+			logger.warn("No section at offset {}, but it was supposed to be there, skipping navigation", offset);
 		} else {
 			Caret caret = textPane.getCaret();
 			caret.setDot(currentDocumentSection.getStartOffset());
 			caret.moveDot(currentDocumentSection.getEndOffset());
 		}
-		logger.trace("valueChanged({}): leaving", e);
 	}
 }
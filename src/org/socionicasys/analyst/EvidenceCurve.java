@@ -0,0 +1,537 @@
+package org.socionicasys.analyst;
+
+import org.socionicasys.analyst.ADocumentChangeEvent.TextShift;
+import org.socionicasys.analyst.types.Sociotype;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Накопленные счетчики (не)совпадений с ТИМами вдоль документа: сколько совпадений и несовпадений дают
+ * первые k пометок в порядке их начала в тексте.
+ *
+ * <p>Пометки хранятся в вершинах декартова дерева (treap) в порядке начала; каждая вершина хранит число пометок
+ * и счетчики (не)совпадений своего поддерева. Добавление и удаление пометки меняют ожидаемо O(log n) вершин,
+ * изменение масок пометки пересчитывает счетчики на пути от ее вершины к корню, а накопленные счетчики
+ * до k-й пометки находятся одним спуском по дереву. Каждая из этих операций обходится в ожидаемые
+ * O(log n) шагов по 16 ТИМам, независимо от того, в каком порядке добавляются пометки, поэтому кривая
+ * строится без обхода документа.</p>
+ *
+ * <p>Порядок пометок вычисляется по смещениям их начала при вставке. Удаление текста этот порядок не нарушает,
+ * а вставка может разделить пометки, начала которых совпадали (например, при отмене удаления). Такие пометки
+ * оказываются внутри вставленного фрагмента, и {@link #textShifted(List)} переупорядочивает только их.
+ * Поскольку между изменением текста и переупорядочиванием порядок пометок в дереве может расходиться
+ * с их смещениями, вершина пометки находится по отображению, а не поиском по дереву.</p>
+ */
+public class EvidenceCurve {
+	private static final int SOCIOTYPE_COUNT = Sociotype.values().length;
+
+	/**
+	 * Начальное число вершин в массивах дерева.
+	 */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/**
+	 * Номер отсутствующей вершины. Вершина 0 не используется, и все ее счетчики нулевые.
+	 */
+	private static final int NIL = 0;
+
+	private final Random random;
+
+	/**
+	 * Пометка, ее упакованные маски соответствия и приоритет в каждой вершине.
+	 */
+	private DocumentSection[] nodeSections;
+	private int[] nodeClassifications;
+	private int[] priorities;
+
+	/**
+	 * Связи вершин дерева. В освобожденных вершинах {@link #right} указывает на следующую свободную вершину.
+	 */
+	private int[] left;
+	private int[] right;
+	private int[] parent;
+
+	/**
+	 * Число пометок и, по {@code вершина * 16 + ТИМ}, числа совпадений и несовпадений в поддереве каждой вершины.
+	 */
+	private int[] markCounts;
+	private int[] matchCounts;
+	private int[] missCounts;
+
+	private int root;
+
+	/**
+	 * Число вершин, когда-либо выданных из массивов, и первая освобожденная вершина.
+	 */
+	private int usedNodes;
+	private int freeNode;
+
+	/**
+	 * Вершины, занятые пометками.
+	 */
+	private final Map<DocumentSection, Integer> nodes;
+
+	public EvidenceCurve() {
+		random = new Random();
+		nodes = new HashMap<DocumentSection, Integer>();
+		allocate(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * @return число пометок, учтенных в кривой
+	 */
+	public int getMarkCount() {
+		return nodes.size();
+	}
+
+	/**
+	 * Вычисляет счетчики (не)совпадений по первым пометкам документа.
+	 *
+	 * @param markCount число первых пометок, от 0 до {@link #getMarkCount()}
+	 * @param matchCounts куда записать числа совпадений, по {@link Sociotype#ordinal()}
+	 * @param missCounts куда записать числа несовпадений, по {@link Sociotype#ordinal()}
+	 */
+	public void getCounts(int markCount, int[] matchCounts, int[] missCounts) {
+		Arrays.fill(matchCounts, 0);
+		Arrays.fill(missCounts, 0);
+		int node = root;
+		int remaining = markCount;
+		while (node != NIL && remaining > 0) {
+			int leftNode = left[node];
+			if (markCounts[leftNode] >= remaining) {
+				node = leftNode;
+				continue;
+			}
+			// Левое поддерево и сама вершина целиком входят в первые пометки
+			int offset = leftNode * SOCIOTYPE_COUNT;
+			for (int index = 0; index < SOCIOTYPE_COUNT; index++) {
+				matchCounts[index] += this.matchCounts[offset + index];
+				missCounts[index] += this.missCounts[offset + index];
+			}
+			int accordMask = nodeClassifications[node] & 0xFFFF;
+			int discordMask = nodeClassifications[node] >>> 16;
+			for (int mask = accordMask; mask != 0; mask &= mask - 1) {
+				matchCounts[Integer.numberOfTrailingZeros(mask)]++;
+			}
+			for (int mask = discordMask; mask != 0; mask &= mask - 1) {
+				missCounts[Integer.numberOfTrailingZeros(mask)]++;
+			}
+			remaining -= markCounts[leftNode] + 1;
+			node = right[node];
+		}
+	}
+
+	/**
+	 * Вычисляет нормализованные коеффициенты соответствия, которые показала бы гистограмма,
+	 * если бы документ заканчивался на заданной пометке.
+	 *
+	 * @param markCount число первых пометок, от 0 до {@link #getMarkCount()}
+	 * @param coefficients куда записать коеффициенты, по {@link Sociotype#ordinal()}
+	 */
+	public void getCoefficients(int markCount, float[] coefficients) {
+		int[] matchCounts = new int[SOCIOTYPE_COUNT];
+		int[] missCounts = new int[SOCIOTYPE_COUNT];
+		getCounts(markCount, matchCounts, missCounts);
+
+		float maxCoefficient = 0f;
+		for (int index = 0; index < SOCIOTYPE_COUNT; index++) {
+			coefficients[index] = MatchMissItem.getRawCoefficient(matchCounts[index], missCounts[index]);
+			if (maxCoefficient < coefficients[index]) {
+				maxCoefficient = coefficients[index];
+			}
+		}
+		// При нулевом максимуме все коеффициенты нулевые при любом масштабе
+		float scale = maxCoefficient == 0f ? 1f : MatchMissModel.getScale(maxCoefficient);
+		for (int index = 0; index < SOCIOTYPE_COUNT; index++) {
+			coefficients[index] = MatchMissItem.getScaledCoefficient(coefficients[index], scale);
+		}
+	}
+
+	/**
+	 * Удаляет все пометки.
+	 */
+	void clear() {
+		nodes.clear();
+		allocate(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Заново строит кривую по заданным пометкам за линейное время.
+	 *
+	 * @param classifications пометки и их упакованные маски соответствия
+	 */
+	void reset(Map<DocumentSection, Integer> classifications) {
+		List<DocumentSection> sections = new ArrayList<DocumentSection>(classifications.keySet());
+		Collections.sort(sections);
+		nodes.clear();
+		allocate(Math.max(INITIAL_CAPACITY, sections.size() + 1));
+
+		// Дерево строится по пометкам в порядке начала: правая граница дерева хранится в стеке,
+		// и каждая новая вершина становится правым потомком последней вершины стека с большим приоритетом
+		int[] rightSpine = new int[sections.size()];
+		int spineLength = 0;
+		for (DocumentSection section : sections) {
+			int node = newNode(section, classifications.get(section));
+			int lastPopped = NIL;
+			while (spineLength > 0 && priorities[rightSpine[spineLength - 1]] < priorities[node]) {
+				lastPopped = rightSpine[--spineLength];
+			}
+			setLeft(node, lastPopped);
+			if (spineLength > 0) {
+				setRight(rightSpine[spineLength - 1], node);
+			}
+			rightSpine[spineLength++] = node;
+		}
+		root = spineLength > 0 ? rightSpine[0] : NIL;
+		parent[root] = NIL;
+
+		updateSubtree(root);
+	}
+
+	/**
+	 * Добавляет пометку в кривую.
+	 *
+	 * @param section интервал пометки, еще не добавленный в кривую
+	 * @param classification упакованные маски соответствия пометки
+	 */
+	void add(DocumentSection section, int classification) {
+		int node = newNode(section, classification);
+		if (root == NIL) {
+			root = node;
+			parent[node] = NIL;
+			return;
+		}
+
+		// Новая вершина становится листом на месте, соответствующем началу пометки
+		int current = root;
+		while (true) {
+			if (nodeSections[current].compareTo(section) < 0) {
+				if (right[current] == NIL) {
+					setRight(current, node);
+					break;
+				}
+				current = right[current];
+			} else {
+				if (left[current] == NIL) {
+					setLeft(current, node);
+					break;
+				}
+				current = left[current];
+			}
+		}
+		updatePath(current);
+		while (parent[node] != NIL && priorities[parent[node]] < priorities[node]) {
+			rotateUp(node);
+		}
+	}
+
+	/**
+	 * Заменяет маски соответствия пометки, не меняя ее места в кривой.
+	 *
+	 * @param section интервал пометки, уже добавленный в кривую
+	 * @param classification новые упакованные маски соответствия пометки
+	 */
+	void update(DocumentSection section, int classification) {
+		int node = nodes.get(section);
+		nodeClassifications[node] = classification;
+		updatePath(node);
+	}
+
+	/**
+	 * Восстанавливает порядок пометок после сдвигов текста.
+	 *
+	 * @param textShifts сдвиги текста в порядке, в котором они происходили
+	 */
+	void textShifted(List<TextShift> textShifts) {
+		for (int i = 0; i < textShifts.size(); i++) {
+			TextShift textShift = textShifts.get(i);
+			if (textShift.getLength() <= 0) {
+				continue;
+			}
+			// Пометки, которые эта вставка могла разделить, и их начала после последующих сдвигов
+			int low = textShift.getOffset();
+			int high = textShift.getOffset() + textShift.getLength();
+			for (TextShift laterShift : textShifts.subList(i + 1, textShifts.size())) {
+				low = mapOffset(low, laterShift, false);
+				high = mapOffset(high, laterShift, true);
+			}
+			sortRange(low, high);
+		}
+	}
+
+	/**
+	 * Переносит смещение через сдвиг текста с запасом в заданную сторону.
+	 *
+	 * @param offset смещение до сдвига
+	 * @param textShift сдвиг текста
+	 * @param upper если {@code true}, смещение в точке вставки сдвигается вместе с текстом
+	 * @return смещение после сдвига
+	 */
+	private static int mapOffset(int offset, TextShift textShift, boolean upper) {
+		int shiftOffset = textShift.getOffset();
+		int length = textShift.getLength();
+		if (offset < shiftOffset || offset == shiftOffset && !(upper && length > 0)) {
+			return offset;
+		}
+		if (length > 0) {
+			return offset + length;
+		}
+		return Math.max(shiftOffset, offset + length);
+	}
+
+	/**
+	 * Упорядочивает пометки, начинающиеся в заданном диапазоне смещений, не меняя занятых ими вершин.
+	 */
+	private void sortRange(int low, int high) {
+		int first = countStartsBefore(low);
+		int last = countStartsBefore(high + 1);
+		if (last - first < 2) {
+			return;
+		}
+
+		int[] rangeNodes = new int[last - first];
+		List<DocumentSection> sections = new ArrayList<DocumentSection>(rangeNodes.length);
+		for (int i = 0; i < rangeNodes.length; i++) {
+			rangeNodes[i] = findNode(first + i + 1);
+			sections.add(nodeSections[rangeNodes[i]]);
+		}
+		Collections.sort(sections);
+
+		int[] sectionClassifications = new int[rangeNodes.length];
+		for (int i = 0; i < rangeNodes.length; i++) {
+			sectionClassifications[i] = nodeClassifications[nodes.get(sections.get(i))];
+		}
+		for (int i = 0; i < rangeNodes.length; i++) {
+			int node = rangeNodes[i];
+			DocumentSection section = sections.get(i);
+			if (nodeSections[node] != section) {
+				nodes.put(section, node);
+				nodeSections[node] = section;
+				nodeClassifications[node] = sectionClassifications[i];
+				updatePath(node);
+			}
+		}
+	}
+
+	/**
+	 * @param offset смещение в документе
+	 * @return число пометок, начинающихся раньше заданного смещения
+	 */
+	private int countStartsBefore(int offset) {
+		int count = 0;
+		int node = root;
+		while (node != NIL) {
+			if (nodeSections[node].getStartOffset() < offset) {
+				count += markCounts[left[node]] + 1;
+				node = right[node];
+			} else {
+				node = left[node];
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Удаляет пометку из кривой.
+	 *
+	 * @param section интервал пометки
+	 */
+	void remove(DocumentSection section) {
+		Integer boxedNode = nodes.remove(section);
+		if (boxedNode == null) {
+			return;
+		}
+		int node = boxedNode;
+
+		// Вершина опускается поворотами до листа и отрезается
+		while (left[node] != NIL || right[node] != NIL) {
+			int child = right[node] == NIL || left[node] != NIL && priorities[left[node]] > priorities[right[node]]
+					? left[node] : right[node];
+			rotateUp(child);
+		}
+		int parentNode = parent[node];
+		if (parentNode == NIL) {
+			root = NIL;
+		} else {
+			if (left[parentNode] == node) {
+				left[parentNode] = NIL;
+			} else {
+				right[parentNode] = NIL;
+			}
+			updatePath(parentNode);
+		}
+		freeNode(node);
+	}
+
+	/**
+	 * Находит вершину k-й по порядку пометки спуском по дереву.
+	 *
+	 * @param markNumber номер пометки, от 1 до {@link #getMarkCount()}
+	 * @return вершина пометки
+	 */
+	private int findNode(int markNumber) {
+		int node = root;
+		int remaining = markNumber;
+		while (true) {
+			int leftCount = markCounts[left[node]];
+			if (remaining <= leftCount) {
+				node = left[node];
+			} else if (remaining == leftCount + 1) {
+				return node;
+			} else {
+				remaining -= leftCount + 1;
+				node = right[node];
+			}
+		}
+	}
+
+	/**
+	 * Поворачивает дерево так, чтобы вершина заняла место своего родителя.
+	 */
+	private void rotateUp(int node) {
+		int parentNode = parent[node];
+		int grandparent = parent[parentNode];
+		if (left[parentNode] == node) {
+			setLeft(parentNode, right[node]);
+			setRight(node, parentNode);
+		} else {
+			setRight(parentNode, left[node]);
+			setLeft(node, parentNode);
+		}
+		if (grandparent == NIL) {
+			root = node;
+			parent[node] = NIL;
+		} else if (left[grandparent] == parentNode) {
+			setLeft(grandparent, node);
+		} else {
+			setRight(grandparent, node);
+		}
+		update(parentNode);
+		update(node);
+	}
+
+	private void setLeft(int node, int child) {
+		left[node] = child;
+		if (child != NIL) {
+			parent[child] = node;
+		}
+	}
+
+	private void setRight(int node, int child) {
+		right[node] = child;
+		if (child != NIL) {
+			parent[child] = node;
+		}
+	}
+
+	/**
+	 * Пересчитывает счетчики вершины и всех ее предков.
+	 */
+	private void updatePath(int node) {
+		for (int current = node; current != NIL; current = parent[current]) {
+			update(current);
+		}
+	}
+
+	/**
+	 * Пересчитывает счетчики всех вершин поддерева.
+	 */
+	private void updateSubtree(int node) {
+		if (node == NIL) {
+			return;
+		}
+		updateSubtree(left[node]);
+		updateSubtree(right[node]);
+		update(node);
+	}
+
+	/**
+	 * Пересчитывает счетчики вершины по ее пометке и потомкам.
+	 */
+	private void update(int node) {
+		int leftNode = left[node];
+		int rightNode = right[node];
+		markCounts[node] = markCounts[leftNode] + markCounts[rightNode] + 1;
+		int offset = node * SOCIOTYPE_COUNT;
+		int leftOffset = leftNode * SOCIOTYPE_COUNT;
+		int rightOffset = rightNode * SOCIOTYPE_COUNT;
+		int accordMask = nodeClassifications[node] & 0xFFFF;
+		int discordMask = nodeClassifications[node] >>> 16;
+		for (int index = 0; index < SOCIOTYPE_COUNT; index++) {
+			matchCounts[offset + index] = matchCounts[leftOffset + index] + matchCounts[rightOffset + index]
+					+ (accordMask >>> index & 1);
+			missCounts[offset + index] = missCounts[leftOffset + index] + missCounts[rightOffset + index]
+					+ (discordMask >>> index & 1);
+		}
+	}
+
+	/**
+	 * Выдает свободную вершину для пометки. Связи вершины пусты, счетчики не вычислены.
+	 */
+	private int newNode(DocumentSection section, int classification) {
+		int node;
+		if (freeNode != NIL) {
+			node = freeNode;
+			freeNode = right[node];
+		} else {
+			if (usedNodes + 1 == nodeSections.length) {
+				grow(2 * nodeSections.length);
+			}
+			node = ++usedNodes;
+		}
+		nodes.put(section, node);
+		nodeSections[node] = section;
+		nodeClassifications[node] = classification;
+		priorities[node] = random.nextInt();
+		left[node] = NIL;
+		right[node] = NIL;
+		parent[node] = NIL;
+		update(node);
+		return node;
+	}
+
+	private void freeNode(int node) {
+		nodeSections[node] = null;
+		nodeClassifications[node] = 0;
+		left[node] = NIL;
+		parent[node] = NIL;
+		right[node] = freeNode;
+		freeNode = node;
+	}
+
+	/**
+	 * Создает пустое дерево с заданным числом вершин в массивах, включая неиспользуемую вершину 0.
+	 */
+	private void allocate(int capacity) {
+		nodeSections = new DocumentSection[capacity];
+		nodeClassifications = new int[capacity];
+		priorities = new int[capacity];
+		left = new int[capacity];
+		right = new int[capacity];
+		parent = new int[capacity];
+		markCounts = new int[capacity];
+		matchCounts = new int[capacity * SOCIOTYPE_COUNT];
+		missCounts = new int[capacity * SOCIOTYPE_COUNT];
+		root = NIL;
+		usedNodes = 0;
+		freeNode = NIL;
+	}
+
+	private void grow(int capacity) {
+		nodeSections = Arrays.copyOf(nodeSections, capacity);
+		nodeClassifications = Arrays.copyOf(nodeClassifications, capacity);
+		priorities = Arrays.copyOf(priorities, capacity);
+		left = Arrays.copyOf(left, capacity);
+		right = Arrays.copyOf(right, capacity);
+		parent = Arrays.copyOf(parent, capacity);
+		markCounts = Arrays.copyOf(markCounts, capacity);
+		matchCounts = Arrays.copyOf(matchCounts, capacity * SOCIOTYPE_COUNT);
+		missCounts = Arrays.copyOf(missCounts, capacity * SOCIOTYPE_COUNT);
+	}
+}
@@ -0,0 +1,85 @@
+package org.socionicasys.analyst;
+
+import org.socionicasys.analyst.types.Sociotype;
+
+import java.awt.*;
+import javax.swing.*;
+
+/**
+ * Кривые накопления свидетельств: для каждого ТИМа нормализованный коеффициент соответствия, который показала бы
+ * гистограмма {@link MatchMissView}, если бы документ заканчивался на очередной пометке. По горизонтали —
+ * пометки в порядке их начала в тексте. Значения берутся из {@link EvidenceCurve} при каждой перерисовке,
+ * документ при этом не просматривается.
+ */
+public class EvidenceCurveView extends JPanel implements ADocumentChangeListener {
+	private static final Sociotype[] SOCIOTYPES = Sociotype.values();
+	private static final int MARGIN = 4;
+	private static final int LABEL_WIDTH = 32;
+
+	private EvidenceCurve evidenceCurve;
+
+	public EvidenceCurveView(DocumentHolder documentHolder) {
+		setBackground(Color.WHITE);
+		setPreferredSize(new Dimension(200, 200));
+		evidenceCurve = documentHolder.getModel().getMatchMissModel().getEvidenceCurve();
+	}
+
+	@Override
+	public void aDocumentChanged(ADocument document) {
+		evidenceCurve = document.getMatchMissModel().getEvidenceCurve();
+		repaint();
+	}
+
+	@Override
+	protected void paintComponent(Graphics g) {
+		super.paintComponent(g);
+		int markCount = evidenceCurve.getMarkCount();
+		int plotWidth = getWidth() - 2 * MARGIN - LABEL_WIDTH;
+		int plotHeight = getHeight() - 2 * MARGIN;
+		if (markCount == 0 || plotWidth <= 0 || plotHeight <= 0) {
+			return;
+		}
+
+		// Одна точка на пиксель, но не больше, чем пометок
+		int pointCount = Math.min(markCount, plotWidth);
+		int[][] xPoints = new int[SOCIOTYPES.length][pointCount];
+		int[][] yPoints = new int[SOCIOTYPES.length][pointCount];
+		float[] coefficients = new float[SOCIOTYPES.length];
+		for (int point = 0; point < pointCount; point++) {
+			int marks = (int) ((long) (point + 1) * markCount / pointCount);
+			evidenceCurve.getCoefficients(marks, coefficients);
+			int x = MARGIN + (pointCount == 1 ? plotWidth : point * plotWidth / (pointCount - 1));
+			for (int index = 0; index < SOCIOTYPES.length; index++) {
+				xPoints[index][point] = x;
+				yPoints[index][point] = MARGIN + Math.round((1f - coefficients[index]) * plotHeight);
+			}
+		}
+
+		Graphics2D g2 = (Graphics2D) g.create();
+		try {
+			g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+			g2.setColor(Color.LIGHT_GRAY);
+			g2.drawRect(MARGIN, MARGIN, plotWidth, plotHeight);
+			g2.setFont(new Font(Font.MONOSPACED, Font.PLAIN, g2.getFont().getSize() - 2));
+			for (int index = 0; index < SOCIOTYPES.length; index++) {
+				g2.setColor(getColor(index));
+				if (pointCount == 1) {
+					g2.fillOval(xPoints[index][0] - 2, yPoints[index][0] - 2, 4, 4);
+				} else {
+					g2.drawPolyline(xPoints[index], yPoints[index], pointCount);
+				}
+				g2.drawString(SOCIOTYPES[index].getAbbreviation(), MARGIN + plotWidth + 2,
+					yPoints[index][pointCount - 1] + g2.getFontMetrics().getAscent() / 2);
+			}
+		} finally {
+			g2.dispose();
+		}
+	}
+
+	/**
+	 * @return цвет кривой ТИМа с заданным номером
+	 */
+	private static Color getColor(int index) {
+		return Color.getHSBColor((float) index / SOCIOTYPES.length, 0.8f, 0.8f);
+	}
+}
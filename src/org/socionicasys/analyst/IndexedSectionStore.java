@@ -0,0 +1,160 @@
+package org.socionicasys.analyst;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.socionicasys.analyst.model.AData;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Хранилище разметки на основе хеш-таблицы. Границы интервалов отслеживаются позициями
+ * ({@link javax.swing.text.Position}) документа, а поиск по положению выполняется через
+ * индекс {@link SectionIndex}, который хранилище поддерживает в актуальном состоянии.
+ */
+final class IndexedSectionStore implements SectionStore {
+	/**
+	 * Документ, в котором создаются позиции интервалов.
+	 */
+	private final Document document;
+
+	/**
+	 * Данные разметки. Ключи сравниваются по номеру интервала.
+	 */
+	private final Map<DocumentSection, AData> dataMap;
+
+	/**
+	 * Индекс интервалов из {@link #dataMap}, упорядоченный по их положению в документе.
+	 */
+	private final SectionIndex index;
+
+	/**
+	 * Номер, который получит следующий созданный интервал.
+	 */
+	private int nextSectionId;
+
+	private static final Logger logger = LoggerFactory.getLogger(IndexedSectionStore.class);
+
+	IndexedSectionStore(Document document) {
+		this.document = document;
+		dataMap = new HashMap<DocumentSection, AData>();
+		index = new SectionIndex();
+		nextSectionId = 0;
+	}
+
+	@Override
+	public DocumentSection createSection(int startOffset, int endOffset) throws BadLocationException {
+		DocumentSection section = new DocumentSection(document, startOffset, endOffset, nextSectionId);
+		nextSectionId++;
+		return section;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * <p>Позиции документа, совпадающие с местом вставки, сдвигаются вслед за вставленным текстом.
+	 * Чтобы вставка в конце интервала не расширяла его, конец таких интервалов возвращается
+	 * к месту вставки.</p>
+	 */
+	@Override
+	public void insertUpdate(int offset, int length) {
+		Collection<DocumentSection> touchingSections = new ArrayList<DocumentSection>();
+		index.collectIntersecting(offset + length, offset + length, touchingSections);
+		for (DocumentSection section : touchingSections) {
+			if (section.getEndOffset() != offset + length) {
+				continue;
+			}
+			try {
+				// Конец интервала сдвигается немонотонно, поэтому интервал нужно переиндексировать
+				index.remove(section);
+				section.setEnd(document.createPosition(offset));
+				index.add(section);
+			} catch (BadLocationException e) {
+				logger.error("Invalid position for DocumentSection", e);
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * <p>Документ возвращает позиции внутри восстановленного фрагмента на прежние места, то есть сдвигает
+	 * границы интервалов немонотонно, поэтому индекс перестраивается.</p>
+	 */
+	@Override
+	public void textRestored() {
+		index.rebuild();
+	}
+
+	@Override
+	public int size() {
+		return dataMap.size();
+	}
+
+	@Override
+	public boolean contains(DocumentSection section) {
+		return dataMap.containsKey(section);
+	}
+
+	@Override
+	public AData get(DocumentSection section) {
+		return dataMap.get(section);
+	}
+
+	@Override
+	public void put(DocumentSection section, AData data) {
+		if (!dataMap.containsKey(section)) {
+			index.add(section);
+		}
+		dataMap.put(section, data);
+	}
+
+	@Override
+	public AData remove(DocumentSection section) {
+		if (!dataMap.containsKey(section)) {
+			return null;
+		}
+		index.remove(section);
+		return dataMap.remove(section);
+	}
+
+	@Override
+	public Map<DocumentSection, AData> asMap() {
+		return Collections.unmodifiableMap(dataMap);
+	}
+
+	@Override
+	public DocumentSection findInnermost(int pos) {
+		return index.findInnermost(pos);
+	}
+
+	@Override
+	public DocumentSection find(int start, int end) {
+		return index.find(start, end);
+	}
+
+	@Override
+	public DocumentSection exact(int offset) {
+		return index.exact(offset);
+	}
+
+	@Override
+	public DocumentSection floor(int offset) {
+		return index.floor(offset);
+	}
+
+	@Override
+	public DocumentSection ceiling(int offset) {
+		return index.ceiling(offset);
+	}
+
+	@Override
+	public void collectIntersecting(int start, int end, Collection<DocumentSection> result) {
+		index.collectIntersecting(start, end, result);
+	}
+}
@@ -3,6 +3,7 @@ package org.socionicasys.analyst;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.socionicasys.analyst.model.AData;
+import org.socionicasys.analyst.model.Markup;
 
 import java.io.*;
 import java.util.*;
@@ -164,23 +165,21 @@ public class LegacyHtmlReader extends SwingWorker<ADocument, Void> {
 			}
 		}
 
+		SectionChangeBatch batch = new SectionChangeBatch();
 		for (RawAData rawAData : rawData.values()) {
-			AData data = AData.parseAData(rawAData.getAData());
-			if (data == null) {
-				continue;
-			}
-			data.setComment(rawAData.getComment());
+			// Разметка без комментария берется из общего пула, у пометки остается только комментарий
+			AData data = new AData(Markup.parse(rawAData.getAData()), rawAData.getComment());
 			int begin = rawAData.getBegin();
 			int end = rawAData.getEnd();
 			try {
-				DocumentSection section = new DocumentSection(document, begin, end);
-				document.getADataMap().put(section, data);
-				document.setCharacterAttributes(begin, end - begin, ADocument.DEFAULT_SECTION_STYLE, false);
+				DocumentSection section = document.createSection(begin, end);
+				batch.add(section, data);
 			} catch (BadLocationException e) {
 				logger.error("Invalid position for DocumentSection", e);
 			}
 		}
-		document.fireADocumentChanged();
+		document.applySectionChanges(batch);
+		logger.debug("readDocument(): {} marks loaded, {}", rawData.size(), Markup.getPoolReport());
 
 		return document;
 	}
@@ -21,7 +21,16 @@ public class LegacyHtmlWriter extends SwingWorker<Void, Void> {
 
 	private final ADocument document;
 	private final File outputFile;
-	private final AnalystWindow analystWindow;
+
+	/**
+	 * Снимок сохраняемого документа. Фоновый поток читает только его, а не сам документ.
+	 */
+	private final ADocumentSnapshot snapshot;
+
+	/**
+	 * Отчет дерева анализа, построенный в момент создания снимка.
+	 */
+	private final String analysisReport;
 
 	private enum EventType {
 		LINE_BREAK,
@@ -121,23 +130,29 @@ public class LegacyHtmlWriter extends SwingWorker<Void, Void> {
 		}
 	}
 
+	/**
+	 * Создает объект, сохраняющий документ в файл. Должен создаваться в потоке обработки событий:
+	 * здесь снимается копия документа и отчета, которые затем записываются в фоновом потоке.
+	 *
+	 * @param analystWindow окно, из дерева анализа которого берется отчет
+	 * @param document сохраняемый документ
+	 * @param outputFile файл, в который сохраняется документ
+	 */
 	public LegacyHtmlWriter(AnalystWindow analystWindow, ADocument document, File outputFile) {
 		this.document = document;
 		this.outputFile = outputFile;
-		this.analystWindow = analystWindow;
+		snapshot = document.snapshot();
+		analysisReport = analystWindow.getNavigeTree().getReport();
 	}
 
 	@Override
-	protected Void doInBackground() throws BadLocationException, IOException {
+	protected Void doInBackground() throws IOException {
 		Writer writer = null;
 		try {
 			writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputFile),
 					LegacyHtmlFormat.FILE_ENCODING));
 			writeDocument(writer);
 			document.setAssociatedFile(outputFile);
-		} catch (BadLocationException e) {
-			logger.error("Incorrect document position while saving document", e);
-			throw e;
 		} catch (IOException e) {
 			logger.error("IO error while saving document", e);
 			throw e;
@@ -150,7 +165,7 @@ public class LegacyHtmlWriter extends SwingWorker<Void, Void> {
 		return null;
 	}
 
-	private void writeDocument(Writer writer) throws IOException, BadLocationException {
+	private void writeDocument(Writer writer) throws IOException {
 		setProgress(0);
 
 		//writing the header
@@ -190,7 +205,7 @@ public class LegacyHtmlWriter extends SwingWorker<Void, Void> {
 		"	</style>" +
 		"</head>", 
 			LegacyHtmlFormat.FILE_ENCODING,
-			document.getProperty(Document.TitleProperty)
+			snapshot.getProperty(Document.TitleProperty)
 		));
 
 		//document title
@@ -209,9 +224,9 @@ public class LegacyHtmlWriter extends SwingWorker<Void, Void> {
 			"<p><span style=\"font-family:Lucida Sans Unicode,Lucida Grande,sans-serif; color: #001400\"><span style=\"font-size:24px\"><strong>Subject</strong>: %s </span></span></p>" +
 			"<p><span style=\"font-family:Lucida Sans Unicode,Lucida Grande,sans-serif; color: #001400\"><span style=\"font-size:24px\"><strong>Typist(s)</strong>: %s </span></span></p>" +
 			"<p><span style=\"font-family:Lucida Sans Unicode,Lucida Grande,sans-serif; color: #001400\"><span style=\"font-size:24px\"><strong>Date</strong>: %s </span></span></p>",
-			document.getProperty(ADocument.CLIENT_PROPERTY),
-			document.getProperty(ADocument.EXPERT_PROPERTY),
-			document.getProperty(ADocument.DATE_PROPERTY)
+			snapshot.getProperty(ADocument.CLIENT_PROPERTY),
+			snapshot.getProperty(ADocument.EXPERT_PROPERTY),
+			snapshot.getProperty(ADocument.DATE_PROPERTY)
 		));
 
 		//  writing the color legend
@@ -257,29 +272,25 @@ public class LegacyHtmlWriter extends SwingWorker<Void, Void> {
 
 		// PREPARING
 		List<DocumentFlowEvent> flowEvents = new ArrayList<DocumentFlowEvent>();
-		Collection<Position> lineBreaks = new ArrayList<Position>();
-		for (int i = 0; i < document.getLength(); i++) {
-			if (document.getText(i, 1).equals("\n")) {
-				lineBreaks.add(document.createPosition(i));
-			}
+		String text = snapshot.getText();
+		Collection<Integer> lineBreaks = new ArrayList<Integer>();
+		for (int i = text.indexOf('\n'); i >= 0; i = text.indexOf('\n', i + 1)) {
+			lineBreaks.add(i);
 		}
 
-		List<DocumentSection> sections = new ArrayList<DocumentSection>(document.getADataMap().keySet());
-		Collections.sort(sections);
-		for (int i = 0; i < sections.size(); i++) {
-			DocumentSection section = sections.get(i);
-			AData data = document.getADataMap().get(section);
+		for (int i = 0; i < snapshot.getSectionCount(); i++) {
+			AData data = snapshot.getSectionData(i);
 			if (data.isValid()) {
 				flowEvents.add(new DocumentFlowEvent(
 					EventType.SECTION_START,
-					section.getStartOffset(),
+					snapshot.getSectionStart(i),
 					getHTMLStyleForAData(data),
 					String.format("{%d: %s} %s\n", i + 1, data.toString(), data.getComment()),
 					i + 1)
 				);
 				flowEvents.add(new DocumentFlowEvent(
 					EventType.SECTION_END,
-					section.getEndOffset(),
+					snapshot.getSectionEnd(i),
 					getHTMLStyleForAData(data),
 					data.getComment(),
 					i + 1)
@@ -287,34 +298,28 @@ public class LegacyHtmlWriter extends SwingWorker<Void, Void> {
 			}
 		}
 
-		Element rootElem = document.getDefaultRootElement();
 		MutableAttributeSet boldAttribute = new SimpleAttributeSet();
 		StyleConstants.setBold(boldAttribute, true);
 		MutableAttributeSet italicAttribute = new SimpleAttributeSet();
 		StyleConstants.setItalic(italicAttribute, true);
-		for (int parIndex = 0; parIndex < rootElem.getElementCount(); parIndex++) {
-			Element parElem = rootElem.getElement(parIndex);
-			for (int i = 0; i < parElem.getElementCount(); i++) {
-				Element e = parElem.getElement(i);
-				int elemStart = e.getStartOffset();
-				int elemEnd = e.getEndOffset();
-				AttributeSet attrs = e.getAttributes();
-				if (attrs.containsAttributes(boldAttribute)) {
-					flowEvents.add(new DocumentFlowEvent(EventType.BOLD_START,
-						elemStart, null, null, 0));
-					flowEvents.add(new DocumentFlowEvent(EventType.BOLD_END,
-						elemEnd, null, null, 0));
-				}
-				if (attrs.containsAttributes(italicAttribute)) {
-					flowEvents.add(new DocumentFlowEvent(EventType.ITALIC_START,
-						elemStart, null, null, 0));
-					flowEvents.add(new DocumentFlowEvent(EventType.ITALIC_END,
-						elemEnd, null, null, 0));
-				}
+		for (int i = 0; i < snapshot.getRunCount(); i++) {
+			int elemStart = snapshot.getRunStart(i);
+			int elemEnd = snapshot.getRunEnd(i);
+			AttributeSet attrs = snapshot.getRunAttributes(i);
+			if (attrs.containsAttributes(boldAttribute)) {
+				flowEvents.add(new DocumentFlowEvent(EventType.BOLD_START,
+					elemStart, null, null, 0));
+				flowEvents.add(new DocumentFlowEvent(EventType.BOLD_END,
+					elemEnd, null, null, 0));
+			}
+			if (attrs.containsAttributes(italicAttribute)) {
+				flowEvents.add(new DocumentFlowEvent(EventType.ITALIC_START,
+					elemStart, null, null, 0));
+				flowEvents.add(new DocumentFlowEvent(EventType.ITALIC_END,
+					elemEnd, null, null, 0));
 			}
 		}
-		for (Position position : lineBreaks) {
-			int lb = position.getOffset();
+		for (int lb : lineBreaks) {
 			boolean replaceBreak = false;
 			if (!flowEvents.isEmpty()) {
 				DocumentFlowEvent prevEvent = flowEvents.get(flowEvents.size() - 1);
@@ -337,7 +342,7 @@ public class LegacyHtmlWriter extends SwingWorker<Void, Void> {
 
 		if (!flowEvents.isEmpty() && (flowEvents.get(flowEvents.size() - 1).getType() != EventType.NEW_ROW)) {
 			flowEvents.add(new DocumentFlowEvent(
-				EventType.NEW_ROW, document.getEndPosition().getOffset() - 1,
+				EventType.NEW_ROW, snapshot.getLength(),
 				null, null, 0));
 		}
 
@@ -357,13 +362,13 @@ public class LegacyHtmlWriter extends SwingWorker<Void, Void> {
 				setProgress(HEADER_PROGRESS + PREPARATION_PROGRESS + TEXT_PROGRESS * z / flowEvents.size());
 
 				//writing text
-				writer.write(document.getText(pos0, pos1 - pos0));
+				writer.write(snapshot.getText(pos0, pos1 - pos0));
 
 				// writing text remainder from last event to the end of the document
 				if (z == flowEvents.size() - 1) {
-					int finish = document.getLength();
+					int finish = snapshot.getLength();
 					if (finish > pos1) {
-						writer.write(document.getText(pos1, finish - pos1));
+						writer.write(snapshot.getText(pos1, finish - pos1));
 					}
 					eventType = EventType.NEW_ROW;
 				}
@@ -430,7 +435,7 @@ public class LegacyHtmlWriter extends SwingWorker<Void, Void> {
 		}
 		// если в документе нет разметки - просто пишем текст в левый столбец таблицы
 		else {
-			writer.write(document.getText(0, document.getLength()));
+			writer.write(snapshot.getText());
 			writer.write("</td><td></td>");
 		}
 
@@ -444,7 +449,7 @@ public class LegacyHtmlWriter extends SwingWorker<Void, Void> {
 			"<h1> RESULTS </h1>" +
 			"<hr />"
 		);
-		writer.write(analystWindow.getNavigeTree().getReport());
+		writer.write(analysisReport);
 		writeMissMatchReport(writer);
 
 		writer.write(String.format(
@@ -496,7 +501,11 @@ public class LegacyHtmlWriter extends SwingWorker<Void, Void> {
 	}
 
 	private void writeMissMatchReport(Writer writer) throws IOException {
-		if (!document.getADataMap().isEmpty()) {
+		if (snapshot.getSectionCount() != 0) {
+			Collection<AData> markup = snapshot.getAllSectionData();
+			MatchMissModel matchMissModel = new MatchMissModel();
+			matchMissModel.recalculate(markup);
+			BootstrapEstimate estimate = BootstrapAnalysis.analyze(markup);
 			writer.write(
 				"<br/>" +
 				"<h2> Correlation to Socionics Type </h2>" +
@@ -506,27 +515,37 @@ public class LegacyHtmlWriter extends SwingWorker<Void, Void> {
 				"The column “Correlation Factor” shows the normalized Correlation Factor which is calculated for each type according to the formula:<br/>" +
 				"<code> Correlation Factor = NORM<small style=\"vertical-align:sub;color:black\">100</small>(Accord/Discord)</code><br/>" +
 				"This method is used to the most likely type, but does not list the likelihood of the subject being any respective type. <br/><br/>" +
+				String.format("To show how stable the factor is, the marked up passages were resampled with replacement %1$d times and the factor was recalculated for each resample. " +
+				"The column “%2$.0f%% Interval” shows the range that contains the middle %2$.0f%% of the resampled factors, and the column “Ranked First” shows the share of resamples in which the type had the highest factor. <br/><br/>",
+					estimate.getReplicateCount(), 100.0f * BootstrapAnalysis.CONFIDENCE_LEVEL) +
 				"<table title=\"TIM analysis\" border=\"1\" width=\"80%\" class=\"styled-table\" style=\"border-collapse: collapse\">" +
 				"<tr>" +
-				"	<th width=\"40%\">Sociotype</th>" +
-				"	<th width=\"20%\">Accord</th>" +
-				"	<th width=\"20%\">Discord</th>" +
-				"	<th width=\"20%\">Correlation Factor</th>" +
+				"	<th width=\"25%\">Sociotype</th>" +
+				"	<th width=\"12%\">Accord</th>" +
+				"	<th width=\"12%\">Discord</th>" +
+				"	<th width=\"17%\">Correlation Factor</th>" +
+				String.format("	<th width=\"17%%\">%.0f%% Interval</th>", 100.0f * BootstrapAnalysis.CONFIDENCE_LEVEL) +
+				"	<th width=\"17%\">Ranked First</th>" +
 				"</tr>"
 			);
 			for (Sociotype sociotype : Sociotype.values()) {
-				MatchMissItem matchMissItem = document.getMatchMissModel().get(sociotype);
+				MatchMissItem matchMissItem = matchMissModel.get(sociotype);
 				writer.write(String.format(
 					"<tr>\n" +
 					"	<td style=\"font-weight:bold\">%s</td>\n" +
 					"		<td align=\"center\">%s </td>\n" +
 					"		<td align=\"center\">%s </td>\n" +
 					"		<td align=\"center\"> %2.0f </td>\n" +
+					"		<td align=\"center\"> %2.0f&ndash;%2.0f </td>\n" +
+					"		<td align=\"center\"> %2.0f%% </td>\n" +
 					"</tr>\n",
 					sociotype,
 					matchMissItem.getMatchCount(),
 					matchMissItem.getMissCount(),
-					100.0f * matchMissItem.getScaledCoefficient()
+					100.0f * matchMissItem.getScaledCoefficient(),
+					100.0f * estimate.getLowerBound(sociotype),
+					100.0f * estimate.getUpperBound(sociotype),
+					100.0f * estimate.getLeaderProbability(sociotype)
 				));
 			}
 			writer.write("</table>");
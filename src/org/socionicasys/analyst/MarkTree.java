@@ -0,0 +1,379 @@
+package org.socionicasys.analyst;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Смещения меток в документе, которые сдвигаются при правках текста за логарифмическое от числа меток время.
+ *
+ * <p>Метки хранятся в декартовом дереве (treap), упорядоченном по смещению. Правка делит дерево
+ * на части по месту правки и записывает сдвиг всех меток правее него в корень правой части как
+ * отложенную добавку; к потомкам добавка проталкивается только при следующем обходе этой вершины.
+ * Смещение метки складывается из ее значения и добавок всех предков.</p>
+ *
+ * <p>Метка либо сдвигается вместе с текстом, вставленным точно в ее смещение (кроме начала документа),
+ * как позиция {@link javax.swing.text.GapContent}, либо остается на месте, как конец интервала. При равных
+ * смещениях неподвижные метки идут раньше сдвигаемых, поэтому вставка делит дерево одним разрезом.</p>
+ *
+ * <p>Номера меток выбирает владелец дерева; вершины хранятся в массивах, индексируемых номером метки.</p>
+ */
+final class MarkTree {
+	private static final int NONE = -1;
+	private static final int INITIAL_CAPACITY = 16;
+
+	/**
+	 * Вершины дерева, индексируемые номером метки.
+	 */
+	private int[] left;
+	private int[] right;
+	private int[] parent;
+	private int[] priorities;
+
+	/**
+	 * Смещение метки без учета добавок предков.
+	 */
+	private int[] values;
+
+	/**
+	 * Отложенная добавка к смещениям всех потомков вершины.
+	 */
+	private int[] shifts;
+
+	/**
+	 * Сдвигается ли метка вместе с текстом, вставленным точно в ее смещение.
+	 */
+	private boolean[] sticky;
+
+	private final Random random;
+	private int root;
+
+	/**
+	 * Части дерева, полученные последним вызовом {@link #split(int, int, boolean)}.
+	 */
+	private int splitLeft;
+	private int splitRight;
+
+	/**
+	 * Метки, собранные последним обходом, и их смещения.
+	 */
+	private int[] collectedMarks;
+	private int collectedCount;
+
+	MarkTree() {
+		left = new int[INITIAL_CAPACITY];
+		right = new int[INITIAL_CAPACITY];
+		parent = new int[INITIAL_CAPACITY];
+		priorities = new int[INITIAL_CAPACITY];
+		values = new int[INITIAL_CAPACITY];
+		shifts = new int[INITIAL_CAPACITY];
+		sticky = new boolean[INITIAL_CAPACITY];
+		collectedMarks = new int[INITIAL_CAPACITY];
+		random = new Random();
+		root = NONE;
+	}
+
+	/**
+	 * Добавляет метку.
+	 *
+	 * @param mark номер метки, еще не добавленной в дерево
+	 * @param offset смещение метки
+	 * @param sticky сдвигается ли метка вместе с текстом, вставленным точно в ее смещение
+	 */
+	void add(int mark, int offset, boolean sticky) {
+		if (mark >= values.length) {
+			int capacity = Math.max(2 * values.length, mark + 1);
+			left = Arrays.copyOf(left, capacity);
+			right = Arrays.copyOf(right, capacity);
+			parent = Arrays.copyOf(parent, capacity);
+			priorities = Arrays.copyOf(priorities, capacity);
+			values = Arrays.copyOf(values, capacity);
+			shifts = Arrays.copyOf(shifts, capacity);
+			this.sticky = Arrays.copyOf(this.sticky, capacity);
+		}
+		priorities[mark] = random.nextInt();
+		this.sticky[mark] = sticky;
+		attach(mark, offset);
+	}
+
+	/**
+	 * Удаляет метку. Ее номер можно снова передать в {@link #add(int, int, boolean)}.
+	 *
+	 * @param mark номер метки, добавленной в дерево
+	 */
+	void delete(int mark) {
+		detach(mark);
+	}
+
+	/**
+	 * @param mark номер метки
+	 * @return текущее смещение метки
+	 */
+	int offset(int mark) {
+		int offset = values[mark];
+		for (int node = parent[mark]; node != NONE; node = parent[node]) {
+			offset += shifts[node];
+		}
+		return offset;
+	}
+
+	/**
+	 * Сдвигает метки после вставки текста: метки правее места вставки и сдвигаемые метки в самом месте
+	 * вставки (кроме начала документа) смещаются на длину текста.
+	 *
+	 * @param offset место вставки
+	 * @param length длина вставленного текста
+	 */
+	void insert(int offset, int length) {
+		split(root, offset, offset == 0);
+		int head = splitLeft;
+		int tail = splitRight;
+		shift(tail, length);
+		setRoot(merge(head, tail));
+	}
+
+	/**
+	 * Сдвигает метки правее заданного смещения, не трогая метки в самом смещении. Так текст возвращается
+	 * в документ при отмене удаления перед {@link #restore(int[])}.
+	 *
+	 * @param offset место вставки
+	 * @param length длина вставленного текста
+	 */
+	void insertAfter(int offset, int length) {
+		split(root, offset, true);
+		int head = splitLeft;
+		int tail = splitRight;
+		shift(tail, length);
+		setRoot(merge(head, tail));
+	}
+
+	/**
+	 * Сдвигает метки после удаления текста: метки внутри удаленного фрагмента схлопываются к его началу,
+	 * метки после него смещаются влево.
+	 *
+	 * @param offset начало удаленного фрагмента
+	 * @param length длина удаленного фрагмента
+	 * @return прежние смещения меток, попавших в {@code (offset, offset + length]}: пары (номер метки, смещение),
+	 * по которым их можно вернуть на места методом {@link #restore(int[])}
+	 */
+	int[] remove(int offset, int length) {
+		split(root, offset, true);
+		int head = splitLeft;
+		split(splitRight, offset + length, true);
+		int removed = splitLeft;
+		int tail = splitRight;
+		shift(tail, -length);
+		setRoot(merge(head, tail));
+
+		collectedCount = 0;
+		collect(removed);
+		int[] movedMarks = new int[2 * collectedCount];
+		for (int i = 0; i < collectedCount; i++) {
+			int mark = collectedMarks[i];
+			movedMarks[2 * i] = mark;
+			movedMarks[2 * i + 1] = values[mark];
+		}
+		for (int i = 0; i < collectedCount; i++) {
+			attach(collectedMarks[i], offset);
+		}
+		return movedMarks;
+	}
+
+	/**
+	 * Возвращает метки на смещения, запомненные {@link #remove(int, int)}.
+	 *
+	 * @param movedMarks пары (номер метки, смещение)
+	 */
+	void restore(int[] movedMarks) {
+		for (int i = 0; i < movedMarks.length; i += 2) {
+			int mark = movedMarks[i];
+			detach(mark);
+			attach(mark, movedMarks[i + 1]);
+		}
+	}
+
+	/**
+	 * @param offset смещение в документе
+	 * @return номера всех меток с этим смещением
+	 */
+	int[] marksAt(int offset) {
+		collectedCount = 0;
+		collectRange(root, 0, offset);
+		return Arrays.copyOf(collectedMarks, collectedCount);
+	}
+
+	/**
+	 * Делит поддерево на метки, которые стоят не правее заданного смещения, и остальные.
+	 * Результат записывается в {@link #splitLeft} и {@link #splitRight}.
+	 *
+	 * @param node корень поддерева
+	 * @param offset смещение разреза
+	 * @param withSticky попадают ли в левую часть сдвигаемые метки с этим смещением
+	 */
+	private void split(int node, int offset, boolean withSticky) {
+		if (node == NONE) {
+			splitLeft = NONE;
+			splitRight = NONE;
+			return;
+		}
+		push(node);
+		if (values[node] > offset || values[node] == offset && sticky[node] && !withSticky) {
+			split(left[node], offset, withSticky);
+			setLeft(node, splitRight);
+			splitRight = node;
+		} else {
+			split(right[node], offset, withSticky);
+			setRight(node, splitLeft);
+			splitLeft = node;
+		}
+	}
+
+	/**
+	 * Объединяет два поддерева, все метки первого из которых стоят не правее меток второго.
+	 *
+	 * @return корень объединенного поддерева
+	 */
+	private int merge(int first, int second) {
+		if (first == NONE) {
+			return second;
+		}
+		if (second == NONE) {
+			return first;
+		}
+		if (priorities[first] > priorities[second]) {
+			push(first);
+			setRight(first, merge(right[first], second));
+			return first;
+		}
+		push(second);
+		setLeft(second, merge(first, left[second]));
+		return second;
+	}
+
+	/**
+	 * Вставляет отдельную вершину метки в дерево после всех меток с тем же ключом.
+	 */
+	private void attach(int mark, int offset) {
+		left[mark] = NONE;
+		right[mark] = NONE;
+		parent[mark] = NONE;
+		values[mark] = offset;
+		shifts[mark] = 0;
+		split(root, offset, sticky[mark]);
+		int head = splitLeft;
+		int tail = splitRight;
+		setRoot(merge(merge(head, mark), tail));
+	}
+
+	/**
+	 * Исключает вершину метки из дерева, оставляя в ней ее текущее смещение.
+	 */
+	private void detach(int mark) {
+		int depth = 0;
+		for (int node = mark; node != NONE; node = parent[node]) {
+			depth++;
+		}
+		int[] path = new int[depth];
+		for (int node = mark; node != NONE; node = parent[node]) {
+			path[--depth] = node;
+		}
+		for (int node : path) {
+			push(node);
+		}
+
+		int replacement = merge(left[mark], right[mark]);
+		int markParent = parent[mark];
+		if (markParent == NONE) {
+			setRoot(replacement);
+		} else if (left[markParent] == mark) {
+			setLeft(markParent, replacement);
+		} else {
+			setRight(markParent, replacement);
+		}
+	}
+
+	/**
+	 * Добавляет в {@link #collectedMarks} все метки поддерева в порядке следования, проталкивая добавки,
+	 * так что значения собранных меток равны их смещениям.
+	 */
+	private void collect(int node) {
+		if (node == NONE) {
+			return;
+		}
+		push(node);
+		collect(left[node]);
+		addCollected(node);
+		collect(right[node]);
+	}
+
+	/**
+	 * Добавляет в {@link #collectedMarks} метки поддерева со смещением {@code offset}.
+	 *
+	 * @param shift сумма добавок предков поддерева
+	 */
+	private void collectRange(int node, int shift, int offset) {
+		if (node == NONE) {
+			return;
+		}
+		int value = values[node] + shift;
+		int childShift = shift + shifts[node];
+		if (value >= offset) {
+			collectRange(left[node], childShift, offset);
+		}
+		if (value == offset) {
+			addCollected(node);
+		}
+		if (value <= offset) {
+			collectRange(right[node], childShift, offset);
+		}
+	}
+
+	private void addCollected(int mark) {
+		if (collectedCount == collectedMarks.length) {
+			collectedMarks = Arrays.copyOf(collectedMarks, 2 * collectedCount);
+		}
+		collectedMarks[collectedCount++] = mark;
+	}
+
+	/**
+	 * Сдвигает все метки поддерева.
+	 */
+	private void shift(int node, int delta) {
+		if (node != NONE) {
+			values[node] += delta;
+			shifts[node] += delta;
+		}
+	}
+
+	/**
+	 * Передает отложенную добавку вершины ее потомкам.
+	 */
+	private void push(int node) {
+		int delta = shifts[node];
+		if (delta != 0) {
+			shift(left[node], delta);
+			shift(right[node], delta);
+			shifts[node] = 0;
+		}
+	}
+
+	private void setLeft(int node, int child) {
+		left[node] = child;
+		if (child != NONE) {
+			parent[child] = node;
+		}
+	}
+
+	private void setRight(int node, int child) {
+		right[node] = child;
+		if (child != NONE) {
+			parent[child] = node;
+		}
+	}
+
+	private void setRoot(int node) {
+		root = node;
+		if (node != NONE) {
+			parent[node] = NONE;
+		}
+	}
+}
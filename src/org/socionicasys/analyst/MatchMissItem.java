@@ -2,6 +2,7 @@ package org.socionicasys.analyst;
 
 import org.socionicasys.analyst.predicates.Predicate;
 import org.socionicasys.analyst.types.Sociotype;
+import org.socionicasys.analyst.types.SociotypeMasks;
 
 import java.util.Collection;
 
@@ -54,15 +55,35 @@ public class MatchMissItem {
 	 * @param predicates список предикатов из одного блока текстовых отметок
 	 */
 	public void addData(Collection<Predicate> predicates) {
-		switch (SocionicsType.matches(sociotype, predicates)) {
-		case SUCCESS:
-			matchCount++;
-			break;
-		case FAIL:
+		int discordMask = SocionicsType.getDiscordMask(predicates);
+		addData(SocionicsType.getAccordMask(predicates, discordMask), discordMask);
+	}
+
+	/**
+	 * Обновляет счетчики по заранее вычисленным маскам блока текстовых отметок.
+	 *
+	 * @param accordMask маска ТИМов, соответствующих блоку
+	 * @param discordMask маска ТИМов, не соответствующих блоку
+	 */
+	public void addData(int accordMask, int discordMask) {
+		if (SociotypeMasks.contains(discordMask, sociotype)) {
 			missCount++;
-			break;
-		case IGNORE:
-			break;
+		} else if (SociotypeMasks.contains(accordMask, sociotype)) {
+			matchCount++;
+		}
+	}
+
+	/**
+	 * Отменяет учет блока текстовых отметок, ранее добавленного {@link #addData(int, int)}.
+	 *
+	 * @param accordMask маска ТИМов, соответствующих блоку
+	 * @param discordMask маска ТИМов, не соответствующих блоку
+	 */
+	public void removeData(int accordMask, int discordMask) {
+		if (SociotypeMasks.contains(discordMask, sociotype)) {
+			missCount--;
+		} else if (SociotypeMasks.contains(accordMask, sociotype)) {
+			matchCount--;
 		}
 	}
 
@@ -86,6 +107,17 @@ public class MatchMissItem {
 	 * @return коеффициент соответствия до нормализации
 	 */
 	public float getRawCoefficient() {
+		return getRawCoefficient(matchCount, missCount);
+	}
+
+	/**
+	 * Вычисляет коеффициент соответствия по заданным счетчикам.
+	 *
+	 * @param matchCount число совпадений
+	 * @param missCount число несовпадений
+	 * @return коеффициент соответствия до нормализации
+	 */
+	static float getRawCoefficient(int matchCount, int missCount) {
 		float matchCoefficient;
 		if (missCount == 0) {
 			matchCoefficient = Float.POSITIVE_INFINITY;
@@ -102,16 +134,22 @@ public class MatchMissItem {
 	 * @return нормализованный коэффициент совпадения
 	 */
 	public float getScaledCoefficient() {
-		// Считаем matchCoefficient по matchCount и missCount
-		float matchCoefficient = getRawCoefficient();
+		return getScaledCoefficient(getRawCoefficient(), scale);
+	}
 
-		// Масштабируем matchCoefficient
+	/**
+	 * Масштабирует коеффициент соответствия.
+	 *
+	 * @param matchCoefficient коеффициент соответствия до нормализации
+	 * @param scale масштаб, вычисленный {@link MatchMissModel}; 0 означает, что у кого-то из ТИМов
+	 * коеффициент бесконечен
+	 * @return нормализованный коэффициент совпадения
+	 */
+	static float getScaledCoefficient(float matchCoefficient, float scale) {
 		if (scale == 0f) {
-			matchCoefficient = Float.isInfinite(matchCoefficient)? 1f : 0f;
-		} else {
-			matchCoefficient *= scale;
+			return Float.isInfinite(matchCoefficient)? 1f : 0f;
 		}
-		return matchCoefficient;
+		return matchCoefficient * scale;
 	}
 
 	/**
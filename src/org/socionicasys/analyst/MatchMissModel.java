@@ -5,53 +5,223 @@ import org.socionicasys.analyst.predicates.Predicate;
 import org.socionicasys.analyst.types.Sociotype;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.Map;
 
 /**
  * Модель данных для гистограммы совпадений/несовпадений с ТИМами.
+ *
+ * <p>Счетчики обновляются по изменениям пометок: для каждой пометки запоминается, каким ТИМам она
+ * соответствует и каким нет, и при изменении или удалении пометки ее прежний вклад вычитается из
+ * счетчиков. Поэтому правка одной пометки не требует заново разбирать разметку всего документа.</p>
  */
-public class MatchMissModel implements ADocumentChangeListener {
+public class MatchMissModel implements ADocumentDeltaListener {
 	private final Map<Sociotype, MatchMissItem> matchMissMap;
 
+	/**
+	 * Учтенные в счетчиках пометки и их маски соответствия, упакованные {@link #classify(AData)}.
+	 * Пометки, не влияющие на счетчики, здесь не хранятся.
+	 */
+	private final Map<DocumentSection, Integer> classifications;
+
+	/**
+	 * Накопленные счетчики вдоль документа для тех же пометок.
+	 */
+	private final EvidenceCurve evidenceCurve;
+
+	/**
+	 * Число изменений счетчиков с момента создания модели.
+	 */
+	private int modificationCount;
+
 	public MatchMissModel() {
 		matchMissMap = new EnumMap<Sociotype, MatchMissItem>(Sociotype.class);
 		for (Sociotype sociotype : Sociotype.values()) {
 			matchMissMap.put(sociotype, new MatchMissItem(sociotype));
 		}
+		classifications = new HashMap<DocumentSection, Integer>();
+		evidenceCurve = new EvidenceCurve();
 		scaleMatchCoefficients();
 	}
 
 	@Override
-	public void aDocumentChanged(ADocument document) {
-		for (MatchMissItem matchMissItem : matchMissMap.values()) {
-			matchMissItem.reset();
+	public void aDocumentChanged(ADocumentChangeEvent event) {
+		if (event.isFullRefresh()) {
+			recalculate(event.getDocument().getADataMap());
+			return;
 		}
 
-		for (AData data : document.getADataMap().values()) {
-			String aspect = data.getAspect();
+		boolean countersChanged = false;
+		for (DocumentSection section : event.getRemovedSections().keySet()) {
+			countersChanged |= removeSection(section);
+		}
+		evidenceCurve.textShifted(event.getTextShifts());
+		for (Map.Entry<DocumentSection, AData> entry : event.getUpdatedSections().entrySet()) {
+			countersChanged |= updateSection(entry.getKey(), entry.getValue());
+		}
+		for (Map.Entry<DocumentSection, AData> entry : event.getAddedSections().entrySet()) {
+			countersChanged |= addSection(entry.getKey(), entry.getValue());
+		}
 
-			if (aspect == null || AData.DOUBT.equals(aspect)) {
-				continue;
-			}
+		if (countersChanged) {
+			scaleMatchCoefficients();
+		}
+	}
 
-			Collection<Predicate> predicates = SocionicsType.createPredicates(data);
-			if (predicates.isEmpty()) {
-				continue;
+	/**
+	 * Заново подсчитывает (не)совпадения с ТИМами по разметке документа.
+	 * @param markup интервалы документа и их разметка
+	 */
+	void recalculate(Map<DocumentSection, AData> markup) {
+		reset();
+		for (Map.Entry<DocumentSection, AData> entry : markup.entrySet()) {
+			int classification = classify(entry.getValue());
+			if (classification != 0) {
+				classifications.put(entry.getKey(), classification);
+				addClassification(classification);
 			}
+		}
+		evidenceCurve.reset(classifications);
+		scaleMatchCoefficients();
+	}
 
-			for (MatchMissItem matchMissItem : matchMissMap.values()) {
-				matchMissItem.addData(predicates);
+	/**
+	 * Заново подсчитывает (не)совпадения с ТИМами по заданной разметке.
+	 * @param markup разметка всех пометок документа
+	 */
+	void recalculate(Collection<AData> markup) {
+		reset();
+		for (AData data : markup) {
+			int classification = classify(data);
+			if (classification != 0) {
+				addClassification(classification);
 			}
 		}
+		scaleMatchCoefficients();
+	}
 
+	/**
+	 * Заново подсчитывает (не)совпадения с ТИМами по заранее вычисленным маскам пометок.
+	 * @param classifications маски всех пометок документа, упакованные так же, как {@link #classify(AData)}
+	 */
+	void recalculate(int[] classifications) {
+		reset();
+		for (int classification : classifications) {
+			if (classification != 0) {
+				addClassification(classification);
+			}
+		}
 		scaleMatchCoefficients();
 	}
 
+	private void reset() {
+		for (MatchMissItem matchMissItem : matchMissMap.values()) {
+			matchMissItem.reset();
+		}
+		classifications.clear();
+		evidenceCurve.clear();
+	}
+
+	/**
+	 * Учитывает в счетчиках новую пометку.
+	 *
+	 * @return изменились ли счетчики
+	 */
+	private boolean addSection(DocumentSection section, AData data) {
+		int classification = classify(data);
+		if (classification == 0) {
+			return false;
+		}
+		classifications.put(section, classification);
+		evidenceCurve.add(section, classification);
+		addClassification(classification);
+		return true;
+	}
+
+	/**
+	 * Заменяет в счетчиках вклад пометки, разметка которой изменилась. Пометка остается на своем месте
+	 * в {@link #evidenceCurve}.
+	 *
+	 * @return изменились ли счетчики
+	 */
+	private boolean updateSection(DocumentSection section, AData data) {
+		Integer oldClassification = classifications.get(section);
+		if (oldClassification == null) {
+			return addSection(section, data);
+		}
+		int classification = classify(data);
+		if (classification == 0) {
+			return removeSection(section);
+		}
+		if (classification == oldClassification) {
+			return false;
+		}
+		classifications.put(section, classification);
+		evidenceCurve.update(section, classification);
+		removeClassification(oldClassification);
+		addClassification(classification);
+		return true;
+	}
+
+	/**
+	 * Вычитает из счетчиков вклад удаленной пометки.
+	 *
+	 * @return изменились ли счетчики
+	 */
+	private boolean removeSection(DocumentSection section) {
+		Integer classification = classifications.remove(section);
+		if (classification == null) {
+			return false;
+		}
+		evidenceCurve.remove(section);
+		removeClassification(classification);
+		return true;
+	}
+
+	private void removeClassification(int classification) {
+		int accordMask = classification & 0xFFFF;
+		int discordMask = classification >>> 16;
+		for (MatchMissItem matchMissItem : matchMissMap.values()) {
+			matchMissItem.removeData(accordMask, discordMask);
+		}
+	}
+
+	private void addClassification(int classification) {
+		int accordMask = classification & 0xFFFF;
+		int discordMask = classification >>> 16;
+		for (MatchMissItem matchMissItem : matchMissMap.values()) {
+			matchMissItem.addData(accordMask, discordMask);
+		}
+	}
+
+	/**
+	 * Определяет, каким ТИМам соответствует пометка.
+	 *
+	 * @param data разметка пометки
+	 * @return маска соответствующих ТИМов в младших 16 битах и маска несоответствующих в старших,
+	 * или 0, если пометка не влияет на счетчики
+	 */
+	static int classify(AData data) {
+		String aspect = data.getAspect();
+		if (aspect == null || AData.DOUBT.equals(aspect)) {
+			return 0;
+		}
+
+		Collection<Predicate> predicates = SocionicsType.createPredicates(data);
+		int discordMask = SocionicsType.getDiscordMask(predicates);
+		int accordMask = SocionicsType.getAccordMask(predicates, discordMask);
+		return accordMask | discordMask << 16;
+	}
+
 	/**
 	 * Масштабирует коеффициенты соответствия каждого ТИМа так, чтобы максимальный был равен 1.
 	 */
 	private void scaleMatchCoefficients() {
+		// Вызывается после каждого изменения счетчиков
+		modificationCount++;
+
 		float maxCoefficient = 0.0f;
 		for (MatchMissItem matchMissItem : matchMissMap.values()) {
 			if (maxCoefficient < matchMissItem.getRawCoefficient()) {
@@ -63,12 +233,47 @@ public class MatchMissModel implements ADocumentChangeListener {
 			return;
 		}
 
-		float scale = Float.isInfinite(maxCoefficient) ? 0f : 1f / maxCoefficient;
+		float scale = getScale(maxCoefficient);
 		for (MatchMissItem matchMissItem : matchMissMap.values()) {
 			matchMissItem.setScale(scale);
 		}
 	}
 
+	/**
+	 * @param maxCoefficient наибольший ненулевой коеффициент соответствия среди всех ТИМов
+	 * @return масштаб, приводящий наибольший коеффициент к 1, или 0, если он бесконечен
+	 */
+	static float getScale(float maxCoefficient) {
+		return Float.isInfinite(maxCoefficient) ? 0f : 1f / maxCoefficient;
+	}
+
+	/**
+	 * Возвращает маски соответствия всех учтенных в счетчиках пометок.
+	 *
+	 * @return неизменяемое отображение пометок в маски, упакованные так же, как {@link #classify(AData)}:
+	 * маска соответствующих ТИМов в младших 16 битах и маска несоответствующих в старших
+	 */
+	Map<DocumentSection, Integer> getClassifications() {
+		return Collections.unmodifiableMap(classifications);
+	}
+
+	/**
+	 * Позволяет не пересчитывать производные от счетчиков данные, если при изменении документа
+	 * счетчики остались прежними.
+	 *
+	 * @return число изменений счетчиков с момента создания модели
+	 */
+	public int getModificationCount() {
+		return modificationCount;
+	}
+
+	/**
+	 * @return накопленные счетчики (не)совпадений вдоль документа
+	 */
+	public EvidenceCurve getEvidenceCurve() {
+		return evidenceCurve;
+	}
+
 	/**
 	 * Возвращает описание (не)совпадений с заданным ТИМом
 	 * @param sociotype ТИМ, (не)совпадения которого нужно получить
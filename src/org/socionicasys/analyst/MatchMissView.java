@@ -5,6 +5,7 @@ import org.slf4j.LoggerFactory;
 import org.socionicasys.analyst.types.Sociotype;
 
 import java.awt.*;
+import java.util.concurrent.ExecutionException;
 import javax.swing.*;
 import javax.swing.text.Document;
 import javax.swing.tree.DefaultMutableTreeNode;
@@ -25,6 +26,24 @@ public class MatchMissView extends JTree implements ADocumentChangeListener {
 	private final DefaultMutableTreeNode rootNode;
 	private final DefaultTreeModel treeModel;
 
+	/**
+	 * Счетчики, показанные в гистограмме.
+	 */
+	private MatchMissModel matchMissModel;
+
+	/**
+	 * Последняя вычисленная бутстреп-оценка, счетчики, по которым она вычислена, и число их изменений
+	 * на момент вычисления.
+	 */
+	private BootstrapEstimate estimate;
+	private MatchMissModel estimatedModel;
+	private int estimatedModificationCount;
+
+	/**
+	 * Вычисляемая в фоне оценка или {@code null}, если оценка не вычисляется.
+	 */
+	private EstimateWorker estimateWorker;
+
 	public MatchMissView(DocumentHolder documentHolder) {
 		rootNode = new DefaultMutableTreeNode();
 		treeModel = new DefaultTreeModel(rootNode);
@@ -40,6 +59,7 @@ public class MatchMissView extends JTree implements ADocumentChangeListener {
 	}
 
 	private void updateTree(MatchMissModel matchMissModel) {
+		this.matchMissModel = matchMissModel;
 		rootNode.removeAllChildren();
 
 		StringBuilder barBuilder = new StringBuilder(SCALE + 1);
@@ -48,19 +68,50 @@ public class MatchMissView extends JTree implements ADocumentChangeListener {
 		}
 		String bar = barBuilder.toString();
 
-		// Заполнение гистограммы
+		// Заполнение гистограммы с доверительными интервалами и вероятностью оказаться первым. Пока новая оценка
+		// вычисляется, показывается предыдущая оценка тех же счетчиков.
+		boolean showEstimate = estimate != null && estimatedModel == matchMissModel;
 		for (Sociotype sociotype : Sociotype.values()) {
 			DefaultMutableTreeNode node = new DefaultMutableTreeNode();
 			rootNode.add(node);
 			float coefficient = matchMissModel.get(sociotype).getScaledCoefficient();
-			node.setUserObject(String.format("%1$s %2$s %3$2.0f",
-				sociotype.getAbbreviation(),
-				bar.substring(0, (int) (SCALE * coefficient + 1)),
-				PERCENT * coefficient
-			));
+			String histogramBar = bar.substring(0, (int) (SCALE * coefficient + 1));
+			if (showEstimate) {
+				node.setUserObject(String.format("%1$s %2$-11s %3$3.0f [%4$3.0f-%5$3.0f] P1=%6$3.0f%%",
+					sociotype.getAbbreviation(),
+					histogramBar,
+					PERCENT * coefficient,
+					PERCENT * estimate.getLowerBound(sociotype),
+					PERCENT * estimate.getUpperBound(sociotype),
+					PERCENT * estimate.getLeaderProbability(sociotype)
+				));
+			} else {
+				node.setUserObject(String.format("%1$s %2$-11s %3$3.0f",
+					sociotype.getAbbreviation(),
+					histogramBar,
+					PERCENT * coefficient
+				));
+			}
 		}
 
 		treeModel.reload();
+		updateEstimate();
+	}
+
+	/**
+	 * Запускает вычисление бутстреп-оценки, если счетчики изменились с момента вычисления последней.
+	 * Пока вычисляется одна оценка, следующая не запускается: по ее окончании гистограмма обновляется,
+	 * и оценка при необходимости вычисляется заново по последним счетчикам.
+	 */
+	private void updateEstimate() {
+		if (estimateWorker != null) {
+			return;
+		}
+		if (estimatedModel == matchMissModel && estimatedModificationCount == matchMissModel.getModificationCount()) {
+			return;
+		}
+		estimateWorker = new EstimateWorker(matchMissModel);
+		estimateWorker.execute();
 	}
 
 	public JScrollPane getContainer() {
@@ -75,6 +126,43 @@ public class MatchMissView extends JTree implements ADocumentChangeListener {
 		updateTree(document.getMatchMissModel());
 	}
 
+	/**
+	 * Вычисляет бутстреп-оценку в фоновом потоке по маскам пометок, скопированным при создании.
+	 */
+	private final class EstimateWorker extends SwingWorker<BootstrapEstimate, Void> {
+		private final MatchMissModel model;
+		private final int modificationCount;
+		private final int[] classifications;
+
+		EstimateWorker(MatchMissModel model) {
+			this.model = model;
+			modificationCount = model.getModificationCount();
+			classifications = BootstrapAnalysis.getClassifications(model);
+		}
+
+		@Override
+		protected BootstrapEstimate doInBackground() {
+			return BootstrapAnalysis.analyze(classifications);
+		}
+
+		@Override
+		protected void done() {
+			estimateWorker = null;
+			try {
+				estimate = get();
+				estimatedModel = model;
+				estimatedModificationCount = modificationCount;
+			} catch (InterruptedException e) {
+				logger.error("Bootstrap estimate interrupted", e);
+				return;
+			} catch (ExecutionException e) {
+				logger.error("Error while computing bootstrap estimate", e.getCause());
+				return;
+			}
+			updateTree(matchMissModel);
+		}
+	}
+
 	private static class HistogramCellRenderer implements TreeCellRenderer {
 		@Override
 		public Component getTreeCellRendererComponent(JTree tree, Object value, boolean selected, boolean expanded,
@@ -0,0 +1,785 @@
+package org.socionicasys.analyst;
+
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.GapContent;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+import javax.swing.undo.UndoableEdit;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Содержимое документа в виде таблицы фрагментов (piece table). Текст хранится в неизменяемых буферах,
+ * а документ описывается списком фрагментов этих буферов. Вставка дописывает текст в буфер добавлений
+ * и вставляет в список один фрагмент, удаление только исключает фрагменты из списка, поэтому стоимость
+ * правки зависит от числа фрагментов, а не от длины текста и расстояния до предыдущей правки, как у
+ * {@link GapContent}. Удаленные фрагменты остаются в буферах, так что отмена удаления текст не копирует.
+ *
+ * <p>Позиции ({@link #createPosition(int)}) сдвигаются при правках так же, как у {@link GapContent}:
+ * позиции в месте вставки сдвигаются вместе с текстом, кроме позиций в самом начале документа; позиции
+ * внутри удаленного фрагмента схлопываются к его началу, а отмена удаления возвращает их на прежние места.</p>
+ *
+ * <p>Поскольку буферы не изменяются, снимок текста ({@link #snapshot(int, int)}) копирует только список
+ * фрагментов.</p>
+ */
+final class PieceTableContent implements AbstractDocument.Content {
+	/**
+	 * Размер очередного буфера добавлений. Текст длиннее этого размера получает отдельный буфер.
+	 */
+	private static final int ADD_BUFFER_SIZE = 64 * 1024;
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	/**
+	 * Начальная и наименьшая длина промежутка в пространстве индексов позиций.
+	 */
+	private static final int MIN_MARK_GAP = 1024 * 1024;
+
+	/**
+	 * Наибольшая длина промежутка, до которой он растет при удалении текста.
+	 */
+	private static final int MAX_MARK_GAP = 1 << 28;
+
+	/**
+	 * Фрагменты документа в порядке следования: буфер, смещение в буфере, длина и смещение в документе.
+	 */
+	private char[][] pieceBuffers;
+	private int[] pieceOffsets;
+	private int[] pieceLengths;
+	private int[] pieceStarts;
+	private int pieceCount;
+
+	/**
+	 * Длина содержимого вместе с завершающим переводом строки.
+	 */
+	private int length;
+
+	/**
+	 * Текущий буфер добавлений и длина его заполненной части. Заполненная часть не изменяется:
+	 * на нее могут ссылаться фрагменты документа, правок в истории отмены и снимков.
+	 */
+	private char[] addBuffer;
+	private int addBufferUsed;
+
+	/**
+	 * Данные позиций, упорядоченные по индексу. Индекс позиции до промежутка
+	 * {@code [markGapStart, markGapStart + markGapLength)} равен ее смещению, после промежутка — смещению
+	 * плюс длина промежутка. Правка сдвигает промежуток к месту правки, после чего меняется только длина
+	 * промежутка, поэтому правки в одном месте документа не перебирают все позиции.
+	 */
+	private MarkData[] marks;
+	private int markCount;
+	private int markGapStart;
+	private int markGapLength;
+
+	/**
+	 * Очередь позиций, собранных сборщиком мусора, и число их данных, еще не удаленных из {@link #marks}.
+	 */
+	private final ReferenceQueue<TrackedPosition> queue;
+	private int unusedMarks;
+
+	/**
+	 * Создает содержимое, состоящее из одного перевода строки, как того требует {@link AbstractDocument}.
+	 */
+	PieceTableContent() {
+		pieceBuffers = new char[INITIAL_CAPACITY][];
+		pieceOffsets = new int[INITIAL_CAPACITY];
+		pieceLengths = new int[INITIAL_CAPACITY];
+		pieceStarts = new int[INITIAL_CAPACITY];
+		pieceBuffers[0] = new char[]{'\n'};
+		pieceLengths[0] = 1;
+		pieceCount = 1;
+		length = 1;
+
+		addBuffer = new char[ADD_BUFFER_SIZE];
+		addBufferUsed = 0;
+
+		marks = new MarkData[INITIAL_CAPACITY];
+		markCount = 0;
+		markGapStart = 0;
+		markGapLength = MIN_MARK_GAP;
+		queue = new ReferenceQueue<TrackedPosition>();
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public UndoableEdit insertString(int where, String str) throws BadLocationException {
+		if (where > length || where < 0) {
+			throw new BadLocationException("Invalid insert", length);
+		}
+		int insertLength = str.length();
+		if (insertLength == 0) {
+			return new InsertEdit(where, 0);
+		}
+
+		// Продолжение набора в конце последнего добавленного фрагмента не создает новых фрагментов
+		if (where > 0 && addBuffer.length - addBufferUsed >= insertLength) {
+			int piece = findPiece(where - 1);
+			if (pieceBuffers[piece] == addBuffer && pieceOffsets[piece] + pieceLengths[piece] == addBufferUsed
+					&& pieceStarts[piece] + pieceLengths[piece] == where) {
+				str.getChars(0, insertLength, addBuffer, addBufferUsed);
+				addBufferUsed += insertLength;
+				pieceLengths[piece] += insertLength;
+				updateStarts(piece + 1);
+				length += insertLength;
+				marksInserted(where, insertLength);
+				return new InsertEdit(where, insertLength);
+			}
+		}
+
+		char[] buffer;
+		int bufferOffset;
+		if (insertLength > ADD_BUFFER_SIZE) {
+			buffer = new char[insertLength];
+			bufferOffset = 0;
+		} else {
+			if (addBuffer.length - addBufferUsed < insertLength) {
+				addBuffer = new char[ADD_BUFFER_SIZE];
+				addBufferUsed = 0;
+			}
+			buffer = addBuffer;
+			bufferOffset = addBufferUsed;
+			addBufferUsed += insertLength;
+		}
+		str.getChars(0, insertLength, buffer, bufferOffset);
+		insertPieces(where, new Pieces(new char[][]{buffer}, new int[]{bufferOffset}, new int[]{insertLength}, 1));
+		return new InsertEdit(where, insertLength);
+	}
+
+	@Override
+	public UndoableEdit remove(int where, int nitems) throws BadLocationException {
+		if (where + nitems >= length) {
+			throw new BadLocationException("Invalid remove", length + 1);
+		}
+		if (where < 0 || nitems < 0) {
+			throw new BadLocationException("Invalid remove", where);
+		}
+		MarkRefs removedMarks = getMarksInRange(where, nitems);
+		Pieces removedPieces = removePieces(where, nitems);
+		return new RemoveEdit(where, nitems, removedPieces, removedMarks);
+	}
+
+	@Override
+	public String getString(int where, int len) throws BadLocationException {
+		Segment segment = new Segment();
+		getChars(where, len, segment);
+		return new String(segment.array, segment.offset, segment.count);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * <p>Если фрагмент текста целиком лежит в одном буфере, сегмент ссылается на этот буфер без копирования.
+	 * Иначе текст копируется, если только сегмент не допускает частичный результат.</p>
+	 */
+	@Override
+	public void getChars(int where, int len, Segment chars) throws BadLocationException {
+		int end = where + len;
+		if (where < 0 || end < 0 || len < 0) {
+			throw new BadLocationException("Invalid location", -1);
+		}
+		if (end > length) {
+			throw new BadLocationException("Invalid location", length + 1);
+		}
+		if (len == 0) {
+			chars.array = pieceBuffers[0];
+			chars.offset = 0;
+			chars.count = 0;
+			return;
+		}
+
+		int piece = findPiece(where);
+		int pieceOffset = where - pieceStarts[piece];
+		int available = pieceLengths[piece] - pieceOffset;
+		if (available >= len || chars.isPartialReturn()) {
+			chars.array = pieceBuffers[piece];
+			chars.offset = pieceOffsets[piece] + pieceOffset;
+			chars.count = Math.min(available, len);
+			return;
+		}
+
+		char[] copy = new char[len];
+		copyChars(pieceBuffers, pieceOffsets, pieceLengths, pieceStarts, piece, where, len, copy, 0);
+		chars.array = copy;
+		chars.offset = 0;
+		chars.count = len;
+	}
+
+	@Override
+	public Position createPosition(int offset) throws BadLocationException {
+		while (queue.poll() != null) {
+			unusedMarks++;
+		}
+		if (unusedMarks > Math.max(5, markCount / 10)) {
+			removeUnusedMarks();
+		}
+
+		int index = offset < markGapStart ? offset : offset + markGapLength;
+		int sortIndex = findMarkByIndex(index);
+		if (sortIndex < markCount && marks[sortIndex].index == index) {
+			TrackedPosition position = marks[sortIndex].get();
+			if (position != null) {
+				return position;
+			}
+		}
+
+		TrackedPosition position = new TrackedPosition();
+		MarkData mark = new MarkData(index, position, queue);
+		position.mark = mark;
+		if (markCount == marks.length) {
+			marks = Arrays.copyOf(marks, 2 * markCount);
+		}
+		System.arraycopy(marks, sortIndex, marks, sortIndex + 1, markCount - sortIndex);
+		marks[sortIndex] = mark;
+		markCount++;
+		return position;
+	}
+
+	/**
+	 * Создает неизменяемый снимок части текста. Снимок ссылается на те же буферы, что и содержимое,
+	 * и копирует только описание фрагментов.
+	 *
+	 * @param start начало части текста
+	 * @param end конец части текста
+	 * @return снимок текста
+	 */
+	CharSequence snapshot(int start, int end) {
+		return new Snapshot(Arrays.copyOf(pieceBuffers, pieceCount), Arrays.copyOf(pieceOffsets, pieceCount),
+				Arrays.copyOf(pieceLengths, pieceCount), Arrays.copyOf(pieceStarts, pieceCount), start, end);
+	}
+
+	/**
+	 * @return число фрагментов, из которых сейчас состоит документ
+	 */
+	int getPieceCount() {
+		return pieceCount;
+	}
+
+	/**
+	 * Находит фрагмент, содержащий заданное смещение.
+	 *
+	 * @param offset смещение в документе, {@code 0 <= offset <= length}
+	 * @return номер фрагмента, или {@link #pieceCount} для смещения {@link #length}
+	 */
+	private int findPiece(int offset) {
+		return findPiece(pieceStarts, pieceCount, offset);
+	}
+
+	private static int findPiece(int[] starts, int count, int offset) {
+		int low = 0;
+		int high = count - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (starts[middle] <= offset) {
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return high;
+	}
+
+	/**
+	 * Делит фрагмент так, чтобы заданное смещение приходилось на начало фрагмента.
+	 *
+	 * @param offset смещение в документе
+	 * @return номер фрагмента, начинающегося с {@code offset}, или {@link #pieceCount} для конца документа
+	 */
+	private int splitAt(int offset) {
+		if (offset == length) {
+			return pieceCount;
+		}
+		int piece = findPiece(offset);
+		int headLength = offset - pieceStarts[piece];
+		if (headLength == 0) {
+			return piece;
+		}
+		openPieces(piece + 1, 1);
+		pieceBuffers[piece + 1] = pieceBuffers[piece];
+		pieceOffsets[piece + 1] = pieceOffsets[piece] + headLength;
+		pieceLengths[piece + 1] = pieceLengths[piece] - headLength;
+		pieceStarts[piece + 1] = offset;
+		pieceLengths[piece] = headLength;
+		return piece + 1;
+	}
+
+	/**
+	 * Освобождает в списке фрагментов место для {@code count} новых фрагментов перед фрагментом {@code piece}.
+	 */
+	private void openPieces(int piece, int count) {
+		if (pieceCount + count > pieceBuffers.length) {
+			int capacity = Math.max(2 * pieceBuffers.length, pieceCount + count);
+			pieceBuffers = Arrays.copyOf(pieceBuffers, capacity);
+			pieceOffsets = Arrays.copyOf(pieceOffsets, capacity);
+			pieceLengths = Arrays.copyOf(pieceLengths, capacity);
+			pieceStarts = Arrays.copyOf(pieceStarts, capacity);
+		}
+		int tail = pieceCount - piece;
+		System.arraycopy(pieceBuffers, piece, pieceBuffers, piece + count, tail);
+		System.arraycopy(pieceOffsets, piece, pieceOffsets, piece + count, tail);
+		System.arraycopy(pieceLengths, piece, pieceLengths, piece + count, tail);
+		System.arraycopy(pieceStarts, piece, pieceStarts, piece + count, tail);
+		pieceCount += count;
+	}
+
+	/**
+	 * Пересчитывает смещения фрагментов, начиная с заданного.
+	 */
+	private void updateStarts(int firstPiece) {
+		if (firstPiece == 0 && pieceCount > 0) {
+			pieceStarts[0] = 0;
+		}
+		for (int piece = Math.max(firstPiece, 1); piece < pieceCount; piece++) {
+			pieceStarts[piece] = pieceStarts[piece - 1] + pieceLengths[piece - 1];
+		}
+	}
+
+	/**
+	 * Вставляет фрагменты в заданное место документа.
+	 */
+	private void insertPieces(int where, Pieces pieces) {
+		int piece = splitAt(where);
+		openPieces(piece, pieces.count);
+		System.arraycopy(pieces.buffers, 0, pieceBuffers, piece, pieces.count);
+		System.arraycopy(pieces.offsets, 0, pieceOffsets, piece, pieces.count);
+		System.arraycopy(pieces.lengths, 0, pieceLengths, piece, pieces.count);
+		updateStarts(piece);
+		int insertLength = pieces.getLength();
+		length += insertLength;
+		marksInserted(where, insertLength);
+	}
+
+	/**
+	 * Исключает из документа фрагменты, составляющие заданную часть текста.
+	 *
+	 * @return исключенные фрагменты
+	 */
+	private Pieces removePieces(int where, int removeLength) {
+		int firstPiece = splitAt(where);
+		int endPiece = splitAt(where + removeLength);
+		int count = endPiece - firstPiece;
+		Pieces removed = new Pieces(Arrays.copyOfRange(pieceBuffers, firstPiece, endPiece),
+				Arrays.copyOfRange(pieceOffsets, firstPiece, endPiece),
+				Arrays.copyOfRange(pieceLengths, firstPiece, endPiece), count);
+
+		int tail = pieceCount - endPiece;
+		System.arraycopy(pieceBuffers, endPiece, pieceBuffers, firstPiece, tail);
+		System.arraycopy(pieceOffsets, endPiece, pieceOffsets, firstPiece, tail);
+		System.arraycopy(pieceLengths, endPiece, pieceLengths, firstPiece, tail);
+		System.arraycopy(pieceStarts, endPiece, pieceStarts, firstPiece, tail);
+		Arrays.fill(pieceBuffers, pieceCount - count, pieceCount, null);
+		pieceCount -= count;
+		updateStarts(firstPiece);
+		length -= removeLength;
+		marksRemoved(where, removeLength);
+		return removed;
+	}
+
+	/**
+	 * Копирует текст из фрагментов в массив.
+	 */
+	private static void copyChars(char[][] buffers, int[] offsets, int[] lengths, int[] starts, int firstPiece,
+			int where, int len, char[] destination, int destinationOffset) {
+		int piece = firstPiece;
+		int copied = 0;
+		int pieceOffset = where - starts[piece];
+		while (copied < len) {
+			int count = Math.min(lengths[piece] - pieceOffset, len - copied);
+			System.arraycopy(buffers[piece], offsets[piece] + pieceOffset, destination,
+					destinationOffset + copied, count);
+			copied += count;
+			piece++;
+			pieceOffset = 0;
+		}
+	}
+
+	// --- позиции -----------------------------------------------------
+
+	/**
+	 * @return смещение позиции с заданными данными
+	 */
+	private int offsetOf(MarkData mark) {
+		int index = mark.index;
+		// Позиции в начале документа имеют индекс 0, даже когда промежуток стоит в начале
+		return index < markGapStart ? index : Math.max(index - markGapLength, 0);
+	}
+
+	/**
+	 * @return номер первых в {@link #marks} данных позиции с индексом не меньше заданного
+	 */
+	private int findMarkByIndex(int index) {
+		int low = 0;
+		int high = markCount;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (marks[middle].index < index) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @return номер первых в {@link #marks} данных позиции со смещением не меньше заданного
+	 */
+	private int findMarkByOffset(int offset) {
+		int low = 0;
+		int high = markCount;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (offsetOf(marks[middle]) < offset) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Перемещает промежуток индексов к заданному смещению. Позиции с этим смещением оказываются
+	 * после промежутка.
+	 */
+	private void moveMarkGap(int newGapStart) {
+		if (newGapStart < markGapStart) {
+			for (int i = findMarkByIndex(newGapStart); i < markCount && marks[i].index < markGapStart; i++) {
+				marks[i].index += markGapLength;
+			}
+		} else if (newGapStart > markGapStart) {
+			int gapEnd = markGapStart + markGapLength;
+			int newGapEnd = newGapStart + markGapLength;
+			for (int i = findMarkByIndex(gapEnd); i < markCount && marks[i].index < newGapEnd; i++) {
+				marks[i].index -= markGapLength;
+			}
+		}
+		markGapStart = newGapStart;
+	}
+
+	/**
+	 * Изменяет длину промежутка, сдвигая индексы всех позиций после него.
+	 */
+	private void resizeMarkGap(int newGapLength) {
+		int delta = newGapLength - markGapLength;
+		for (int i = findMarkByIndex(markGapStart + markGapLength); i < markCount; i++) {
+			marks[i].index += delta;
+		}
+		markGapLength = newGapLength;
+	}
+
+	/**
+	 * Сдвигает позиции после вставки текста.
+	 */
+	private void marksInserted(int where, int insertLength) {
+		moveMarkGap(where);
+		if (markGapLength - insertLength < 1) {
+			resizeMarkGap(markGapLength + Math.max(insertLength, Math.max(length, MIN_MARK_GAP)));
+		}
+		if (where == 0) {
+			// Позиции в начале документа остаются на месте
+			resetMarksAtZero();
+		}
+		markGapStart += insertLength;
+		markGapLength -= insertLength;
+	}
+
+	/**
+	 * Сдвигает позиции после удаления текста: позиции внутри удаленной части схлопываются к ее началу.
+	 */
+	private void marksRemoved(int where, int removeLength) {
+		moveMarkGap(where);
+		int gapEnd = markGapStart + markGapLength;
+		int newGapEnd = gapEnd + removeLength;
+		for (int i = findMarkByIndex(gapEnd); i < markCount && marks[i].index <= newGapEnd; i++) {
+			marks[i].index = newGapEnd;
+		}
+		markGapLength += removeLength;
+		if (where == 0) {
+			// Схлопнутые позиции оказались в начале документа и, как у GapContent, отделяются от позиций,
+			// которые будут созданы в начале документа позже: иначе такая позиция совпала бы со схлопнутой
+			// и сдвинулась бы вместе с ней при отмене удаления
+			resetMarksAtZero();
+		}
+		if (markGapLength > MAX_MARK_GAP) {
+			resizeMarkGap(MIN_MARK_GAP);
+		}
+	}
+
+	/**
+	 * Переводит позиции в начале документа на индекс 0, когда промежуток стоит в начале документа.
+	 * Позиции с индексом 0 остаются в начале при вставке текста и не совпадают с позициями,
+	 * созданными в начале документа позже, у которых индекс равен концу промежутка.
+	 */
+	private void resetMarksAtZero() {
+		int gapEnd = markGapStart + markGapLength;
+		for (int i = 0; i < markCount && marks[i].index <= gapEnd; i++) {
+			marks[i].index = 0;
+		}
+	}
+
+	/**
+	 * Запоминает смещения позиций в части текста {@code [where, where + len]} перед ее удалением.
+	 */
+	private MarkRefs getMarksInRange(int where, int len) {
+		int first = findMarkByOffset(where);
+		int last = first;
+		while (last < markCount && offsetOf(marks[last]) <= where + len) {
+			last++;
+		}
+		MarkData[] rangeMarks = Arrays.copyOfRange(marks, first, last);
+		int[] offsets = new int[rangeMarks.length];
+		for (int i = 0; i < rangeMarks.length; i++) {
+			offsets[i] = offsetOf(rangeMarks[i]);
+		}
+		return new MarkRefs(rangeMarks, offsets);
+	}
+
+	/**
+	 * Возвращает позиции на места, запомненные перед удалением текста, после того как текст вставлен обратно.
+	 */
+	private void restoreMarks(MarkRefs refs, int where, int len) {
+		if (refs.marks.length == 0) {
+			return;
+		}
+		// Промежуток стоит сразу после вставленного текста. Запомненные позиции сейчас лежат в его начале
+		// или конце, а после восстановления — между ними, так что упорядочить нужно только этот участок.
+		int gapEnd = markGapStart + markGapLength;
+		int first = findMarkByIndex(where);
+		int end = findMarkByIndex(gapEnd + 1);
+		for (int i = 0; i < refs.marks.length; i++) {
+			int offset = refs.offsets[i];
+			refs.marks[i].index = offset < where + len ? offset : gapEnd;
+		}
+		Arrays.sort(marks, first, end, MARK_ORDER);
+	}
+
+	private void removeUnusedMarks() {
+		int liveCount = 0;
+		for (int i = 0; i < markCount; i++) {
+			if (marks[i].get() != null) {
+				marks[liveCount++] = marks[i];
+			}
+		}
+		Arrays.fill(marks, liveCount, markCount, null);
+		markCount = liveCount;
+		unusedMarks = 0;
+	}
+
+	private static final Comparator<MarkData> MARK_ORDER = new Comparator<MarkData>() {
+		@Override
+		public int compare(MarkData o1, MarkData o2) {
+			return o1.index < o2.index ? -1 : (o1.index == o2.index ? 0 : 1);
+		}
+	};
+
+	/**
+	 * Данные позиции, отделенные от самой позиции, чтобы неиспользуемые позиции собирались сборщиком мусора.
+	 */
+	private static final class MarkData extends WeakReference<TrackedPosition> {
+		private int index;
+
+		private MarkData(int index, TrackedPosition position, ReferenceQueue<TrackedPosition> queue) {
+			super(position, queue);
+			this.index = index;
+		}
+	}
+
+	private final class TrackedPosition implements Position {
+		private MarkData mark;
+
+		@Override
+		public int getOffset() {
+			return offsetOf(mark);
+		}
+
+		@Override
+		public String toString() {
+			return Integer.toString(getOffset());
+		}
+	}
+
+	/**
+	 * Позиции и их смещения, запомненные перед удалением текста.
+	 */
+	private static final class MarkRefs {
+		private final MarkData[] marks;
+		private final int[] offsets;
+
+		private MarkRefs(MarkData[] marks, int[] offsets) {
+			this.marks = marks;
+			this.offsets = offsets;
+		}
+	}
+
+	/**
+	 * Последовательность фрагментов, исключенная из документа или готовая к вставке.
+	 */
+	private static final class Pieces {
+		private final char[][] buffers;
+		private final int[] offsets;
+		private final int[] lengths;
+		private final int count;
+
+		private Pieces(char[][] buffers, int[] offsets, int[] lengths, int count) {
+			this.buffers = buffers;
+			this.offsets = offsets;
+			this.lengths = lengths;
+			this.count = count;
+		}
+
+		private int getLength() {
+			int total = 0;
+			for (int i = 0; i < count; i++) {
+				total += lengths[i];
+			}
+			return total;
+		}
+	}
+
+	// --- история отмены -----------------------------------------------
+
+	/**
+	 * Правка, вставившая текст.
+	 */
+	@SuppressWarnings("SerializableNonStaticInnerClassWithoutSerialVersionUID")
+	private final class InsertEdit extends AbstractUndoableEdit {
+		private final int offset;
+		private final int insertLength;
+		private Pieces pieces;
+		private MarkRefs removedMarks;
+
+		private InsertEdit(int offset, int insertLength) {
+			this.offset = offset;
+			this.insertLength = insertLength;
+		}
+
+		@Override
+		public void undo() throws CannotUndoException {
+			super.undo();
+			if (insertLength == 0) {
+				return;
+			}
+			removedMarks = getMarksInRange(offset, insertLength);
+			pieces = removePieces(offset, insertLength);
+		}
+
+		@Override
+		public void redo() throws CannotRedoException {
+			super.redo();
+			if (insertLength == 0) {
+				return;
+			}
+			insertPieces(offset, pieces);
+			restoreMarks(removedMarks, offset, insertLength);
+			pieces = null;
+			removedMarks = null;
+		}
+	}
+
+	/**
+	 * Правка, удалившая текст. Удаленные фрагменты хранятся в правке, поэтому текст не копируется.
+	 */
+	@SuppressWarnings("SerializableNonStaticInnerClassWithoutSerialVersionUID")
+	private final class RemoveEdit extends AbstractUndoableEdit {
+		private final int offset;
+		private final int removeLength;
+		private Pieces pieces;
+		private MarkRefs removedMarks;
+
+		private RemoveEdit(int offset, int removeLength, Pieces pieces, MarkRefs removedMarks) {
+			this.offset = offset;
+			this.removeLength = removeLength;
+			this.pieces = pieces;
+			this.removedMarks = removedMarks;
+		}
+
+		@Override
+		public void undo() throws CannotUndoException {
+			super.undo();
+			if (removeLength == 0) {
+				return;
+			}
+			insertPieces(offset, pieces);
+			restoreMarks(removedMarks, offset, removeLength);
+			pieces = null;
+			removedMarks = null;
+		}
+
+		@Override
+		public void redo() throws CannotRedoException {
+			super.redo();
+			if (removeLength == 0) {
+				return;
+			}
+			removedMarks = getMarksInRange(offset, removeLength);
+			pieces = removePieces(offset, removeLength);
+		}
+	}
+
+	// --- снимки -------------------------------------------------------
+
+	/**
+	 * Неизменяемый снимок части текста. Ссылается на буферы содержимого, которые не изменяются.
+	 */
+	private static final class Snapshot implements CharSequence {
+		private final char[][] buffers;
+		private final int[] offsets;
+		private final int[] lengths;
+		private final int[] starts;
+		private final int start;
+		private final int end;
+
+		private Snapshot(char[][] buffers, int[] offsets, int[] lengths, int[] starts, int start, int end) {
+			this.buffers = buffers;
+			this.offsets = offsets;
+			this.lengths = lengths;
+			this.starts = starts;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public int length() {
+			return end - start;
+		}
+
+		@Override
+		public char charAt(int index) {
+			if (index < 0 || index >= end - start) {
+				throw new IndexOutOfBoundsException(Integer.toString(index));
+			}
+			int offset = start + index;
+			int piece = findPiece(starts, starts.length, offset);
+			return buffers[piece][offsets[piece] + offset - starts[piece]];
+		}
+
+		@Override
+		public CharSequence subSequence(int from, int to) {
+			if (from < 0 || to > end - start || from > to) {
+				throw new IndexOutOfBoundsException(String.format("%d-%d", from, to));
+			}
+			return new Snapshot(buffers, offsets, lengths, starts, start + from, start + to);
+		}
+
+		@Override
+		public String toString() {
+			char[] text = new char[end - start];
+			if (text.length > 0) {
+				copyChars(buffers, offsets, lengths, starts, findPiece(starts, starts.length, start), start,
+						text.length, text, 0);
+			}
+			return new String(text);
+		}
+	}
+}
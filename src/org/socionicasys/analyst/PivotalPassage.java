@@ -0,0 +1,100 @@
+package org.socionicasys.analyst;
+
+import org.socionicasys.analyst.types.Sociotype;
+
+/**
+ * Результат анализа устойчивости для одной пометки: как изменились бы нормализованные коеффициенты
+ * соответствия ТИМов и лидер рейтинга, если бы этой пометки не было.
+ */
+public final class PivotalPassage {
+	/**
+	 * Интервал документа, к которому относится пометка.
+	 */
+	private final DocumentSection section;
+
+	/**
+	 * ТИМ с наибольшим коеффициентом соответствия при всех пометках, или {@code null}, если все коеффициенты нулевые.
+	 */
+	private final Sociotype leader;
+
+	/**
+	 * ТИМ с наибольшим коеффициентом соответствия без этой пометки, или {@code null}.
+	 */
+	private final Sociotype leaderWithout;
+
+	/**
+	 * Изменения нормализованных коеффициентов соответствия без этой пометки, по {@link Sociotype#ordinal()}.
+	 */
+	private final float[] shifts;
+
+	/**
+	 * Наибольшее по модулю изменение нормализованного коеффициента соответствия.
+	 */
+	private final float maxShift;
+
+	/**
+	 * @param section интервал документа с пометкой
+	 * @param leader лидер рейтинга при всех пометках
+	 * @param leaderWithout лидер рейтинга без этой пометки
+	 * @param shifts изменения нормализованных коеффициентов без этой пометки, по {@link Sociotype#ordinal()}
+	 */
+	PivotalPassage(DocumentSection section, Sociotype leader, Sociotype leaderWithout, float[] shifts) {
+		this.section = section;
+		this.leader = leader;
+		this.leaderWithout = leaderWithout;
+		this.shifts = shifts;
+
+		float max = 0f;
+		for (float shift : shifts) {
+			max = Math.max(max, Math.abs(shift));
+		}
+		maxShift = max;
+	}
+
+	public DocumentSection getSection() {
+		return section;
+	}
+
+	/**
+	 * @return лидер рейтинга при всех пометках, или {@code null}, если все коеффициенты нулевые
+	 */
+	public Sociotype getLeader() {
+		return leader;
+	}
+
+	/**
+	 * @return лидер рейтинга без этой пометки, или {@code null}, если без нее все коеффициенты нулевые
+	 */
+	public Sociotype getLeaderWithout() {
+		return leaderWithout;
+	}
+
+	/**
+	 * @return сменился бы лидер рейтинга без этой пометки
+	 */
+	public boolean isLeaderChanged() {
+		return leader != leaderWithout;
+	}
+
+	/**
+	 * @param sociotype ТИМ
+	 * @return изменение нормализованного коеффициента соответствия ТИМа без этой пометки
+	 */
+	public float getShift(Sociotype sociotype) {
+		return shifts[sociotype.ordinal()];
+	}
+
+	/**
+	 * @return изменение нормализованного коеффициента соответствия текущего лидера без этой пометки
+	 */
+	public float getLeaderShift() {
+		return leader == null ? 0f : getShift(leader);
+	}
+
+	/**
+	 * @return наибольшее по модулю изменение нормализованного коеффициента соответствия среди всех ТИМов
+	 */
+	public float getMaxShift() {
+		return maxShift;
+	}
+}
@@ -0,0 +1,210 @@
+package org.socionicasys.analyst;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.socionicasys.analyst.model.AData;
+import org.socionicasys.analyst.types.Sociotype;
+
+import java.awt.*;
+import java.util.Collections;
+import java.util.List;
+import javax.swing.*;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.TableRowSorter;
+import javax.swing.text.BadLocationException;
+
+/**
+ * Список ключевых фрагментов: пометки документа с тем, как изменился бы рейтинг ТИМов без каждой из них
+ * (см. {@link SensitivityAnalysis}). По умолчанию список отсортирован по убыванию наибольшего изменения
+ * коеффициента; выбор строки выделяет фрагмент в тексте.
+ */
+public class PivotalPassagesView extends JTable implements ADocumentChangeListener {
+	private static final Logger logger = LoggerFactory.getLogger(PivotalPassagesView.class);
+	private static final int MAX_PRESENTATION_CHARS = 100;
+	private static final float PERCENT = 100.0f;
+	private static final int MAX_SHIFT_COLUMN = 4;
+
+	private final PassageTableModel tableModel;
+	private final DocumentSelectionConnector selectionConnector;
+
+	/**
+	 * Счетчики, по которым построен список, и число их изменений на момент построения.
+	 */
+	private MatchMissModel analyzedModel;
+	private int analyzedModificationCount;
+
+	/**
+	 * Идет ли обновление таблицы; изменения выделения в это время не приводят к навигации.
+	 */
+	private boolean updating;
+
+	public PivotalPassagesView(DocumentHolder documentHolder, DocumentSelectionConnector selectionConnector) {
+		this.selectionConnector = selectionConnector;
+		tableModel = new PassageTableModel();
+		setModel(tableModel);
+
+		TableRowSorter<PassageTableModel> sorter = new TableRowSorter<PassageTableModel>(tableModel);
+		sorter.setSortKeys(Collections.singletonList(new RowSorter.SortKey(MAX_SHIFT_COLUMN, SortOrder.DESCENDING)));
+		setRowSorter(sorter);
+
+		setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+		getSelectionModel().addListSelectionListener(new ListSelectionListener() {
+			@Override
+			public void valueChanged(ListSelectionEvent e) {
+				if (!updating && !e.getValueIsAdjusting()) {
+					navigateToSelection();
+				}
+			}
+		});
+
+		updateTable(documentHolder.getModel());
+	}
+
+	/**
+	 * Пересчитывает список, только если изменились счетчики (не)совпадений. Цитаты и разметка читаются
+	 * из документа при отрисовке ячеек, поэтому правка текста или разметки без изменения счетчиков
+	 * требует лишь перерисовки таблицы.
+	 */
+	private void updateTable(ADocument document) {
+		MatchMissModel matchMissModel = document.getMatchMissModel();
+		if (matchMissModel == analyzedModel && analyzedModificationCount == matchMissModel.getModificationCount()) {
+			repaint();
+			return;
+		}
+		logger.debug("Match/miss counters have changed, updating pivotal passages");
+		analyzedModel = matchMissModel;
+		analyzedModificationCount = matchMissModel.getModificationCount();
+
+		DocumentSection selectedSection = null;
+		int selectedRow = getSelectedRow();
+		if (selectedRow >= 0) {
+			selectedSection = tableModel.getPassage(convertRowIndexToModel(selectedRow)).getSection();
+		}
+
+		List<PivotalPassage> passages = SensitivityAnalysis.analyze(matchMissModel);
+		updating = true;
+		try {
+			tableModel.setPassages(document, passages);
+			// Восстанавливаем выделение строки той же пометки, если она осталась в списке
+			if (selectedSection != null) {
+				for (int row = 0; row < passages.size(); row++) {
+					if (passages.get(row).getSection().equals(selectedSection)) {
+						int viewRow = convertRowIndexToView(row);
+						getSelectionModel().setSelectionInterval(viewRow, viewRow);
+						break;
+					}
+				}
+			}
+		} finally {
+			updating = false;
+		}
+	}
+
+	public JScrollPane getContainer() {
+		JScrollPane sp = new JScrollPane(this);
+		sp.setPreferredSize(new Dimension(200, 500));
+		return sp;
+	}
+
+	@Override
+	public void aDocumentChanged(ADocument document) {
+		updateTable(document);
+	}
+
+	/**
+	 * Выделяет в тексте фрагмент из выбранной строки.
+	 */
+	private void navigateToSelection() {
+		int row = getSelectedRow();
+		if (row < 0) {
+			return;
+		}
+		PivotalPassage passage = tableModel.getPassage(convertRowIndexToModel(row));
+		logger.trace("Pivotal passage {} initiated navigation", passage.getSection());
+		selectionConnector.selectSectionAt(passage.getSection().getStartOffset());
+	}
+
+	/**
+	 * Модель таблицы ключевых фрагментов.
+	 */
+	private static class PassageTableModel extends AbstractTableModel {
+		private static final String[] COLUMN_NAMES = {"Passage", "Markup", "Leader without", "Leader Δ", "Max Δ"};
+		private static final Class<?>[] COLUMN_CLASSES = {String.class, String.class, String.class,
+			Float.class, Float.class};
+
+		private ADocument document;
+		private List<PivotalPassage> passages;
+
+		PassageTableModel() {
+			passages = Collections.emptyList();
+		}
+
+		void setPassages(ADocument document, List<PivotalPassage> passages) {
+			this.document = document;
+			this.passages = passages;
+			fireTableDataChanged();
+		}
+
+		/**
+		 * Читает начало текста пометки по ее текущим границам.
+		 */
+		private String getQuote(DocumentSection section) {
+			int sectionOffset = section.getStartOffset();
+			int sectionLength = Math.abs(section.getEndOffset() - sectionOffset);
+			int quoteLength = Math.min(sectionLength, MAX_PRESENTATION_CHARS);
+			try {
+				return String.format("...%s...", document.getText(sectionOffset, quoteLength));
+			} catch (BadLocationException e) {
+				logger.error("Illegal document location in getQuote()", e);
+				return "";
+			}
+		}
+
+		PivotalPassage getPassage(int row) {
+			return passages.get(row);
+		}
+
+		@Override
+		public int getRowCount() {
+			return passages.size();
+		}
+
+		@Override
+		public int getColumnCount() {
+			return COLUMN_NAMES.length;
+		}
+
+		@Override
+		public String getColumnName(int column) {
+			return COLUMN_NAMES[column];
+		}
+
+		@Override
+		public Class<?> getColumnClass(int column) {
+			return COLUMN_CLASSES[column];
+		}
+
+		@Override
+		public Object getValueAt(int row, int column) {
+			PivotalPassage passage = passages.get(row);
+			switch (column) {
+			case 0:
+				return getQuote(passage.getSection());
+			case 1:
+				AData data = document.getAData(passage.getSection());
+				return data == null ? "" : data.toString();
+			case 2:
+				Sociotype leaderWithout = passage.getLeaderWithout();
+				return leaderWithout == null ? "" : leaderWithout.getAbbreviation();
+			case 3:
+				return PERCENT * passage.getLeaderShift();
+			case MAX_SHIFT_COLUMN:
+				return PERCENT * passage.getMaxShift();
+			default:
+				throw new IndexOutOfBoundsException("Unknown column " + column);
+			}
+		}
+	}
+}
@@ -1,6 +1,8 @@
 package org.socionicasys.analyst;
 
 import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import javax.swing.*;
@@ -22,6 +24,17 @@ public class ProgressWindow implements PropertyChangeListener {
 	private final JProgressBar progressBar;
 
 	public ProgressWindow(Frame parent, String message) {
+		this(parent, message, null);
+	}
+
+	/**
+	 * Создает окно с индикатором хода операции и кнопкой ее отмены.
+	 *
+	 * @param parent окно, над которым показывается индикатор
+	 * @param message сообщение об операции
+	 * @param cancellableWorker фоновая операция, которую можно отменить, или {@code null}, если отмена не нужна
+	 */
+	public ProgressWindow(Frame parent, String message, final SwingWorker<?, ?> cancellableWorker) {
 		progressBar = new JProgressBar(SwingConstants.HORIZONTAL, MIN_VALUE, MAX_VALUE);
 		progressBar.setMaximumSize(new Dimension(PROGRESS_WIDTH, PROGRESS_HEIGHT));
 		progressBar.setPreferredSize(new Dimension(PROGRESS_WIDTH, PROGRESS_HEIGHT));
@@ -36,6 +49,21 @@ public class ProgressWindow implements PropertyChangeListener {
 		label = new JLabel(message);
 		outerPanel.add(label, BorderLayout.WEST);
 		outerPanel.add(innerPanel, BorderLayout.CENTER);
+		if (cancellableWorker != null) {
+			JButton cancelButton = new JButton("Cancel");
+			cancelButton.addActionListener(new ActionListener() {
+				@Override
+				public void actionPerformed(ActionEvent e) {
+					cancellableWorker.cancel(false);
+				}
+			});
+			JPanel buttonPanel = new JPanel();
+			buttonPanel.setLayout(new BoxLayout(buttonPanel, BoxLayout.Y_AXIS));
+			buttonPanel.add(Box.createVerticalGlue());
+			buttonPanel.add(cancelButton);
+			buttonPanel.add(Box.createVerticalGlue());
+			outerPanel.add(buttonPanel, BorderLayout.EAST);
+		}
 
 		dialog = new JDialog(parent, "Please wait, operation in progress...", false);
 		dialog.setContentPane(outerPanel);
@@ -0,0 +1,49 @@
+package org.socionicasys.analyst;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.socionicasys.analyst.model.AData;
+import org.socionicasys.analyst.predicates.RuleSet;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Подсчет (не)совпадений с ТИМами по одной и той же разметке для нескольких наборов правил
+ * {@link RuleSet}, чтобы сравнить, как варианты правил меняют рейтинг.
+ */
+public final class RuleSetComparison {
+	private static final Logger logger = LoggerFactory.getLogger(RuleSetComparison.class);
+
+	private RuleSetComparison() {
+	}
+
+	/**
+	 * Сверяет все пометки со всеми наборами правил за один проход по разметке.
+	 *
+	 * @param markup разметка всех пометок документа
+	 * @param ruleSets наборы правил
+	 * @return счетчики (не)совпадений для каждого набора правил, в том же порядке
+	 */
+	public static List<MatchMissModel> evaluate(Collection<AData> markup, List<RuleSet> ruleSets) {
+		logger.trace("evaluate(): entering, {} marks, {} rule sets", markup.size(), ruleSets.size());
+		int[][] classifications = new int[ruleSets.size()][markup.size()];
+		int mark = 0;
+		for (AData data : markup) {
+			for (int ruleSet = 0; ruleSet < ruleSets.size(); ruleSet++) {
+				classifications[ruleSet][mark] = ruleSets.get(ruleSet).classify(data);
+			}
+			mark++;
+		}
+
+		List<MatchMissModel> models = new ArrayList<MatchMissModel>(ruleSets.size());
+		for (int[] ruleSetClassifications : classifications) {
+			MatchMissModel matchMissModel = new MatchMissModel();
+			matchMissModel.recalculate(ruleSetClassifications);
+			models.add(matchMissModel);
+		}
+		logger.trace("evaluate(): leaving");
+		return models;
+	}
+}
@@ -0,0 +1,100 @@
+package org.socionicasys.analyst;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.socionicasys.analyst.model.AData;
+import org.socionicasys.analyst.predicates.RuleSet;
+import org.socionicasys.analyst.types.Sociotype;
+
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import javax.swing.*;
+import javax.swing.filechooser.FileNameExtensionFilter;
+import javax.swing.table.DefaultTableModel;
+
+/**
+ * Сравнивает рейтинг ТИМов текущего документа по встроенным правилам сверки с моделью А и по вариантам правил
+ * из выбранных пользователем файлов {@code .rules} (см. {@link RuleSet}), без пересборки программы.
+ */
+@SuppressWarnings("serial")
+public class RuleSetComparisonAction extends AbstractAction {
+	private static final Logger logger = LoggerFactory.getLogger(RuleSetComparisonAction.class);
+	private static final String EXTENSION = "rules";
+	private static final float PERCENT = 100.0f;
+
+	private final Component parent;
+	private final DocumentHolder documentHolder;
+	private final JFileChooser fileChooser;
+
+	RuleSetComparisonAction(Component parent, DocumentHolder documentHolder) {
+		super("Compare rule sets...");
+		this.parent = parent;
+		this.documentHolder = documentHolder;
+		fileChooser = new JFileChooser();
+		fileChooser.setDialogTitle("Choose rule sets to compare");
+		fileChooser.setMultiSelectionEnabled(true);
+		fileChooser.setFileFilter(new FileNameExtensionFilter(String.format("Files .%s", EXTENSION), EXTENSION));
+	}
+
+	@Override
+	public void actionPerformed(ActionEvent e) {
+		if (fileChooser.showOpenDialog(parent) != JFileChooser.APPROVE_OPTION) {
+			return;
+		}
+
+		List<RuleSet> ruleSets = new ArrayList<RuleSet>();
+		try {
+			ruleSets.add(RuleSet.fromResource(RuleSet.DEFAULT_RULES));
+			for (File file : fileChooser.getSelectedFiles()) {
+				ruleSets.add(RuleSet.fromFile(file));
+			}
+		} catch (IOException ex) {
+			logger.error("Error while reading rule set", ex);
+			JOptionPane.showMessageDialog(parent, String.format("Failed to read rule set:\n%s", ex.getMessage()),
+				"Rule set error", JOptionPane.ERROR_MESSAGE);
+			return;
+		} catch (IllegalArgumentException ex) {
+			logger.warn("Invalid rule set", ex);
+			JOptionPane.showMessageDialog(parent, String.format("Invalid rule set:\n%s", ex.getMessage()),
+				"Rule set error", JOptionPane.ERROR_MESSAGE);
+			return;
+		}
+
+		// Сравнение должно учитывать все изменения документа
+		documentHolder.flushNotifications();
+		Collection<AData> markup = documentHolder.getModel().getADataMap().values();
+		List<MatchMissModel> models = RuleSetComparison.evaluate(markup, ruleSets);
+
+		Object[] columnNames = new Object[ruleSets.size() + 1];
+		columnNames[0] = "TIM";
+		for (int i = 0; i < ruleSets.size(); i++) {
+			columnNames[i + 1] = ruleSets.get(i).getName();
+		}
+		Sociotype[] sociotypes = Sociotype.values();
+		Object[][] rows = new Object[sociotypes.length][columnNames.length];
+		for (int row = 0; row < sociotypes.length; row++) {
+			rows[row][0] = sociotypes[row].getAbbreviation();
+			for (int i = 0; i < models.size(); i++) {
+				MatchMissItem item = models.get(i).get(sociotypes[row]);
+				rows[row][i + 1] = String.format("%3.0f (%d/%d)", PERCENT * item.getScaledCoefficient(),
+					item.getMatchCount(), item.getMissCount());
+			}
+		}
+
+		JTable table = new JTable(new DefaultTableModel(rows, columnNames) {
+			@Override
+			public boolean isCellEditable(int row, int column) {
+				return false;
+			}
+		});
+		table.setFont(new Font(Font.MONOSPACED, Font.PLAIN, table.getFont().getSize()));
+		JScrollPane scrollPane = new JScrollPane(table);
+		scrollPane.setPreferredSize(new Dimension(Math.min(150 * columnNames.length, 900), 320));
+		JOptionPane.showMessageDialog(parent, scrollPane, "Rule set comparison", JOptionPane.PLAIN_MESSAGE);
+	}
+}
@@ -0,0 +1,108 @@
+package org.socionicasys.analyst;
+
+import org.socionicasys.analyst.model.AData;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Набор изменений разметки документа, применяемых одной операцией
+ * {@link ADocument#applySectionChanges(SectionChangeBatch)}: с одним проходом перерисовки,
+ * одной записью в истории отмены и одним оповещением слушателей.
+ *
+ * <p>Изменения применяются в том порядке, в котором были добавлены в набор.</p>
+ */
+public final class SectionChangeBatch {
+	/**
+	 * Тип отдельного изменения.
+	 */
+	enum OperationType {
+		ADD,
+		UPDATE,
+		REMOVE
+	}
+
+	/**
+	 * Отдельное изменение разметки.
+	 */
+	static final class Operation {
+		private final OperationType type;
+		private final DocumentSection section;
+		private final AData data;
+
+		private Operation(OperationType type, DocumentSection section, AData data) {
+			this.type = type;
+			this.section = section;
+			this.data = data;
+		}
+
+		OperationType getType() {
+			return type;
+		}
+
+		DocumentSection getSection() {
+			return section;
+		}
+
+		AData getData() {
+			return data;
+		}
+	}
+
+	private final List<Operation> operations;
+
+	public SectionChangeBatch() {
+		operations = new ArrayList<Operation>();
+	}
+
+	/**
+	 * Добавляет в набор создание новой пометки.
+	 *
+	 * @param section интервал новой пометки
+	 * @param data данные разметки
+	 */
+	public void add(DocumentSection section, AData data) {
+		operations.add(new Operation(OperationType.ADD, section, data));
+	}
+
+	/**
+	 * Добавляет в набор замену данных существующей пометки.
+	 *
+	 * @param section интервал пометки
+	 * @param data новые данные разметки
+	 */
+	public void update(DocumentSection section, AData data) {
+		operations.add(new Operation(OperationType.UPDATE, section, data));
+	}
+
+	/**
+	 * Добавляет в набор удаление пометки.
+	 *
+	 * @param section интервал, разметку которого нужно удалить
+	 */
+	public void remove(DocumentSection section) {
+		operations.add(new Operation(OperationType.REMOVE, section, null));
+	}
+
+	/**
+	 * @return {@code true}, если набор не содержит изменений
+	 */
+	public boolean isEmpty() {
+		return operations.isEmpty();
+	}
+
+	/**
+	 * @return число изменений в наборе
+	 */
+	public int size() {
+		return operations.size();
+	}
+
+	/**
+	 * @return изменения в порядке их добавления
+	 */
+	List<Operation> getOperations() {
+		return Collections.unmodifiableList(operations);
+	}
+}
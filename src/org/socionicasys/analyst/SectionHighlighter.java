@@ -0,0 +1,188 @@
+package org.socionicasys.analyst;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.socionicasys.analyst.model.AData;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultHighlighter;
+import javax.swing.text.Document;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.Position;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.View;
+import java.awt.*;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Подсветка текстового поля, рисующая фон пометок документа ({@link ADocument#isHighlightingSections()})
+ * под остальными выделениями. Интервалы для каждого фрагмента текста берутся из индекса разметки документа,
+ * так что пометки не требуют ни атрибутов текста, ни записей в истории отмены. При изменении разметки
+ * перерисовываются только добавленные и удаленные пометки.
+ */
+@SuppressWarnings("serial")
+public class SectionHighlighter extends DefaultHighlighter implements ADocumentDeltaListener, PropertyChangeListener {
+	/**
+	 * Цвет фона пометок.
+	 */
+	private static final Color SECTION_BACKGROUND = StyleConstants.getBackground(ADocument.DEFAULT_SECTION_STYLE);
+
+	/**
+	 * Текстовое поле, к которому подключена подсветка.
+	 */
+	private JTextComponent component;
+
+	/**
+	 * Документ, на изменения разметки в котором подписана подсветка.
+	 */
+	private ADocument document;
+
+	private static final Logger logger = LoggerFactory.getLogger(SectionHighlighter.class);
+
+	@Override
+	public void install(JTextComponent c) {
+		super.install(c);
+		component = c;
+		component.addPropertyChangeListener("document", this);
+		attachDocument(component.getDocument());
+	}
+
+	@Override
+	public void deinstall(JTextComponent c) {
+		attachDocument(null);
+		component.removePropertyChangeListener("document", this);
+		component = null;
+		super.deinstall(c);
+	}
+
+	/**
+	 * Вызывается при смене документа в текстовом поле.
+	 *
+	 * @param evt событие смены документа
+	 */
+	@Override
+	public void propertyChange(PropertyChangeEvent evt) {
+		attachDocument((Document) evt.getNewValue());
+	}
+
+	/**
+	 * Перерисовывает добавленные и удаленные пометки документа. Изменение данных пометки ее фон не меняет,
+	 * а текст при вставке и удалении перерисовывает сам текстовый компонент.
+	 *
+	 * @param event изменения в документе
+	 */
+	@Override
+	public void aDocumentChanged(ADocumentChangeEvent event) {
+		if (component == null || !event.getDocument().isHighlightingSections()) {
+			return;
+		}
+		if (event.isFullRefresh()) {
+			component.repaint();
+			return;
+		}
+		damageSections(event.getAddedSections());
+		damageSections(event.getRemovedSections());
+	}
+
+	/**
+	 * Помечает для перерисовки текст интервалов.
+	 *
+	 * @param sections интервалы документа
+	 */
+	private void damageSections(Map<DocumentSection, AData> sections) {
+		int length = document.getLength();
+		for (DocumentSection section : sections.keySet()) {
+			int start = Math.min(section.getStartOffset(), length);
+			int end = Math.min(section.getEndOffset(), length);
+			if (start < end) {
+				component.getUI().damageRange(component, start, end);
+			}
+		}
+	}
+
+	/**
+	 * Подписывается на изменения в новом документе текстового поля.
+	 *
+	 * @param newDocument новый документ, или {@code null}
+	 */
+	private void attachDocument(Document newDocument) {
+		if (document != null) {
+			document.removeADocumentDeltaListener(this);
+		}
+		document = newDocument instanceof ADocument ? (ADocument) newDocument : null;
+		if (document != null) {
+			document.addADocumentDeltaListener(this);
+		}
+	}
+
+	@Override
+	public void paintLayeredHighlights(Graphics g, int p0, int p1, Shape viewBounds,
+			JTextComponent editor, View view) {
+		if (document != null && document.isHighlightingSections()) {
+			paintSections(g, p0, p1, viewBounds, view);
+		}
+		super.paintLayeredHighlights(g, p0, p1, viewBounds, editor, view);
+	}
+
+	/**
+	 * Закрашивает части фрагмента текста {@code [p0, p1)}, которые входят в пометки документа.
+	 *
+	 * @param g графический контекст
+	 * @param p0 начало фрагмента, отображаемого {@code view}
+	 * @param p1 конец фрагмента
+	 * @param viewBounds границы {@code view}
+	 * @param view представление фрагмента текста
+	 */
+	private void paintSections(Graphics g, int p0, int p1, Shape viewBounds, View view) {
+		Collection<DocumentSection> sections = new ArrayList<DocumentSection>();
+		document.collectSections(p0, p1, sections);
+		if (sections.isEmpty()) {
+			return;
+		}
+
+		g.setColor(SECTION_BACKGROUND);
+		// Интервалы упорядочены по началу, поэтому пересекающиеся интервалы закрашиваются одним прямоугольником
+		int rangeStart = -1;
+		int rangeEnd = -1;
+		for (DocumentSection section : sections) {
+			int start = Math.max(section.getStartOffset(), p0);
+			int end = Math.min(section.getEndOffset(), p1);
+			if (start >= end) {
+				continue;
+			}
+			if (rangeStart >= 0 && start <= rangeEnd) {
+				rangeEnd = Math.max(rangeEnd, end);
+			} else {
+				if (rangeStart >= 0) {
+					paintRange(g, rangeStart, rangeEnd, p0, p1, viewBounds, view);
+				}
+				rangeStart = start;
+				rangeEnd = end;
+			}
+		}
+		if (rangeStart >= 0) {
+			paintRange(g, rangeStart, rangeEnd, p0, p1, viewBounds, view);
+		}
+	}
+
+	private static void paintRange(Graphics g, int start, int end, int p0, int p1, Shape viewBounds, View view) {
+		Rectangle bounds;
+		if (start == p0 && end == p1) {
+			bounds = viewBounds instanceof Rectangle ? (Rectangle) viewBounds : viewBounds.getBounds();
+		} else {
+			try {
+				Shape shape = view.modelToView(start, Position.Bias.Forward, end, Position.Bias.Backward, viewBounds);
+				bounds = shape instanceof Rectangle ? (Rectangle) shape : shape.getBounds();
+			} catch (BadLocationException e) {
+				logger.error("Invalid section range {}-{} while painting", start, end);
+				logger.error("Exception thrown: ", e);
+				return;
+			}
+		}
+		g.fillRect(bounds.x, bounds.y, bounds.width, bounds.height);
+	}
+}
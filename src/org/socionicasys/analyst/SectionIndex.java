@@ -0,0 +1,381 @@
+package org.socionicasys.analyst;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Индекс интервалов документа ({@link DocumentSection}), упорядоченных по смещению начала.
+ * Реализован как декартово дерево (treap), каждая вершина которого хранит ссылку на интервал
+ * с максимальным концом в своем поддереве.
+ *
+ * <p>Индекс не хранит смещения в виде чисел: все сравнения выполняются по текущим смещениям
+ * интервалов. Правки текста сдвигают позиции документа монотонно, поэтому порядок вершин и
+ * выбранные «максимальные» интервалы остаются корректными без перестройки дерева.
+ * Если правка меняет конец интервала немонотонно, интервал нужно удалить из индекса
+ * и добавить заново. Отмена удаления текста возвращает позиции на прежние места немонотонно,
+ * и после нее индекс перестраивается целиком ({@link #rebuild()}).</p>
+ */
+final class SectionIndex {
+	/**
+	 * Вершина дерева.
+	 */
+	private static final class Node {
+		private final DocumentSection section;
+		private final int priority;
+		private Node left;
+		private Node right;
+
+		/**
+		 * Интервал с максимальным смещением конца среди всех интервалов поддерева.
+		 */
+		private DocumentSection maxEndSection;
+
+		private Node(DocumentSection section, int priority) {
+			this.section = section;
+			this.priority = priority;
+			maxEndSection = section;
+		}
+	}
+
+	private final Random random;
+	private Node root;
+	private int size;
+
+	/**
+	 * Вершина, удаленная последним вызовом {@link #remove(Node, DocumentSection, int)}.
+	 */
+	private Node removedNode;
+
+	/**
+	 * Состояние поиска в {@link #findInnermost(int)}: лучший найденный интервал и его характеристики.
+	 */
+	private DocumentSection bestSection;
+	private int bestDistance;
+	private int bestStart;
+	private int bestEnd;
+
+	SectionIndex() {
+		random = new Random();
+	}
+
+	/**
+	 * @return число интервалов в индексе
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Удаляет из индекса все интервалы.
+	 */
+	void clear() {
+		root = null;
+		size = 0;
+	}
+
+	/**
+	 * Перестраивает индекс заново. Нужно вызывать, если границы интервалов изменились немонотонно,
+	 * например когда отмена удаления текста вернула позиции документа на прежние места.
+	 */
+	void rebuild() {
+		List<DocumentSection> sections = new ArrayList<DocumentSection>(size);
+		collectAll(root, sections);
+		Collections.sort(sections);
+		clear();
+		for (DocumentSection section : sections) {
+			add(section);
+		}
+	}
+
+	/**
+	 * Добавляет интервал в индекс.
+	 *
+	 * @param section интервал для добавления
+	 */
+	void add(DocumentSection section) {
+		root = insert(root, new Node(section, random.nextInt()));
+		size++;
+	}
+
+	/**
+	 * Удаляет из индекса интервал, равный заданному.
+	 *
+	 * @param section интервал для удаления
+	 * @return {@code true}, если такой интервал был в индексе
+	 */
+	boolean remove(DocumentSection section) {
+		removedNode = null;
+		root = remove(root, section, section.getStartOffset());
+		if (removedNode == null) {
+			return false;
+		}
+		removedNode = null;
+		size--;
+		return true;
+	}
+
+	/**
+	 * Находит интервал, содержащий заданную позицию. Если таких интервалов несколько, выбирается тот,
+	 * центр которого ближе всего к позиции, а среди равноудаленных — наиболее вложенный интервал: с наибольшим
+	 * смещением начала, а при равных началах — с наименьшим смещением конца. Из интервалов с одинаковыми
+	 * границами выбирается созданный последним.
+	 *
+	 * @param pos позиция в документе
+	 * @return найденный интервал, или {@code null}, если позиция не входит ни в один интервал
+	 */
+	DocumentSection findInnermost(int pos) {
+		bestSection = null;
+		collectInnermost(root, pos);
+		DocumentSection result = bestSection;
+		bestSection = null;
+		return result;
+	}
+
+	/**
+	 * Находит интервал, начинающийся в заданной позиции.
+	 *
+	 * @param offset смещение начала интервала
+	 * @return интервал, начинающийся в {@code offset}, или {@code null}, если такого нет
+	 */
+	DocumentSection exact(int offset) {
+		DocumentSection ceiling = ceiling(offset);
+		return ceiling != null && ceiling.getStartOffset() == offset ? ceiling : null;
+	}
+
+	/**
+	 * Находит интервал с заданными границами.
+	 *
+	 * @param start смещение начала интервала
+	 * @param end смещение конца интервала
+	 * @return интервал с границами {@code [start, end)}, или {@code null}, если такого нет
+	 */
+	DocumentSection find(int start, int end) {
+		return find(root, start, end);
+	}
+
+	/**
+	 * Находит интервал с наибольшим смещением начала, не превышающим заданное.
+	 *
+	 * @param offset смещение в документе
+	 * @return ближайший интервал, начинающийся не позже {@code offset}, или {@code null}
+	 */
+	DocumentSection floor(int offset) {
+		DocumentSection result = null;
+		Node node = root;
+		while (node != null) {
+			int start = node.section.getStartOffset();
+			if (start == offset) {
+				return node.section;
+			}
+			if (start < offset) {
+				result = node.section;
+				node = node.right;
+			} else {
+				node = node.left;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Находит интервал с наименьшим смещением начала, не меньшим заданного.
+	 *
+	 * @param offset смещение в документе
+	 * @return ближайший интервал, начинающийся не раньше {@code offset}, или {@code null}
+	 */
+	DocumentSection ceiling(int offset) {
+		DocumentSection result = null;
+		Node node = root;
+		while (node != null) {
+			int start = node.section.getStartOffset();
+			if (start == offset) {
+				return node.section;
+			}
+			if (start > offset) {
+				result = node.section;
+				node = node.left;
+			} else {
+				node = node.right;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Добавляет в коллекцию все интервалы, пересекающиеся с диапазоном {@code [start, end]} или касающиеся его
+	 * (в смысле {@link DocumentSection#intersects(DocumentSection)}), в порядке возрастания начала.
+	 *
+	 * @param start начало диапазона
+	 * @param end конец диапазона
+	 * @param result коллекция, в которую добавляются найденные интервалы
+	 */
+	void collectIntersecting(int start, int end, Collection<DocumentSection> result) {
+		collectIntersecting(root, start, end, result);
+	}
+
+	private static void collectIntersecting(Node node, int start, int end, Collection<DocumentSection> result) {
+		if (node == null || node.maxEndSection.getEndOffset() < start) {
+			return;
+		}
+		collectIntersecting(node.left, start, end, result);
+
+		DocumentSection section = node.section;
+		if (section.getStartOffset() > end) {
+			// все интервалы правого поддерева начинаются еще позже
+			return;
+		}
+		if (section.getEndOffset() >= start) {
+			result.add(section);
+		}
+		collectIntersecting(node.right, start, end, result);
+	}
+
+	private static DocumentSection find(Node node, int start, int end) {
+		while (node != null) {
+			int nodeStart = node.section.getStartOffset();
+			if (start < nodeStart) {
+				node = node.left;
+			} else if (start > nodeStart) {
+				node = node.right;
+			} else if (node.section.getEndOffset() == end) {
+				return node.section;
+			} else {
+				// Интервалы с одинаковым началом могут оказаться в обоих поддеревьях
+				DocumentSection section = find(node.left, start, end);
+				return section != null ? section : find(node.right, start, end);
+			}
+		}
+		return null;
+	}
+
+	private static void collectAll(Node node, Collection<DocumentSection> result) {
+		if (node == null) {
+			return;
+		}
+		collectAll(node.left, result);
+		result.add(node.section);
+		collectAll(node.right, result);
+	}
+
+	private void collectInnermost(Node node, int pos) {
+		if (node == null || node.maxEndSection.getEndOffset() <= pos) {
+			return;
+		}
+		collectInnermost(node.left, pos);
+
+		DocumentSection section = node.section;
+		int start = section.getStartOffset();
+		if (start > pos) {
+			// все интервалы правого поддерева начинаются еще позже
+			return;
+		}
+		int end = section.getEndOffset();
+		if (pos < end) {
+			int distance = Math.abs(pos - (start + end) / 2);
+			if (bestSection == null || distance < bestDistance || distance == bestDistance
+					&& (start > bestStart || start == bestStart && (end < bestEnd
+					|| end == bestEnd && section.getId() > bestSection.getId()))) {
+				bestSection = section;
+				bestDistance = distance;
+				bestStart = start;
+				bestEnd = end;
+			}
+		}
+		collectInnermost(node.right, pos);
+	}
+
+	private Node insert(Node node, Node newNode) {
+		if (node == null) {
+			return newNode;
+		}
+		if (newNode.section.getStartOffset() < node.section.getStartOffset()) {
+			node.left = insert(node.left, newNode);
+			if (node.left.priority > node.priority) {
+				return rotateRight(node);
+			}
+		} else {
+			node.right = insert(node.right, newNode);
+			if (node.right.priority > node.priority) {
+				return rotateLeft(node);
+			}
+		}
+		update(node);
+		return node;
+	}
+
+	private Node remove(Node node, DocumentSection section, int start) {
+		if (node == null) {
+			return null;
+		}
+		int nodeStart = node.section.getStartOffset();
+		if (start < nodeStart) {
+			node.left = remove(node.left, section, start);
+		} else if (start > nodeStart) {
+			node.right = remove(node.right, section, start);
+		} else if (node.section.equals(section)) {
+			removedNode = node;
+			return merge(node.left, node.right);
+		} else {
+			// Интервалы с одинаковым началом могут оказаться в обоих поддеревьях
+			node.left = remove(node.left, section, start);
+			if (removedNode == null) {
+				node.right = remove(node.right, section, start);
+			}
+		}
+		update(node);
+		return node;
+	}
+
+	private static Node merge(Node left, Node right) {
+		if (left == null) {
+			return right;
+		}
+		if (right == null) {
+			return left;
+		}
+		if (left.priority > right.priority) {
+			left.right = merge(left.right, right);
+			update(left);
+			return left;
+		} else {
+			right.left = merge(left, right.left);
+			update(right);
+			return right;
+		}
+	}
+
+	private static Node rotateRight(Node node) {
+		Node pivot = node.left;
+		node.left = pivot.right;
+		pivot.right = node;
+		update(node);
+		update(pivot);
+		return pivot;
+	}
+
+	private static Node rotateLeft(Node node) {
+		Node pivot = node.right;
+		node.right = pivot.left;
+		pivot.left = node;
+		update(node);
+		update(pivot);
+		return pivot;
+	}
+
+	/**
+	 * Пересчитывает ссылку на интервал с максимальным концом для вершины по ее потомкам.
+	 */
+	private static void update(Node node) {
+		DocumentSection maxEnd = node.section;
+		if (node.left != null && node.left.maxEndSection.getEndOffset() > maxEnd.getEndOffset()) {
+			maxEnd = node.left.maxEndSection;
+		}
+		if (node.right != null && node.right.maxEndSection.getEndOffset() > maxEnd.getEndOffset()) {
+			maxEnd = node.right.maxEndSection;
+		}
+		node.maxEndSection = maxEnd;
+	}
+}
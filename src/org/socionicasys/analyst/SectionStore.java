@@ -0,0 +1,126 @@
+package org.socionicasys.analyst;
+
+import org.socionicasys.analyst.model.AData;
+
+import javax.swing.text.BadLocationException;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Хранилище разметки документа. Данные разметки хранятся по номерам интервалов
+ * ({@link DocumentSection#getId()}), которые не меняются при правках текста, поэтому поиск данных
+ * интервала не зависит от его текущего положения. Хранилище также отвечает за поиск интервалов
+ * по их положению в документе.
+ *
+ * @see IndexedSectionStore
+ * @see CompactSectionStore
+ */
+interface SectionStore {
+	/**
+	 * Создает новый интервал, пока не связанный с разметкой.
+	 *
+	 * @param startOffset начальное смещение интервала
+	 * @param endOffset конечное смещение интервала
+	 * @return созданный интервал с номером, уникальным в пределах хранилища
+	 * @throws BadLocationException когда начальное/конечное смещения находятся вне границ документа
+	 */
+	DocumentSection createSection(int startOffset, int endOffset) throws BadLocationException;
+
+	/**
+	 * Корректирует интервалы после вставки текста в документ.
+	 *
+	 * @param offset позиция вставки
+	 * @param length длина вставленного текста
+	 */
+	void insertUpdate(int offset, int length);
+
+	/**
+	 * Корректирует интервалы после того, как отмена удаления или повтор вставки вернули фрагмент текста
+	 * в документ.
+	 */
+	void textRestored();
+
+	/**
+	 * @return число интервалов с разметкой
+	 */
+	int size();
+
+	/**
+	 * @param section интервал документа
+	 * @return есть ли у интервала разметка
+	 */
+	boolean contains(DocumentSection section);
+
+	/**
+	 * @param section интервал документа
+	 * @return данные разметки интервала, или {@code null}, если их нет
+	 */
+	AData get(DocumentSection section);
+
+	/**
+	 * Связывает интервал с данными разметки.
+	 *
+	 * @param section интервал, созданный {@link #createSection(int, int)}
+	 * @param data данные разметки интервала
+	 */
+	void put(DocumentSection section, AData data);
+
+	/**
+	 * Удаляет разметку интервала.
+	 *
+	 * @param section интервал документа
+	 * @return данные разметки, которые были связаны с интервалом, или {@code null}
+	 */
+	AData remove(DocumentSection section);
+
+	/**
+	 * @return неизменяемое отображение интервалов на их разметку
+	 */
+	Map<DocumentSection, AData> asMap();
+
+	/**
+	 * Находит интервал, содержащий заданную позицию. Если таких интервалов несколько, выбирается тот,
+	 * центр которого ближе всего к позиции, а среди равноудаленных — наиболее вложенный интервал: с наибольшим
+	 * смещением начала, а при равных началах — с наименьшим смещением конца. Из интервалов с одинаковыми
+	 * границами выбирается созданный последним.
+	 *
+	 * @param pos позиция в документе
+	 * @return найденный интервал, или {@code null}, если позиция не входит ни в один интервал
+	 */
+	DocumentSection findInnermost(int pos);
+
+	/**
+	 * @param start смещение начала интервала
+	 * @param end смещение конца интервала
+	 * @return интервал с границами {@code [start, end)}, или {@code null}, если такого нет
+	 */
+	DocumentSection find(int start, int end);
+
+	/**
+	 * @param offset смещение начала интервала
+	 * @return интервал, начинающийся в {@code offset}, или {@code null}, если такого нет
+	 */
+	DocumentSection exact(int offset);
+
+	/**
+	 * @param offset смещение в документе
+	 * @return интервал с наибольшим началом, не превышающим {@code offset}, или {@code null}
+	 */
+	DocumentSection floor(int offset);
+
+	/**
+	 * @param offset смещение в документе
+	 * @return интервал с наименьшим началом, не меньшим {@code offset}, или {@code null}
+	 */
+	DocumentSection ceiling(int offset);
+
+	/**
+	 * Добавляет в коллекцию все интервалы, пересекающиеся с диапазоном {@code [start, end]} или касающиеся его,
+	 * в порядке возрастания начала.
+	 *
+	 * @param start начало диапазона
+	 * @param end конец диапазона
+	 * @param result коллекция, в которую добавляются найденные интервалы
+	 */
+	void collectIntersecting(int start, int end, Collection<DocumentSection> result);
+}
@@ -0,0 +1,99 @@
+package org.socionicasys.analyst;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.socionicasys.analyst.types.Sociotype;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Анализ устойчивости рейтинга ТИМов к исключению отдельных пометок.
+ *
+ * <p>Вклад пометки в счетчики {@link MatchMissModel} полностью описывается ее масками соответствия:
+ * без нее у ТИМов из маски соответствия на одно совпадение меньше, у ТИМов из маски несоответствия
+ * на одно несовпадение меньше. Поэтому коеффициенты без каждой пометки получаются из общих счетчиков
+ * за время, не зависящее от числа пометок, и весь анализ занимает линейное время, а не квадратичное,
+ * как при пересчете документа без каждой из пометок по очереди.</p>
+ */
+public final class SensitivityAnalysis {
+	private static final Logger logger = LoggerFactory.getLogger(SensitivityAnalysis.class);
+
+	private static final Sociotype[] SOCIOTYPES = Sociotype.values();
+
+	private SensitivityAnalysis() {
+	}
+
+	/**
+	 * Для каждой учтенной в счетчиках пометки вычисляет, как изменились бы нормализованные коеффициенты
+	 * соответствия и лидер рейтинга, если бы ее не было.
+	 *
+	 * @param matchMissModel счетчики (не)совпадений документа
+	 * @return результаты анализа для всех пометок, влияющих на счетчики, в произвольном порядке
+	 */
+	public static List<PivotalPassage> analyze(MatchMissModel matchMissModel) {
+		logger.trace("analyze(): entering");
+		int sociotypeCount = SOCIOTYPES.length;
+		int[] matchCounts = new int[sociotypeCount];
+		int[] missCounts = new int[sociotypeCount];
+		float[] coefficients = new float[sociotypeCount];
+		for (Sociotype sociotype : SOCIOTYPES) {
+			MatchMissItem matchMissItem = matchMissModel.get(sociotype);
+			int index = sociotype.ordinal();
+			matchCounts[index] = matchMissItem.getMatchCount();
+			missCounts[index] = matchMissItem.getMissCount();
+			coefficients[index] = matchMissItem.getScaledCoefficient();
+		}
+		Sociotype leader = findLeader(coefficients);
+
+		Map<DocumentSection, Integer> classifications = matchMissModel.getClassifications();
+		List<PivotalPassage> passages = new ArrayList<PivotalPassage>(classifications.size());
+		for (Map.Entry<DocumentSection, Integer> entry : classifications.entrySet()) {
+			int classification = entry.getValue();
+			int accordMask = classification & 0xFFFF;
+			int discordMask = classification >>> 16;
+
+			float[] coefficientsWithout = new float[sociotypeCount];
+			float maxCoefficient = 0f;
+			for (int index = 0; index < sociotypeCount; index++) {
+				int matchCount = matchCounts[index] - (accordMask >>> index & 1);
+				int missCount = missCounts[index] - (discordMask >>> index & 1);
+				float coefficient = MatchMissItem.getRawCoefficient(matchCount, missCount);
+				coefficientsWithout[index] = coefficient;
+				if (maxCoefficient < coefficient) {
+					maxCoefficient = coefficient;
+				}
+			}
+
+			// При нулевом максимуме все коеффициенты нулевые при любом масштабе
+			float scale = maxCoefficient == 0f ? 1f : MatchMissModel.getScale(maxCoefficient);
+			float[] shifts = new float[sociotypeCount];
+			for (int index = 0; index < sociotypeCount; index++) {
+				coefficientsWithout[index] = MatchMissItem.getScaledCoefficient(coefficientsWithout[index], scale);
+				shifts[index] = coefficientsWithout[index] - coefficients[index];
+			}
+
+			passages.add(new PivotalPassage(entry.getKey(), leader, findLeader(coefficientsWithout), shifts));
+		}
+		logger.trace("analyze(): leaving, {} passages", passages.size());
+		return passages;
+	}
+
+	/**
+	 * @param coefficients нормализованные коеффициенты соответствия по {@link Sociotype#ordinal()}
+	 * @return ТИМ с наибольшим коеффициентом (при равенстве — первый по порядку), или {@code null},
+	 * если все коеффициенты нулевые
+	 */
+	private static Sociotype findLeader(float[] coefficients) {
+		Sociotype leader = null;
+		float maxCoefficient = 0f;
+		for (int index = 0; index < coefficients.length; index++) {
+			if (maxCoefficient < coefficients[index]) {
+				maxCoefficient = coefficients[index];
+				leader = SOCIOTYPES[index];
+			}
+		}
+		return leader;
+	}
+}
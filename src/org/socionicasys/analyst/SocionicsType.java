@@ -1,6 +1,7 @@
 package org.socionicasys.analyst;
 
 import org.socionicasys.analyst.model.AData;
+import org.socionicasys.analyst.model.Markup;
 import org.socionicasys.analyst.predicates.*;
 import org.socionicasys.analyst.types.Aspect;
 import org.socionicasys.analyst.types.Sign;
@@ -12,6 +13,13 @@ import java.util.*;
  * Содержит в себе код сверки социотипа и набора данных из пометок.
  */
 public final class SocionicsType {
+	/**
+	 * Списки предикатов, уже выведенные из разметки. Различных вариантов разметки немного,
+	 * поэтому кэш не ограничивается.
+	 */
+	private static final Map<Markup, Collection<Predicate>> PREDICATE_CACHE =
+			Collections.synchronizedMap(new HashMap<Markup, Collection<Predicate>>());
+
 	private SocionicsType() {
 	}
 
@@ -23,45 +31,82 @@ public final class SocionicsType {
 	 * @return соответствует ли ТИМ отметке
 	 */
 	public static CheckResult matches(Sociotype type, Collection<Predicate> predicates) {
-		boolean successFound = false;
+		int discordMask = getDiscordMask(predicates);
+		return CheckResult.fromMasks(type, getAccordMask(predicates, discordMask), discordMask);
+	}
+
+	/**
+	 * Вычисляет маску ТИМов, которые не соответствуют отметке: хотя бы один предикат отметки
+	 * для них не выполняется.
+	 *
+	 * @param predicates список предикатов из текстовой отметки
+	 * @return маска несоответствующих отметке ТИМов
+	 */
+	public static int getDiscordMask(Collection<Predicate> predicates) {
+		int discordMask = 0;
 		for (Predicate predicate : predicates) {
-			switch (predicate.check(type)) {
-			case FAIL:
-				return CheckResult.FAIL;
-			case IGNORE:
-				break;
-			case SUCCESS:
-				successFound = true;
-				break;
-			}
+			discordMask |= predicate.getDiscordMask();
 		}
-		return successFound ? CheckResult.SUCCESS : CheckResult.IGNORE;
+		return discordMask;
 	}
 
 	/**
-	 * Преобразует набор отметок в список предикатов.
+	 * Вычисляет маску ТИМов, которые соответствуют отметке: ни один предикат отметки не провален
+	 * и хотя бы один выполняется.
+	 *
+	 * @param predicates список предикатов из текстовой отметки
+	 * @param discordMask маска несоответствующих отметке ТИМов, см. {@link #getDiscordMask(Collection)}
+	 * @return маска соответствующих отметке ТИМов
+	 */
+	public static int getAccordMask(Collection<Predicate> predicates, int discordMask) {
+		int accordMask = 0;
+		for (Predicate predicate : predicates) {
+			accordMask |= predicate.getAccordMask();
+		}
+		return accordMask & ~discordMask;
+	}
+
+	/**
+	 * Преобразует набор отметок в список предикатов. Список выводится один раз для каждой различной
+	 * разметки и затем берется из кэша, поэтому его нельзя изменять.
 	 *
 	 * @param data данные из отметки
-	 * @return список предикатов для отметки
+	 * @return неизменяемый список предикатов для отметки
 	 */
 	public static Collection<Predicate> createPredicates(AData data) {
+		Markup markup = data.getMarkup();
+		Collection<Predicate> predicates = PREDICATE_CACHE.get(markup);
+		if (predicates == null) {
+			predicates = derivePredicates(data);
+			PREDICATE_CACHE.put(markup, predicates);
+		}
+		return predicates;
+	}
+
+	/**
+	 * Выводит список предикатов из разметки отметки.
+	 *
+	 * @param data данные из отметки
+	 * @return неизменяемый список предикатов для отметки
+	 */
+	private static Collection<Predicate> derivePredicates(AData data) {
 		String aspectCode = data.getAspect();
 		if (aspectCode == null) {
 			return Collections.emptyList();
 		}
 
 		Aspect baseAspect = Aspect.byAbbreviation(aspectCode);
-		Collection<Predicate> predicates = new ArrayList<Predicate>();
+		List<Predicate> predicates = new ArrayList<Predicate>();
 
 		String secondAspectCode = data.getSecondAspect();
 		if (secondAspectCode != null) {
 			String modifier = data.getModifier();
 			Aspect toAspect = Aspect.byAbbreviation(secondAspectCode);
 			if (AData.BLOCK.equals(modifier)) {
-				predicates.add(new BlockPredicate(baseAspect, toAspect));
+				predicates.add(PredicateRegistry.block(baseAspect, toAspect));
 			}
 			else if (AData.JUMP.equals(modifier)) {
-				predicates.add(new JumpPredicate(baseAspect, toAspect));
+				predicates.add(PredicateRegistry.jump(baseAspect, toAspect));
 			}
 		}
 
@@ -75,28 +120,28 @@ public final class SocionicsType {
 			} else {
 				throw new IllegalArgumentException("Illegal sign in SocionicsType.matches()");
 			}
-			predicates.add(new SignPredicate(baseAspect, convertedSign));
+			predicates.add(PredicateRegistry.sign(baseAspect, convertedSign));
 		}
 
 		String dimension = data.getDimension();
 		if (dimension != null) {
 			Predicate dimensionPredicate;
 			if (dimension.equals(AData.D1)) {
-				dimensionPredicate = new DimensionPredicate(baseAspect, 1);
+				dimensionPredicate = PredicateRegistry.dimension(baseAspect, 1);
 			} else if (dimension.equals(AData.D2)) {
-				dimensionPredicate = new DimensionPredicate(baseAspect, 2);
+				dimensionPredicate = PredicateRegistry.dimension(baseAspect, 2);
 			} else if (dimension.equals(AData.D3)) {
-				dimensionPredicate = new DimensionPredicate(baseAspect, 3);
+				dimensionPredicate = PredicateRegistry.dimension(baseAspect, 3);
 			} else if (dimension.equals(AData.D4)) {
-				dimensionPredicate = new DimensionPredicate(baseAspect, 4);
+				dimensionPredicate = PredicateRegistry.dimension(baseAspect, 4);
 			} else if (dimension.equals(AData.MALOMERNOST)) {
-				dimensionPredicate = new LowDimensionPredicate(baseAspect);
+				dimensionPredicate = PredicateRegistry.lowDimension(baseAspect);
 			} else if (dimension.equals(AData.MNOGOMERNOST)) {
-				dimensionPredicate = new HighDimensionPredicate(baseAspect);
+				dimensionPredicate = PredicateRegistry.highDimension(baseAspect);
 			} else if (dimension.equals(AData.ODNOMERNOST)) {
-				dimensionPredicate = new Dimension1Predicate(baseAspect);
+				dimensionPredicate = PredicateRegistry.dimension1(baseAspect);
 			} else if (dimension.equals(AData.INDIVIDUALNOST)) {
-				dimensionPredicate = new IndividualityPredicate(baseAspect);
+				dimensionPredicate = PredicateRegistry.individuality(baseAspect);
 			} else {
 				throw new IllegalArgumentException("Illegal dimension in SocionicsType.matches()");
 			}
@@ -107,13 +152,13 @@ public final class SocionicsType {
 		if (fd != null) {
 			Predicate fdPredicate;
 			if (fd.equals(AData.MENTAL)) {
-				fdPredicate = new MentalPredicate(baseAspect);
+				fdPredicate = PredicateRegistry.mental(baseAspect);
 			} else if (fd.equals(AData.VITAL)) {
-				fdPredicate = new VitalPredicate(baseAspect);
+				fdPredicate = PredicateRegistry.vital(baseAspect);
 			} else if (fd.equals(AData.EVALUATORY)) {
-				fdPredicate = new EvaluatoryPredicate(baseAspect);
+				fdPredicate = PredicateRegistry.evaluatory(baseAspect);
 			} else if (fd.equals(AData.SITUATIONAL)) {
-				fdPredicate = new SituationalPredicate(baseAspect);
+				fdPredicate = PredicateRegistry.situational(baseAspect);
 			} else {
 				throw new IllegalArgumentException("Illegal FD in SocionicsType.matches()");
 			}
@@ -124,19 +169,19 @@ public final class SocionicsType {
 		if (blocks != null) {
 			Predicate blocksPredicate;
 			if (blocks.equals(AData.EGO)) {
-				blocksPredicate = new EgoPredicate(baseAspect);
+				blocksPredicate = PredicateRegistry.ego(baseAspect);
 			} else if (blocks.equals(AData.SUPEREGO)) {
-				blocksPredicate = new SuperegoPredicate(baseAspect);
+				blocksPredicate = PredicateRegistry.superego(baseAspect);
 			} else if (blocks.equals(AData.SUPERID)) {
-				blocksPredicate = new SuperidPredicate(baseAspect);
+				blocksPredicate = PredicateRegistry.superid(baseAspect);
 			} else if (blocks.equals(AData.ID)) {
-				blocksPredicate = new IdPredicate(baseAspect);
+				blocksPredicate = PredicateRegistry.id(baseAspect);
 			} else {
 				throw new IllegalArgumentException("Illegal Blocks in SocionicsType.matches()");
 			}
 			predicates.add(blocksPredicate);
 		}
 
-		return predicates;
+		return predicates.isEmpty() ? Collections.<Predicate>emptyList() : Collections.unmodifiableList(predicates);
 	}
 }
@@ -22,6 +22,9 @@ public class TextPane extends JTextPane implements ModelChangedListener<ADocumen
 		super(documentHolder.getModel());
 		documentHolder.addModelChangedListener(this);
 
+		// Фон пометок рисуется подсветкой, если документ не хранит его в атрибутах текста
+		setHighlighter(new SectionHighlighter());
+
 		// Replace the built-in  behavior when the caret highlight
 		// becomes invisible when focus moves to another component
 		setCaret(new HighlightCaret());
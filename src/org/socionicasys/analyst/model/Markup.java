@@ -0,0 +1,361 @@
+package org.socionicasys.analyst.model;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.socionicasys.analyst.model.AData.*;
+
+/**
+ * Comment-free part of {@link AData}: aspect, optional block or transfer to a second aspect, sign,
+ * dimension, functional dichotomy and block.
+ *
+ * <p>All fields are packed as indices into the value tables below into a single {@code int}, together with
+ * the cached result of {@link #isValid()}. A protocol repeats a few dozen distinct combinations over and over,
+ * so instances are shared: {@link #of} and {@link #parse} return one instance per combination from a pool
+ * common to all open documents. Values that are not in the tables are kept as strings in an unshared
+ * instance, and such mark-up is never valid.</p>
+ */
+public final class Markup implements Serializable {
+	private static final long serialVersionUID = -2412765180843567221L;
+
+	/**
+	 * Aspect values; index 0 means no value. {@link AData#DOUBT} is only valid as the main aspect.
+	 */
+	private static final String[] ASPECTS = {null, L, P, R, E, S, F, T, I, DOUBT};
+	private static final String[] MODIFIERS = {null, BLOCK, JUMP};
+	private static final String[] SIGNS = {null, PLUS, MINUS};
+	private static final String[] DIMENSIONS = {null, D1, D2, D3, D4, MALOMERNOST, MNOGOMERNOST, ODNOMERNOST, INDIVIDUALNOST};
+	private static final String[] FDS = {null, MENTAL, VITAL, EVALUATORY, SITUATIONAL};
+	private static final String[] BLOCKS = {null, EGO, SUPEREGO, SUPERID, ID};
+
+	private static final char BLOCK_TOKEN = '\u2715';
+	private static final char JUMP_TOKEN = '\u2794';
+	private static final char SEPARATOR = ';';
+
+	/**
+	 * Bit layout of {@link #code}: index of each field in its value table, and the validity flag.
+	 */
+	private static final int ASPECT_SHIFT = 0;
+	private static final int SECOND_ASPECT_SHIFT = 4;
+	private static final int MODIFIER_SHIFT = 8;
+	private static final int SIGN_SHIFT = 10;
+	private static final int DIMENSION_SHIFT = 12;
+	private static final int FD_SHIFT = 16;
+	private static final int BLOCKS_SHIFT = 19;
+	private static final int VALID_FLAG = 1 << 22;
+
+	private static final int ASPECT_BITS = 0xF;
+	private static final int MODIFIER_BITS = 0x3;
+	private static final int SIGN_BITS = 0x3;
+	private static final int DIMENSION_BITS = 0xF;
+	private static final int FD_BITS = 0x7;
+	private static final int BLOCKS_BITS = 0x7;
+
+	private static final int DOUBT_INDEX = ASPECTS.length - 1;
+
+	/**
+	 * Shared instances by {@link #code}.
+	 */
+	private static final Map<Integer, Markup> POOL = new HashMap<Integer, Markup>();
+
+	/**
+	 * Number of requests served by {@link #POOL}.
+	 */
+	private static long poolRequests;
+
+	/**
+	 * Packed mark-up fields and validity flag.
+	 */
+	private final int code;
+
+	/**
+	 * Mark-up fields in {@link #of} argument order if one of them is not in its value table, otherwise {@code null}.
+	 */
+	private final String[] unknownValues;
+
+	/**
+	 * Cached result of {@link #toString()}.
+	 */
+	private transient String representation;
+
+	private Markup(int code, String[] unknownValues) {
+		this.code = code;
+		this.unknownValues = unknownValues;
+	}
+
+	/**
+	 * @return shared instance of the given mark-up, or a new instance if some value is not in its table
+	 */
+	public static Markup of(String aspect, String secondAspect, String sign, String dimension, String fd,
+			String blocks, String modifier) {
+		int aspectIndex = indexOf(ASPECTS, aspect);
+		int secondAspectIndex = indexOf(ASPECTS, secondAspect);
+		int signIndex = indexOf(SIGNS, sign);
+		int dimensionIndex = indexOf(DIMENSIONS, dimension);
+		int fdIndex = indexOf(FDS, fd);
+		int blocksIndex = indexOf(BLOCKS, blocks);
+		int modifierIndex = indexOf(MODIFIERS, modifier);
+		if (aspectIndex < 0 || secondAspectIndex < 0 || signIndex < 0 || dimensionIndex < 0 || fdIndex < 0
+				|| blocksIndex < 0 || modifierIndex < 0) {
+			return new Markup(0, new String[] {aspect, secondAspect, sign, dimension, fd, blocks, modifier});
+		}
+		return intern(pack(aspectIndex, secondAspectIndex, modifierIndex, signIndex, dimensionIndex, fdIndex,
+				blocksIndex));
+	}
+
+	private static Markup intern(int code) {
+		synchronized (POOL) {
+			poolRequests++;
+			Markup markup = POOL.get(code);
+			if (markup == null) {
+				markup = new Markup(code, null);
+				POOL.put(code, markup);
+			}
+			return markup;
+		}
+	}
+
+	/**
+	 * Describes how much the shared instances save: how many mark-up instances were requested from the pool
+	 * since start-up, and how many distinct instances actually exist.
+	 *
+	 * @return one-line pool report for the log
+	 */
+	public static String getPoolReport() {
+		synchronized (POOL) {
+			long shared = poolRequests - POOL.size();
+			return String.format("markup pool: %d distinct instances for %d requests, %d duplicates avoided (%.1f%%)",
+					POOL.size(), poolRequests, shared, poolRequests == 0 ? 0.0 : 100.0 * shared / poolRequests);
+		}
+	}
+
+	public String getAspect() {
+		return unknownValues == null ? ASPECTS[field(ASPECT_SHIFT, ASPECT_BITS)] : unknownValues[0];
+	}
+
+	public String getModifier() {
+		return unknownValues == null ? MODIFIERS[field(MODIFIER_SHIFT, MODIFIER_BITS)] : unknownValues[6];
+	}
+
+	public String getSecondAspect() {
+		return unknownValues == null ? ASPECTS[field(SECOND_ASPECT_SHIFT, ASPECT_BITS)] : unknownValues[1];
+	}
+
+	public String getSign() {
+		return unknownValues == null ? SIGNS[field(SIGN_SHIFT, SIGN_BITS)] : unknownValues[2];
+	}
+
+	public String getDimension() {
+		return unknownValues == null ? DIMENSIONS[field(DIMENSION_SHIFT, DIMENSION_BITS)] : unknownValues[3];
+	}
+
+	public String getFD() {
+		return unknownValues == null ? FDS[field(FD_SHIFT, FD_BITS)] : unknownValues[4];
+	}
+
+	public String getBlocks() {
+		return unknownValues == null ? BLOCKS[field(BLOCKS_SHIFT, BLOCKS_BITS)] : unknownValues[5];
+	}
+
+	/**
+	 * @return {@code true} when the mark-up is in the finished state.
+	 */
+	public boolean isValid() {
+		return (code & VALID_FLAG) != 0;
+	}
+
+	@Override
+	public String toString() {
+		String result = representation;
+		if (result == null) {
+			result = buildRepresentation();
+			representation = result;
+		}
+		return result;
+	}
+
+	private String buildRepresentation() {
+		if (!isValid()) {
+			return "(Incomplete mark-up)";
+		}
+
+		StringBuilder builder = new StringBuilder(getAspect());
+		String modifier = getModifier();
+		if (BLOCK.equals(modifier)) {
+			builder.append(BLOCK_TOKEN).append(getSecondAspect()).append(SEPARATOR);
+		} else if (JUMP.equals(modifier)) {
+			builder.append(JUMP_TOKEN).append(getSecondAspect()).append(SEPARATOR);
+		} else {
+			builder.append(SEPARATOR);
+		}
+
+		String sign = getSign();
+		if (sign != null) {
+			builder.append(sign).append(SEPARATOR);
+		}
+		String dimension = getDimension();
+		if (dimension != null) {
+			builder.append(dimension).append(SEPARATOR);
+		}
+		String fd = getFD();
+		if (fd != null) {
+			builder.append(fd).append(SEPARATOR);
+		}
+		String blocks = getBlocks();
+		if (blocks != null) {
+			builder.append(blocks);
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Parses mark-up in the format produced by {@link #toString()}, for example {@code Ti✕Se;PLUS;Ego}:
+	 * the aspect, optionally followed by a block or transfer sign and the second aspect, then a separator,
+	 * then the sign, dimension and functional dichotomy, each followed by a separator, and the block.
+	 * All parts after the first separator are optional. Leading spaces are skipped.
+	 *
+	 * @param s mark-up string
+	 * @return shared instance of the parsed mark-up
+	 * @throws IllegalArgumentException if the string is not valid mark-up
+	 */
+	public static Markup parse(String s) {
+		if (s == null) {
+			throw new IllegalArgumentException("Parse string cannot be null");
+		}
+
+		int length = s.length();
+		int position = 0;
+		while (position < length && s.charAt(position) == ' ') {
+			position++;
+		}
+
+		int aspectIndex = matchToken(s, position, ASPECTS);
+		if (aspectIndex <= 0) {
+			throw invalidMarkup(s);
+		}
+		position += ASPECTS[aspectIndex].length();
+
+		int modifierIndex = 0;
+		int secondAspectIndex = 0;
+		if (position < length && (s.charAt(position) == BLOCK_TOKEN || s.charAt(position) == JUMP_TOKEN)) {
+			modifierIndex = indexOf(MODIFIERS, s.charAt(position) == BLOCK_TOKEN ? BLOCK : JUMP);
+			secondAspectIndex = matchToken(s, position + 1, ASPECTS);
+			if (secondAspectIndex <= 0 || secondAspectIndex == DOUBT_INDEX) {
+				throw invalidMarkup(s);
+			}
+			position += 1 + ASPECTS[secondAspectIndex].length();
+		}
+		if (position >= length || s.charAt(position) != SEPARATOR) {
+			throw invalidMarkup(s);
+		}
+		position++;
+
+		int signIndex = matchTerminatedToken(s, position, SIGNS);
+		if (signIndex > 0) {
+			position += SIGNS[signIndex].length() + 1;
+		}
+		int dimensionIndex = matchTerminatedToken(s, position, DIMENSIONS);
+		if (dimensionIndex > 0) {
+			position += DIMENSIONS[dimensionIndex].length() + 1;
+		}
+		int fdIndex = matchTerminatedToken(s, position, FDS);
+		if (fdIndex > 0) {
+			position += FDS[fdIndex].length() + 1;
+		}
+		int blocksIndex = 0;
+		if (position < length) {
+			blocksIndex = matchToken(s, position, BLOCKS);
+			if (blocksIndex <= 0 || position + BLOCKS[blocksIndex].length() != length) {
+				throw invalidMarkup(s);
+			}
+		}
+
+		return intern(pack(aspectIndex, secondAspectIndex, modifierIndex, signIndex, dimensionIndex, fdIndex,
+				blocksIndex));
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof Markup)) {
+			return false;
+		}
+
+		Markup markup = (Markup) obj;
+		return code == markup.code && Arrays.equals(unknownValues, markup.unknownValues);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * code + Arrays.hashCode(unknownValues);
+	}
+
+	/**
+	 * Replaces a deserialized instance with the shared one.
+	 */
+	private Object readResolve() {
+		return unknownValues == null ? intern(code) : this;
+	}
+
+	private int field(int shift, int bits) {
+		return (code >>> shift) & bits;
+	}
+
+	/**
+	 * Packs table indices of the mark-up fields and their validity into a single code.
+	 */
+	private static int pack(int aspect, int secondAspect, int modifier, int sign, int dimension, int fd, int blocks) {
+		int code = aspect << ASPECT_SHIFT | secondAspect << SECOND_ASPECT_SHIFT | modifier << MODIFIER_SHIFT
+				| sign << SIGN_SHIFT | dimension << DIMENSION_SHIFT | fd << FD_SHIFT | blocks << BLOCKS_SHIFT;
+		boolean valid = aspect != 0 && secondAspect != DOUBT_INDEX && (modifier == 0 || secondAspect != 0);
+		return valid ? code | VALID_FLAG : code;
+	}
+
+	/**
+	 * @return index of the value in the table, 0 for {@code null}, or -1 if the value is not in the table
+	 */
+	private static int indexOf(String[] values, String value) {
+		if (value == null) {
+			return 0;
+		}
+		for (int i = 1; i < values.length; i++) {
+			if (values[i].equals(value)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return index of the table value that occurs in the string at the given position, or 0 if there is none
+	 */
+	private static int matchToken(String s, int position, String[] values) {
+		for (int i = 1; i < values.length; i++) {
+			if (s.startsWith(values[i], position)) {
+				return i;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @return index of the table value that occurs in the string at the given position followed by a separator,
+	 * or 0 if there is none
+	 */
+	private static int matchTerminatedToken(String s, int position, String[] values) {
+		int index = matchToken(s, position, values);
+		if (index == 0) {
+			return 0;
+		}
+		int end = position + values[index].length();
+		return end < s.length() && s.charAt(end) == SEPARATOR ? index : 0;
+	}
+
+	private static IllegalArgumentException invalidMarkup(String s) {
+		return new IllegalArgumentException(String.format("Invalid markup data '%s'", s));
+	}
+}
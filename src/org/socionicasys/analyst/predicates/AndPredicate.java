@@ -1,29 +1,40 @@
 package org.socionicasys.analyst.predicates;
 
 import org.socionicasys.analyst.types.Sociotype;
+import org.socionicasys.analyst.types.SociotypeMasks;
 
 /**
  * Составной предикат, который проходит проверку, если все дочерние претикаты ее проходит.
  */
 public class AndPredicate extends CompositePredicate {
+	private final short accordMask;
+	private final short discordMask;
+
 	public AndPredicate(Predicate... predicates) {
 		super(predicates);
+		// Проверка проваливается, если провален хоть один дочерний предикат
+		int accord = 0;
+		int discord = 0;
+		for (Predicate predicate : predicates) {
+			accord |= predicate.getAccordMask();
+			discord |= predicate.getDiscordMask();
+		}
+		accordMask = (short) (accord & ~discord);
+		discordMask = (short) discord;
 	}
 
 	@Override
 	public CheckResult check(Sociotype sociotype) {
-		boolean successFound = false;
-		for (Predicate predicate : getChildren()) {
-			switch (predicate.check(sociotype)) {
-			case FAIL:
-				return CheckResult.FAIL;
-			case IGNORE:
-				break;
-			case SUCCESS:
-				successFound = true;
-				break;
-			}
-		}
-		return successFound ? CheckResult.SUCCESS : CheckResult.IGNORE;
+		return CheckResult.fromMasks(sociotype, getAccordMask(), getDiscordMask());
+	}
+
+	@Override
+	public int getAccordMask() {
+		return accordMask & SociotypeMasks.ALL;
+	}
+
+	@Override
+	public int getDiscordMask() {
+		return discordMask & SociotypeMasks.ALL;
 	}
 }
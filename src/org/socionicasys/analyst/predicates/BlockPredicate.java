@@ -2,6 +2,7 @@ package org.socionicasys.analyst.predicates;
 
 import org.socionicasys.analyst.types.Aspect;
 import org.socionicasys.analyst.types.Sociotype;
+import org.socionicasys.analyst.types.SociotypeMasks;
 import org.socionicasys.analyst.util.EqualsUtil;
 import org.socionicasys.analyst.util.HashUtil;
 
@@ -19,18 +20,38 @@ public class BlockPredicate implements Predicate {
 	 */
 	private final Aspect destinationAspect;
 
+	/**
+	 * ТИМы, у которых функции с заданными аспектами находятся в одном блоке.
+	 */
+	private final short accordMask;
+
 	public BlockPredicate(Aspect sourceAspect, Aspect destinationAspect) {
 		this.sourceAspect = sourceAspect;
 		this.destinationAspect = destinationAspect;
+		// Функции находятся в одном блоке, если их индексы отличаются на 1 и меньший из них — нечетный
+		int mask = 0;
+		for (int position = 1; position < 8; position += 2) {
+			mask |= SociotypeMasks.withAspectAt(sourceAspect, position)
+					& SociotypeMasks.withAspectAt(destinationAspect, position + 1);
+			mask |= SociotypeMasks.withAspectAt(sourceAspect, position + 1)
+					& SociotypeMasks.withAspectAt(destinationAspect, position);
+		}
+		accordMask = (short) mask;
 	}
 
 	@Override
 	public CheckResult check(Sociotype sociotype) {
-		int sourcePosition = sociotype.getFunctionByAspect(sourceAspect).getPosition();
-		int destinationPosition = sociotype.getFunctionByAspect(destinationAspect).getPosition();
-		int minPosition = Math.min(sourcePosition, destinationPosition);
-		// Функции находятся в одном блоке, если их индексы отличаются на 1 и меньший из них — нечетный
-		return CheckResult.fromBoolean(Math.abs(sourcePosition - destinationPosition) == 1 && minPosition % 2 != 0);
+		return CheckResult.fromBoolean(SociotypeMasks.contains(getAccordMask(), sociotype));
+	}
+
+	@Override
+	public int getAccordMask() {
+		return accordMask & SociotypeMasks.ALL;
+	}
+
+	@Override
+	public int getDiscordMask() {
+		return SociotypeMasks.ALL & ~getAccordMask();
 	}
 
 	@Override
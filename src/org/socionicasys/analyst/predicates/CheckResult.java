@@ -1,5 +1,8 @@
 package org.socionicasys.analyst.predicates;
 
+import org.socionicasys.analyst.types.Sociotype;
+import org.socionicasys.analyst.types.SociotypeMasks;
+
 /**
  * Результат проверки соответствия социотипа предикату.
  */
@@ -22,4 +25,19 @@ public enum CheckResult {
 	public static CheckResult fromBoolean(boolean checkResult) {
 		return checkResult ? SUCCESS : FAIL;
 	}
+
+	/**
+	 * Определяет результат проверки ТИМа по маскам предиката.
+	 *
+	 * @param sociotype ТИМ
+	 * @param accordMask маска ТИМов, удовлетворяющих предикату
+	 * @param discordMask маска ТИМов, не удовлетворяющих предикату
+	 * @return результат проверки ТИМа
+	 */
+	public static CheckResult fromMasks(Sociotype sociotype, int accordMask, int discordMask) {
+		if (SociotypeMasks.contains(discordMask, sociotype)) {
+			return FAIL;
+		}
+		return SociotypeMasks.contains(accordMask, sociotype) ? SUCCESS : IGNORE;
+	}
 }
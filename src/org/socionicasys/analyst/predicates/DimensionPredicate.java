@@ -2,6 +2,7 @@ package org.socionicasys.analyst.predicates;
 
 import org.socionicasys.analyst.types.Aspect;
 import org.socionicasys.analyst.types.Sociotype;
+import org.socionicasys.analyst.types.SociotypeMasks;
 import org.socionicasys.analyst.util.EqualsUtil;
 import org.socionicasys.analyst.util.HashUtil;
 
@@ -19,6 +20,11 @@ public class DimensionPredicate implements Predicate {
 	 */
 	private final int dimension;
 
+	/**
+	 * ТИМы, у которых функция с аспектом имеет размерность не ниже заданной.
+	 */
+	private final short accordMask;
+
 	public DimensionPredicate(Aspect aspect, int dimension) {
 		if (dimension >= 1 && dimension <= 4) {
 			this.dimension = dimension;
@@ -26,6 +32,12 @@ public class DimensionPredicate implements Predicate {
 			throw new IllegalArgumentException("Illegal dimension for DimensionPredicate");
 		}
 		this.aspect = aspect;
+		// Размерность dimension и выше имеют ментальные функции 1..(5 - dimension) и витальные (4 + dimension)..8
+		int mask = 0;
+		for (int position = 1; position <= 5 - dimension; position++) {
+			mask |= SociotypeMasks.withAspectAt(aspect, position) | SociotypeMasks.withAspectAt(aspect, 9 - position);
+		}
+		accordMask = (short) mask;
 	}
 
 	/**
@@ -51,7 +63,17 @@ public class DimensionPredicate implements Predicate {
 
 	@Override
 	public CheckResult check(Sociotype sociotype) {
-		return CheckResult.fromBoolean(sociotype.getFunctionByAspect(aspect).getDimension() >= dimension);
+		return CheckResult.fromBoolean(SociotypeMasks.contains(getAccordMask(), sociotype));
+	}
+
+	@Override
+	public int getAccordMask() {
+		return accordMask & SociotypeMasks.ALL;
+	}
+
+	@Override
+	public int getDiscordMask() {
+		return SociotypeMasks.ALL & ~getAccordMask();
 	}
 
 	@Override
@@ -28,6 +28,16 @@ public class JumpPredicate implements Predicate {
 		return CheckResult.IGNORE;
 	}
 
+	@Override
+	public int getAccordMask() {
+		return 0;
+	}
+
+	@Override
+	public int getDiscordMask() {
+		return 0;
+	}
+
 	@Override
 	public String toString() {
 		return String.format("%s->%s", fromAspect, toAspect);
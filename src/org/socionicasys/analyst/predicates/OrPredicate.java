@@ -1,29 +1,40 @@
 package org.socionicasys.analyst.predicates;
 
 import org.socionicasys.analyst.types.Sociotype;
+import org.socionicasys.analyst.types.SociotypeMasks;
 
 /**
  * Составной предикат, который проходит проверку, если хотя бы один из дочерних претикатов проходит.
  */
 public class OrPredicate extends CompositePredicate {
+	private final short accordMask;
+	private final short discordMask;
+
 	public OrPredicate(Predicate... predicates) {
 		super(predicates);
+		// Проверка проходит, если пройден хоть один дочерний предикат
+		int accord = 0;
+		int discord = 0;
+		for (Predicate predicate : predicates) {
+			accord |= predicate.getAccordMask();
+			discord |= predicate.getDiscordMask();
+		}
+		accordMask = (short) accord;
+		discordMask = (short) (discord & ~accord);
 	}
 
 	@Override
 	public CheckResult check(Sociotype sociotype) {
-		boolean failFound = false;
-		for (Predicate predicate : getChildren()) {
-			switch (predicate.check(sociotype)) {
-			case FAIL:
-				failFound = true;
-				break;
-			case IGNORE:
-				break;
-			case SUCCESS:
-				return CheckResult.SUCCESS;
-			}
-		}
-		return failFound ? CheckResult.FAIL : CheckResult.IGNORE;
+		return CheckResult.fromMasks(sociotype, getAccordMask(), getDiscordMask());
+	}
+
+	@Override
+	public int getAccordMask() {
+		return accordMask & SociotypeMasks.ALL;
+	}
+
+	@Override
+	public int getDiscordMask() {
+		return discordMask & SociotypeMasks.ALL;
 	}
 }
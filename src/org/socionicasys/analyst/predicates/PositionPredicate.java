@@ -2,6 +2,7 @@ package org.socionicasys.analyst.predicates;
 
 import org.socionicasys.analyst.types.Aspect;
 import org.socionicasys.analyst.types.Sociotype;
+import org.socionicasys.analyst.types.SociotypeMasks;
 import org.socionicasys.analyst.util.EqualsUtil;
 import org.socionicasys.analyst.util.HashUtil;
 
@@ -23,10 +24,20 @@ public class PositionPredicate implements Predicate {
 	 */
 	private final List<Integer> positions;
 
+	/**
+	 * ТИМы, у которых аспект стоит на одном из заданных мест.
+	 */
+	private final short accordMask;
+
 	public PositionPredicate(Aspect aspect, List<Integer> positions) {
 		this.aspect = aspect;
 		this.positions = new ArrayList<Integer>();
 		this.positions.addAll(positions);
+		int mask = 0;
+		for (int position : positions) {
+			mask |= SociotypeMasks.withAspectAt(aspect, position);
+		}
+		accordMask = (short) mask;
 	}
 
 	public Aspect getAspect() {
@@ -39,8 +50,17 @@ public class PositionPredicate implements Predicate {
 
 	@Override
 	public CheckResult check(Sociotype sociotype) {
-		int functionPosition = sociotype.getFunctionByAspect(aspect).getPosition();
-		return CheckResult.fromBoolean(positions.contains(functionPosition));
+		return CheckResult.fromBoolean(SociotypeMasks.contains(getAccordMask(), sociotype));
+	}
+
+	@Override
+	public int getAccordMask() {
+		return accordMask & SociotypeMasks.ALL;
+	}
+
+	@Override
+	public int getDiscordMask() {
+		return SociotypeMasks.ALL & ~getAccordMask();
 	}
 
 	@Override
@@ -1,13 +1,28 @@
 package org.socionicasys.analyst.predicates;
 
 import org.socionicasys.analyst.types.Sociotype;
+import org.socionicasys.analyst.types.SociotypeMasks;
 
 /**
  * Предикат, описывающий какую-либо информацию о соционических типах.
+ *
+ * <p>Результаты проверки всех ТИМов вычисляются заранее и хранятся в виде двух масок
+ * ({@link SociotypeMasks}): ТИМов, для которых проверка дает {@link CheckResult#SUCCESS}, и ТИМов,
+ * для которых она дает {@link CheckResult#FAIL}. Остальные ТИМы проверку пропускают.</p>
  */
 public interface Predicate {
 	/**
 	 * Проверяет, удовлетворяет ли заданный ТИМ предикату.
 	 */
 	CheckResult check(Sociotype sociotype);
+
+	/**
+	 * @return маска ТИМов, которые удовлетворяют предикату
+	 */
+	int getAccordMask();
+
+	/**
+	 * @return маска ТИМов, которые не удовлетворяют предикату; не пересекается с {@link #getAccordMask()}
+	 */
+	int getDiscordMask();
 }
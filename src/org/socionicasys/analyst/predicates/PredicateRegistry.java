@@ -0,0 +1,154 @@
+package org.socionicasys.analyst.predicates;
+
+import org.socionicasys.analyst.types.Aspect;
+import org.socionicasys.analyst.types.Sign;
+
+/**
+ * Единственные экземпляры всех предикатов. Предикаты неизменяемы, а их множество невелико
+ * (около двадцати видов на каждый аспект и по два на каждую пару аспектов), поэтому все они создаются
+ * один раз при загрузке класса, и разбор разметки не создает новых объектов.
+ */
+public final class PredicateRegistry {
+	private static final int DIMENSION_COUNT = 4;
+
+	private static final SignPredicate[][] SIGN_PREDICATES;
+	private static final DimensionPredicate[][] DIMENSION_PREDICATES;
+	private static final Dimension1Predicate[] DIMENSION1_PREDICATES;
+	private static final LowDimensionPredicate[] LOW_DIMENSION_PREDICATES;
+	private static final HighDimensionPredicate[] HIGH_DIMENSION_PREDICATES;
+	private static final IndividualityPredicate[] INDIVIDUALITY_PREDICATES;
+	private static final MentalPredicate[] MENTAL_PREDICATES;
+	private static final VitalPredicate[] VITAL_PREDICATES;
+	private static final EvaluatoryPredicate[] EVALUATORY_PREDICATES;
+	private static final SituationalPredicate[] SITUATIONAL_PREDICATES;
+	private static final EgoPredicate[] EGO_PREDICATES;
+	private static final SuperegoPredicate[] SUPEREGO_PREDICATES;
+	private static final SuperidPredicate[] SUPERID_PREDICATES;
+	private static final IdPredicate[] ID_PREDICATES;
+	private static final BlockPredicate[][] BLOCK_PREDICATES;
+	private static final JumpPredicate[][] JUMP_PREDICATES;
+
+	static {
+		Aspect[] aspects = Aspect.values();
+		Sign[] signs = Sign.values();
+		int aspectCount = aspects.length;
+
+		SIGN_PREDICATES = new SignPredicate[aspectCount][signs.length];
+		DIMENSION_PREDICATES = new DimensionPredicate[aspectCount][DIMENSION_COUNT];
+		DIMENSION1_PREDICATES = new Dimension1Predicate[aspectCount];
+		LOW_DIMENSION_PREDICATES = new LowDimensionPredicate[aspectCount];
+		HIGH_DIMENSION_PREDICATES = new HighDimensionPredicate[aspectCount];
+		INDIVIDUALITY_PREDICATES = new IndividualityPredicate[aspectCount];
+		MENTAL_PREDICATES = new MentalPredicate[aspectCount];
+		VITAL_PREDICATES = new VitalPredicate[aspectCount];
+		EVALUATORY_PREDICATES = new EvaluatoryPredicate[aspectCount];
+		SITUATIONAL_PREDICATES = new SituationalPredicate[aspectCount];
+		EGO_PREDICATES = new EgoPredicate[aspectCount];
+		SUPEREGO_PREDICATES = new SuperegoPredicate[aspectCount];
+		SUPERID_PREDICATES = new SuperidPredicate[aspectCount];
+		ID_PREDICATES = new IdPredicate[aspectCount];
+		BLOCK_PREDICATES = new BlockPredicate[aspectCount][aspectCount];
+		JUMP_PREDICATES = new JumpPredicate[aspectCount][aspectCount];
+
+		for (Aspect aspect : aspects) {
+			int index = aspect.ordinal();
+			for (Sign sign : signs) {
+				SIGN_PREDICATES[index][sign.ordinal()] = new SignPredicate(aspect, sign);
+			}
+			for (int dimension = 1; dimension <= DIMENSION_COUNT; dimension++) {
+				DIMENSION_PREDICATES[index][dimension - 1] = new DimensionPredicate(aspect, dimension);
+			}
+			DIMENSION1_PREDICATES[index] = new Dimension1Predicate(aspect);
+			LOW_DIMENSION_PREDICATES[index] = new LowDimensionPredicate(aspect);
+			HIGH_DIMENSION_PREDICATES[index] = new HighDimensionPredicate(aspect);
+			INDIVIDUALITY_PREDICATES[index] = new IndividualityPredicate(aspect);
+			MENTAL_PREDICATES[index] = new MentalPredicate(aspect);
+			VITAL_PREDICATES[index] = new VitalPredicate(aspect);
+			EVALUATORY_PREDICATES[index] = new EvaluatoryPredicate(aspect);
+			SITUATIONAL_PREDICATES[index] = new SituationalPredicate(aspect);
+			EGO_PREDICATES[index] = new EgoPredicate(aspect);
+			SUPEREGO_PREDICATES[index] = new SuperegoPredicate(aspect);
+			SUPERID_PREDICATES[index] = new SuperidPredicate(aspect);
+			ID_PREDICATES[index] = new IdPredicate(aspect);
+			for (Aspect secondAspect : aspects) {
+				BLOCK_PREDICATES[index][secondAspect.ordinal()] = new BlockPredicate(aspect, secondAspect);
+				JUMP_PREDICATES[index][secondAspect.ordinal()] = new JumpPredicate(aspect, secondAspect);
+			}
+		}
+	}
+
+	private PredicateRegistry() {
+	}
+
+	public static SignPredicate sign(Aspect aspect, Sign sign) {
+		return SIGN_PREDICATES[aspect.ordinal()][sign.ordinal()];
+	}
+
+	/**
+	 * @param aspect аспект
+	 * @param dimension минимальная размерность, от 1 до 4
+	 * @return предикат {@link DimensionPredicate}
+	 */
+	public static DimensionPredicate dimension(Aspect aspect, int dimension) {
+		if (dimension < 1 || dimension > DIMENSION_COUNT) {
+			throw new IllegalArgumentException("Illegal dimension for DimensionPredicate");
+		}
+		return DIMENSION_PREDICATES[aspect.ordinal()][dimension - 1];
+	}
+
+	public static Dimension1Predicate dimension1(Aspect aspect) {
+		return DIMENSION1_PREDICATES[aspect.ordinal()];
+	}
+
+	public static LowDimensionPredicate lowDimension(Aspect aspect) {
+		return LOW_DIMENSION_PREDICATES[aspect.ordinal()];
+	}
+
+	public static HighDimensionPredicate highDimension(Aspect aspect) {
+		return HIGH_DIMENSION_PREDICATES[aspect.ordinal()];
+	}
+
+	public static IndividualityPredicate individuality(Aspect aspect) {
+		return INDIVIDUALITY_PREDICATES[aspect.ordinal()];
+	}
+
+	public static MentalPredicate mental(Aspect aspect) {
+		return MENTAL_PREDICATES[aspect.ordinal()];
+	}
+
+	public static VitalPredicate vital(Aspect aspect) {
+		return VITAL_PREDICATES[aspect.ordinal()];
+	}
+
+	public static EvaluatoryPredicate evaluatory(Aspect aspect) {
+		return EVALUATORY_PREDICATES[aspect.ordinal()];
+	}
+
+	public static SituationalPredicate situational(Aspect aspect) {
+		return SITUATIONAL_PREDICATES[aspect.ordinal()];
+	}
+
+	public static EgoPredicate ego(Aspect aspect) {
+		return EGO_PREDICATES[aspect.ordinal()];
+	}
+
+	public static SuperegoPredicate superego(Aspect aspect) {
+		return SUPEREGO_PREDICATES[aspect.ordinal()];
+	}
+
+	public static SuperidPredicate superid(Aspect aspect) {
+		return SUPERID_PREDICATES[aspect.ordinal()];
+	}
+
+	public static IdPredicate id(Aspect aspect) {
+		return ID_PREDICATES[aspect.ordinal()];
+	}
+
+	public static BlockPredicate block(Aspect sourceAspect, Aspect destinationAspect) {
+		return BLOCK_PREDICATES[sourceAspect.ordinal()][destinationAspect.ordinal()];
+	}
+
+	public static JumpPredicate jump(Aspect fromAspect, Aspect toAspect) {
+		return JUMP_PREDICATES[fromAspect.ordinal()][toAspect.ordinal()];
+	}
+}
@@ -0,0 +1,450 @@
+package org.socionicasys.analyst.predicates;
+
+import org.socionicasys.analyst.model.AData;
+import org.socionicasys.analyst.types.Aspect;
+import org.socionicasys.analyst.types.Sign;
+import org.socionicasys.analyst.types.SociotypeMasks;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Набор правил сверки разметки с моделью А, загружаемый из текстового описания вместо классов предикатов.
+ *
+ * <p>Каждая строка описания задает правило для одного значения одного поля разметки:</p>
+ * <pre>
+ * # комментарий
+ * sign.PLUS = sign(+) | position(4, 5)
+ * modifier.BLOCK = block
+ * modifier.TRANSFER = ignore
+ * </pre>
+ * <p>Слева от {@code =} стоит поле разметки ({@code modifier}, {@code sign}, {@code dimension}, {@code fd},
+ * {@code blocks}) и через точку его значение, как оно записывается в {@link AData}. Справа — условие, при котором
+ * ТИМ соответствует пометке, относительно аспекта пометки. Условие строится из {@code position(1, ...)}
+ * (функция с аспектом стоит на одном из мест модели), {@code sign(+)} и {@code sign(-)} (знак функции
+ * с аспектом), {@code block} (аспект и второй аспект пометки в одном блоке, только для поля {@code modifier}),
+ * {@code all}, {@code none}, операций {@code !}, {@code &}, {@code |} и скобок. Правило {@code ignore}
+ * не учитывается при подсчете соответствий, как {@link JumpPredicate}.</p>
+ *
+ * <p>При загрузке каждое правило вычисляется для всех аспектов (и пар аспектов) и хранится как таблица масок ТИМов,
+ * поэтому сверка пометки с набором правил сводится к нескольким поискам в таблицах, как и для предикатов
+ * из {@link PredicateRegistry}. Маски пометки объединяются так же, как в
+ * {@link org.socionicasys.analyst.SocionicsType}: ТИМ не соответствует пометке, если для него провалено хотя бы
+ * одно правило, и соответствует, если все правила выполнены. Значения, для которых правило не задано, пометку
+ * не меняют.</p>
+ */
+public final class RuleSet {
+	/**
+	 * Путь к описанию правил, совпадающих с классами предикатов.
+	 */
+	public static final String DEFAULT_RULES = "resources/org/socionicasys/analyst/predicates/default.rules";
+
+	private static final String MODIFIER = "modifier";
+	private static final String SIGN = "sign";
+	private static final String DIMENSION = "dimension";
+	private static final String FD = "fd";
+	private static final String BLOCKS = "blocks";
+
+	/**
+	 * Допустимые значения каждого поля разметки.
+	 */
+	private static final Map<String, List<String>> FIELD_VALUES;
+
+	private static final Aspect[] ASPECTS = Aspect.values();
+	private static final int COMBINATION_COUNT = ASPECTS.length * ASPECTS.length;
+
+	static {
+		FIELD_VALUES = new HashMap<String, List<String>>();
+		FIELD_VALUES.put(MODIFIER, Arrays.asList(AData.BLOCK, AData.JUMP));
+		FIELD_VALUES.put(SIGN, Arrays.asList(AData.PLUS, AData.MINUS));
+		FIELD_VALUES.put(DIMENSION, Arrays.asList(AData.D1, AData.D2, AData.D3, AData.D4, AData.MALOMERNOST,
+				AData.MNOGOMERNOST, AData.ODNOMERNOST, AData.INDIVIDUALNOST));
+		FIELD_VALUES.put(FD, Arrays.asList(AData.MENTAL, AData.VITAL, AData.EVALUATORY, AData.SITUATIONAL));
+		FIELD_VALUES.put(BLOCKS, Arrays.asList(AData.EGO, AData.SUPEREGO, AData.SUPERID, AData.ID));
+	}
+
+	private final String name;
+
+	/**
+	 * Таблицы масок правил по полю и значению разметки. Маска соответствующих ТИМов для аспекта {@code a}
+	 * и второго аспекта {@code b} хранится под номером {@code a.ordinal() * 8 + b.ordinal()}; {@code null}
+	 * означает правило {@code ignore}.
+	 */
+	private final Map<String, Map<String, short[]>> rules;
+
+	private RuleSet(String name, Map<String, Map<String, short[]>> rules) {
+		this.name = name;
+		this.rules = rules;
+	}
+
+	/**
+	 * Загружает набор правил из ресурса приложения.
+	 *
+	 * @param resourcePath путь к ресурсу, например {@link #DEFAULT_RULES}
+	 * @return скомпилированный набор правил
+	 * @throws IOException если ресурс не удалось прочитать
+	 * @throws IllegalArgumentException если описание правил содержит ошибку
+	 */
+	public static RuleSet fromResource(String resourcePath) throws IOException {
+		InputStream stream = RuleSet.class.getClassLoader().getResourceAsStream(resourcePath);
+		if (stream == null) {
+			throw new IOException(String.format("Rule resource %s not found", resourcePath));
+		}
+		Reader reader = new InputStreamReader(stream, "UTF-8");
+		try {
+			return parse(resourcePath.substring(resourcePath.lastIndexOf('/') + 1), reader);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Загружает набор правил из файла, например из варианта правил, составленного пользователем.
+	 *
+	 * @param file файл с описанием правил в кодировке UTF-8
+	 * @return скомпилированный набор правил, названный по имени файла
+	 * @throws IOException если файл не удалось прочитать
+	 * @throws IllegalArgumentException если описание правил содержит ошибку
+	 */
+	public static RuleSet fromFile(File file) throws IOException {
+		Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+		try {
+			return parse(file.getName(), reader);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Разбирает и компилирует описание набора правил.
+	 *
+	 * @param name название набора правил
+	 * @param source текст описания
+	 * @return скомпилированный набор правил
+	 * @throws IOException если описание не удалось прочитать
+	 * @throws IllegalArgumentException если описание правил содержит ошибку
+	 */
+	public static RuleSet parse(String name, Reader source) throws IOException {
+		Map<String, Map<String, short[]>> rules = new HashMap<String, Map<String, short[]>>();
+		for (String field : FIELD_VALUES.keySet()) {
+			rules.put(field, new HashMap<String, short[]>());
+		}
+
+		BufferedReader reader = new BufferedReader(source);
+		int lineNumber = 0;
+		for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+			lineNumber++;
+			int commentStart = line.indexOf('#');
+			if (commentStart >= 0) {
+				line = line.substring(0, commentStart);
+			}
+			// Строка не обрезается, чтобы номера столбцов в сообщениях об ошибках совпадали с исходным текстом
+			if (line.trim().isEmpty()) {
+				continue;
+			}
+
+			int separator = line.indexOf('=');
+			int fieldEnd = line.indexOf('.');
+			if (separator < 0 || fieldEnd < 0 || fieldEnd > separator) {
+				throw ruleError(name, lineNumber, "expected <field>.<value> = <condition>");
+			}
+			String field = line.substring(0, fieldEnd).trim();
+			String value = line.substring(fieldEnd + 1, separator).trim();
+			List<String> values = FIELD_VALUES.get(field);
+			if (values == null) {
+				throw ruleError(name, lineNumber, String.format("unknown field '%s'", field));
+			}
+			if (!values.contains(value)) {
+				throw ruleError(name, lineNumber, String.format("unknown %s value '%s'", field, value));
+			}
+			Map<String, short[]> fieldRules = rules.get(field);
+			if (fieldRules.containsKey(value)) {
+				throw ruleError(name, lineNumber, String.format("duplicate rule for %s.%s", field, value));
+			}
+
+			ConditionParser parser = new ConditionParser(line, separator + 1, MODIFIER.equals(field));
+			try {
+				fieldRules.put(value, parser.parseRule());
+			} catch (IllegalArgumentException e) {
+				throw ruleError(name, lineNumber, e.getMessage());
+			}
+		}
+		return new RuleSet(name, rules);
+	}
+
+	private static IllegalArgumentException ruleError(String name, int lineNumber, String message) {
+		return new IllegalArgumentException(String.format("%s:%d: %s", name, lineNumber, message));
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Сверяет пометку с моделью А по правилам набора.
+	 *
+	 * @param data разметка пометки
+	 * @return маска соответствующих пометке ТИМов в младших 16 битах и маска несоответствующих в старших,
+	 * или 0, если пометка не влияет на счетчики
+	 */
+	public int classify(AData data) {
+		String aspectCode = data.getAspect();
+		if (aspectCode == null || AData.DOUBT.equals(aspectCode)) {
+			return 0;
+		}
+
+		int aspectIndex = Aspect.byAbbreviation(aspectCode).ordinal();
+		String secondAspectCode = data.getSecondAspect();
+		int combination = aspectIndex * ASPECTS.length + (secondAspectCode == null ?
+				aspectIndex : Aspect.byAbbreviation(secondAspectCode).ordinal());
+
+		String modifier = secondAspectCode == null ? null : data.getModifier();
+		int classification = applyRule(0, MODIFIER, modifier, combination);
+		classification = applyRule(classification, SIGN, data.getSign(), combination);
+		classification = applyRule(classification, DIMENSION, data.getDimension(), combination);
+		classification = applyRule(classification, FD, data.getFD(), combination);
+		classification = applyRule(classification, BLOCKS, data.getBlocks(), combination);
+
+		int accordMask = classification & 0xFFFF;
+		int discordMask = classification >>> 16;
+		return (accordMask & ~discordMask) | discordMask << 16;
+	}
+
+	/**
+	 * Добавляет к маскам пометки результат правила для значения одного поля разметки.
+	 *
+	 * @param classification объединение масок соответствия в младших 16 битах и несоответствия в старших
+	 * @param field поле разметки
+	 * @param value значение поля или {@code null}
+	 * @param combination номер пары аспектов пометки
+	 * @return обновленное объединение масок
+	 */
+	private int applyRule(int classification, String field, String value, int combination) {
+		if (value == null) {
+			return classification;
+		}
+		short[] masks = rules.get(field).get(value);
+		if (masks == null) {
+			return classification;
+		}
+		int mask = masks[combination] & SociotypeMasks.ALL;
+		return classification | mask | (SociotypeMasks.ALL & ~mask) << 16;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+	/**
+	 * Разбор условия правила методом рекурсивного спуска. Каждое подвыражение сразу вычисляется
+	 * как таблица масок по всем парам аспектов.
+	 */
+	private static final class ConditionParser {
+		private final String text;
+		private final boolean secondAspectAllowed;
+		private int position;
+
+		/**
+		 * @param text строка описания
+		 * @param start начало условия в строке
+		 * @param secondAspectAllowed можно ли ссылаться на второй аспект пометки
+		 */
+		ConditionParser(String text, int start, boolean secondAspectAllowed) {
+			this.text = text;
+			this.secondAspectAllowed = secondAspectAllowed;
+			position = start;
+		}
+
+		/**
+		 * @return таблица масок правила или {@code null} для {@code ignore}
+		 */
+		short[] parseRule() {
+			skipSpaces();
+			if (text.startsWith("ignore", position)) {
+				position += "ignore".length();
+				expectEnd();
+				return null;
+			}
+			int[] masks = parseOr();
+			expectEnd();
+			short[] result = new short[COMBINATION_COUNT];
+			for (int i = 0; i < COMBINATION_COUNT; i++) {
+				result[i] = (short) masks[i];
+			}
+			return result;
+		}
+
+		private int[] parseOr() {
+			int[] masks = parseAnd();
+			while (accept('|')) {
+				int[] other = parseAnd();
+				for (int i = 0; i < COMBINATION_COUNT; i++) {
+					masks[i] |= other[i];
+				}
+			}
+			return masks;
+		}
+
+		private int[] parseAnd() {
+			int[] masks = parseUnary();
+			while (accept('&')) {
+				int[] other = parseUnary();
+				for (int i = 0; i < COMBINATION_COUNT; i++) {
+					masks[i] &= other[i];
+				}
+			}
+			return masks;
+		}
+
+		private int[] parseUnary() {
+			if (accept('!')) {
+				int[] masks = parseUnary();
+				for (int i = 0; i < COMBINATION_COUNT; i++) {
+					masks[i] = SociotypeMasks.ALL & ~masks[i];
+				}
+				return masks;
+			}
+			if (accept('(')) {
+				int[] masks = parseOr();
+				expect(')');
+				return masks;
+			}
+			return parseAtom();
+		}
+
+		private int[] parseAtom() {
+			skipSpaces();
+			int atomStart = position;
+			String atom = parseWord();
+			int[] masks = new int[COMBINATION_COUNT];
+			if ("all".equals(atom)) {
+				Arrays.fill(masks, SociotypeMasks.ALL);
+			} else if ("none".equals(atom)) {
+				// Маски уже пусты
+			} else if ("position".equals(atom)) {
+				expect('(');
+				do {
+					int place = parseNumber();
+					if (place < 1 || place > 8) {
+						throw error(String.format("model place %d is out of range 1-8", place));
+					}
+					for (Aspect aspect : ASPECTS) {
+						fillAspect(masks, aspect, SociotypeMasks.withAspectAt(aspect, place));
+					}
+				} while (accept(','));
+				expect(')');
+			} else if ("sign".equals(atom)) {
+				expect('(');
+				Sign sign;
+				if (accept('+')) {
+					sign = Sign.PLUS;
+				} else if (accept('-')) {
+					sign = Sign.MINUS;
+				} else {
+					throw error("expected + or -");
+				}
+				expect(')');
+				for (Aspect aspect : ASPECTS) {
+					fillAspect(masks, aspect, SociotypeMasks.withAspectSign(aspect, sign));
+				}
+			} else if ("block".equals(atom)) {
+				if (!secondAspectAllowed) {
+					throw error("'block' needs a second aspect and is only allowed for modifier rules");
+				}
+				for (Aspect aspect : ASPECTS) {
+					for (Aspect secondAspect : ASPECTS) {
+						masks[aspect.ordinal() * ASPECTS.length + secondAspect.ordinal()] =
+								PredicateRegistry.block(aspect, secondAspect).getAccordMask();
+					}
+				}
+			} else {
+				throw error(String.format("unknown condition '%s'", atom), atomStart);
+			}
+			return masks;
+		}
+
+		/**
+		 * Записывает маску во все пары аспектов с заданным первым аспектом.
+		 */
+		private static void fillAspect(int[] masks, Aspect aspect, int mask) {
+			int start = aspect.ordinal() * ASPECTS.length;
+			for (int i = start; i < start + ASPECTS.length; i++) {
+				masks[i] |= mask;
+			}
+		}
+
+		private String parseWord() {
+			skipSpaces();
+			int start = position;
+			while (position < text.length() && Character.isLetter(text.charAt(position))) {
+				position++;
+			}
+			if (start == position) {
+				throw error("expected a condition");
+			}
+			return text.substring(start, position);
+		}
+
+		private int parseNumber() {
+			skipSpaces();
+			int start = position;
+			while (position < text.length() && Character.isDigit(text.charAt(position))) {
+				position++;
+			}
+			if (start == position) {
+				throw error("expected a model place");
+			}
+			return Integer.parseInt(text.substring(start, position));
+		}
+
+		private boolean accept(char c) {
+			skipSpaces();
+			if (position < text.length() && text.charAt(position) == c) {
+				position++;
+				return true;
+			}
+			return false;
+		}
+
+		private void expect(char c) {
+			if (!accept(c)) {
+				throw error(String.format("expected '%c'", c));
+			}
+		}
+
+		private void expectEnd() {
+			skipSpaces();
+			if (position != text.length()) {
+				throw error("unexpected text");
+			}
+		}
+
+		private void skipSpaces() {
+			while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+				position++;
+			}
+		}
+
+		private IllegalArgumentException error(String message) {
+			return error(message, position);
+		}
+
+		/**
+		 * @param message описание ошибки
+		 * @param errorPosition смещение ошибки в исходной строке описания
+		 */
+		private static IllegalArgumentException error(String message, int errorPosition) {
+			return new IllegalArgumentException(String.format("%s at column %d", message, errorPosition + 1));
+		}
+	}
+}
@@ -1,9 +1,9 @@
 package org.socionicasys.analyst.predicates;
 
 import org.socionicasys.analyst.types.Aspect;
-import org.socionicasys.analyst.types.Function;
 import org.socionicasys.analyst.types.Sign;
 import org.socionicasys.analyst.types.Sociotype;
+import org.socionicasys.analyst.types.SociotypeMasks;
 import org.socionicasys.analyst.util.EqualsUtil;
 import org.socionicasys.analyst.util.HashUtil;
 
@@ -22,21 +22,32 @@ public class SignPredicate implements Predicate {
 	 */
 	private final Sign sign;
 
+	/**
+	 * ТИМы, у которых функция с аспектом имеет заданный знак или одномерна.
+	 */
+	private final short accordMask;
+
 	public SignPredicate(Aspect aspect, Sign sign) {
 		this.aspect = aspect;
 		this.sign = sign;
+		// Gives ACCORD for 1 dimensional functions regardless
+		accordMask = (short) (SociotypeMasks.withAspectSign(aspect, sign)
+				| SociotypeMasks.withAspectAt(aspect, 4) | SociotypeMasks.withAspectAt(aspect, 5));
 	}
 
 	@Override
 	public CheckResult check(Sociotype sociotype) {
-		Function socioFunc = sociotype.getFunctionByAspect(aspect);
-		Sign actualSign = socioFunc.getSign();
-		if(socioFunc.getDimension() > 1) {
-			return CheckResult.fromBoolean(actualSign == sign);
-		} else {
-			return CheckResult.fromBoolean(true); // Gives ACCORD for 1 dimensional functions regardless
-		}
-		
+		return CheckResult.fromBoolean(SociotypeMasks.contains(getAccordMask(), sociotype));
+	}
+
+	@Override
+	public int getAccordMask() {
+		return accordMask & SociotypeMasks.ALL;
+	}
+
+	@Override
+	public int getDiscordMask() {
+		return SociotypeMasks.ALL & ~getAccordMask();
 	}
 
 	@Override
@@ -2,6 +2,8 @@ package org.socionicasys.analyst.types;
 
 import org.socionicasys.analyst.service.ServiceContainer;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.ResourceBundle;
 
 /**
@@ -17,6 +19,18 @@ public enum Aspect {
 	I,
 	T;
 
+	/**
+	 * Aspects by abbreviation.
+	 */
+	private static final Map<String, Aspect> BY_ABBREVIATION;
+
+	static {
+		BY_ABBREVIATION = new HashMap<String, Aspect>();
+		for (Aspect aspect : values()) {
+			BY_ABBREVIATION.put(aspect.abbreviation, aspect);
+		}
+	}
+
 	/**
 	 * Aspect name (abbreviation).
 	 */
@@ -55,12 +69,11 @@ public enum Aspect {
 	}
 
 	public static Aspect byAbbreviation(String abbreviation) {
-		for (Aspect aspect : Aspect.values()) {
-			if (aspect.getAbbreviation().equals(abbreviation)) {
-				return aspect;
-			}
+		Aspect aspect = BY_ABBREVIATION.get(abbreviation);
+		if (aspect == null) {
+			throw new IllegalArgumentException("Illegal aspect abbreviation");
 		}
-		throw new IllegalArgumentException("Illegal aspect abbreviation");
+		return aspect;
 	}
 
 	@Override
@@ -4,6 +4,16 @@ package org.socionicasys.analyst.types;
  * Describes a separate function in Model A.
  */
 public class Function {
+	/**
+	 * Dimensionality of the function at each position (index 0 is unused).
+	 */
+	private static final byte[] DIMENSIONS = {0, 4, 3, 2, 1, 1, 2, 3, 4};
+
+	/**
+	 * 1 for mental positions (1-4), 0 for vital ones (5-8); index 0 is unused.
+	 */
+	private static final byte[] MENTAL_FLAGS = {0, 1, 1, 1, 1, 0, 0, 0, 0};
+
 	/**
 	 * Aspect of function.
 	 */
@@ -57,11 +67,7 @@ public class Function {
 	 * @return function dimensionality
 	 */
 	public int getDimension() {
-		if (isMental()) {
-			return 5 - position;
-		} else {
-			return position - 4;
-		}
+		return DIMENSIONS[position];
 	}
 
 	/**
@@ -69,6 +75,6 @@ public class Function {
 	 * @return whether the function is mental
 	 */
 	public boolean isMental() {
-		return (position <= 4);
+		return MENTAL_FLAGS[position] != 0;
 	}
 }
@@ -2,8 +2,6 @@ package org.socionicasys.analyst.types;
 
 import org.socionicasys.analyst.service.ServiceContainer;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.ResourceBundle;
 
 import static org.socionicasys.analyst.types.Aspect.P;
@@ -37,9 +35,40 @@ public enum Sociotype {
 	SLI (Sign.MINUS, S, P, T, E, I, R, F, L);
 
 	/**
-	 * Набор функций модели.
+	 * Места аспектов в моделях всех ТИМов: {@code POSITIONS[ТИМ][аспект]}, индексы — порядковые номера.
 	 */
-	private final List<Function> functions;
+	private static final byte[][] POSITIONS;
+
+	/**
+	 * Знаки функций в моделях всех ТИМов: {@code SIGNS[ТИМ][аспект]} — порядковый номер {@link Sign}.
+	 */
+	private static final byte[][] SIGNS;
+
+	private static final Sign[] SIGN_VALUES = Sign.values();
+
+	static {
+		Sociotype[] sociotypes = values();
+		Aspect[] aspects = Aspect.values();
+		POSITIONS = new byte[sociotypes.length][aspects.length];
+		SIGNS = new byte[sociotypes.length][aspects.length];
+		for (Sociotype sociotype : sociotypes) {
+			for (Function function : sociotype.functionsByPosition) {
+				int aspect = function.getAspect().ordinal();
+				POSITIONS[sociotype.ordinal()][aspect] = (byte) function.getPosition();
+				SIGNS[sociotype.ordinal()][aspect] = (byte) function.getSign().ordinal();
+			}
+		}
+	}
+
+	/**
+	 * Функции модели по порядку мест (1-8).
+	 */
+	private final Function[] functionsByPosition;
+
+	/**
+	 * Функции модели, индексируемые порядковым номером аспекта.
+	 */
+	private final Function[] functionsByAspect;
 
 	/**
 	 * Аббревиатура типа.
@@ -60,7 +89,8 @@ public enum Sociotype {
 
 		abbreviation = bundle.getString(abbreviationKey);
 		nickname = bundle.getString(nicknameKey);
-		functions = new ArrayList<Function>();
+		functionsByPosition = new Function[aspects.length];
+		functionsByAspect = new Function[aspects.length];
 
 		initializeFunctions(firstSign, aspects);
 	}
@@ -71,12 +101,10 @@ public enum Sociotype {
 	 * @return объект, описывающий функцию, или null, если позиция задана некорректно
 	 */
 	public Function getFunctionByPosition(int position) {
-		for (Function function : functions) {
-			if (function.getPosition() == position) {
-				return function;
-			}
+		if (position < 1 || position > functionsByPosition.length) {
+			return null;
 		}
-		return null;
+		return functionsByPosition[position - 1];
 	}
 
 	/**
@@ -85,12 +113,23 @@ public enum Sociotype {
 	 * @return объект, описывающий функцию
 	 */
 	public Function getFunctionByAspect(Aspect aspect) {
-		for (Function function : functions) {
-			if (function.getAspect() == aspect) {
-				return function;
-			}
-		}
-		return null;
+		return functionsByAspect[aspect.ordinal()];
+	}
+
+	/**
+	 * @param aspect аспект
+	 * @return место функции с этим аспектом в модели ТИМа (1-8)
+	 */
+	public int getPosition(Aspect aspect) {
+		return POSITIONS[ordinal()][aspect.ordinal()];
+	}
+
+	/**
+	 * @param aspect аспект
+	 * @return знак функции с этим аспектом в модели ТИМа
+	 */
+	public Sign getSign(Aspect aspect) {
+		return SIGN_VALUES[SIGNS[ordinal()][aspect.ordinal()]];
 	}
 
 	/**
@@ -111,7 +150,9 @@ public enum Sociotype {
 		Sign currentSign = firstSign;
 		for (int i = 0; i < aspects.length; ++i) {
 			Aspect aspect = aspects[i];
-			functions.add(new Function(aspect, i + 1, currentSign));
+			Function function = new Function(aspect, i + 1, currentSign);
+			functionsByPosition[i] = function;
+			functionsByAspect[aspect.ordinal()] = function;
 			// Знаки в модели чередуются по номеру функции,
 			// за исключением знаков функций 4 и 5, которые равны
 			if (i != 3) {
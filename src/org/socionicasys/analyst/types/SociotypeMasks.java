@@ -0,0 +1,74 @@
+package org.socionicasys.analyst.types;
+
+/**
+ * Множества ТИМов в виде 16-битных масок: бит с номером {@link Sociotype#ordinal()} установлен, если ТИМ
+ * входит в множество. Таблицы масок для положения аспектов в модели строятся один раз при загрузке класса,
+ * поэтому предикаты могут вычислять свои маски без перебора функций каждого ТИМа.
+ */
+public final class SociotypeMasks {
+	/**
+	 * Маска, содержащая все ТИМы.
+	 */
+	public static final int ALL = (1 << Sociotype.values().length) - 1;
+
+	/**
+	 * ТИМы, у которых аспект стоит на заданном месте модели, по аспекту и месту (1-8).
+	 */
+	private static final short[][] POSITION_MASKS;
+
+	/**
+	 * ТИМы, у которых функция с аспектом имеет заданный знак, по аспекту и знаку.
+	 */
+	private static final short[][] SIGN_MASKS;
+
+	static {
+		Aspect[] aspects = Aspect.values();
+		POSITION_MASKS = new short[aspects.length][9];
+		SIGN_MASKS = new short[aspects.length][Sign.values().length];
+		for (Sociotype sociotype : Sociotype.values()) {
+			int typeMask = of(sociotype);
+			for (Aspect aspect : aspects) {
+				POSITION_MASKS[aspect.ordinal()][sociotype.getPosition(aspect)] |= typeMask;
+				SIGN_MASKS[aspect.ordinal()][sociotype.getSign(aspect).ordinal()] |= typeMask;
+			}
+		}
+	}
+
+	private SociotypeMasks() {
+	}
+
+	/**
+	 * @param sociotype ТИМ
+	 * @return маска, содержащая только заданный ТИМ
+	 */
+	public static int of(Sociotype sociotype) {
+		return 1 << sociotype.ordinal();
+	}
+
+	/**
+	 * @param mask маска ТИМов
+	 * @param sociotype ТИМ
+	 * @return входит ли ТИМ в маску
+	 */
+	public static boolean contains(int mask, Sociotype sociotype) {
+		return (mask & of(sociotype)) != 0;
+	}
+
+	/**
+	 * @param aspect аспект
+	 * @param position место в модели (1-8)
+	 * @return маска ТИМов, у которых аспект стоит на заданном месте
+	 */
+	public static int withAspectAt(Aspect aspect, int position) {
+		return POSITION_MASKS[aspect.ordinal()][position] & ALL;
+	}
+
+	/**
+	 * @param aspect аспект
+	 * @param sign знак
+	 * @return маска ТИМов, у которых функция с заданным аспектом имеет заданный знак
+	 */
+	public static int withAspectSign(Aspect aspect, Sign sign) {
+		return SIGN_MASKS[aspect.ordinal()][sign.ordinal()] & ALL;
+	}
+}